@@ -1,6 +1,7 @@
 package com.connectsdk;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 public class DefaultPlatform {
 
@@ -8,7 +9,7 @@ public class DefaultPlatform {
     }
 
     public static HashMap<String, String> getDeviceServiceMap() {
-        HashMap<String, String> devicesList = new HashMap<>();
+        HashMap<String, String> devicesList = new LinkedHashMap<>();
         devicesList.put("com.connectsdk.service.RokuService", "com.connectsdk.discovery.provider.SSDPDiscoveryProvider");
         devicesList.put("com.connectsdk.service.DIALService", "com.connectsdk.discovery.provider.SSDPDiscoveryProvider");
         devicesList.put("com.connectsdk.service.NetcastTVService", "com.connectsdk.discovery.provider.SSDPDiscoveryProvider");
@@ -0,0 +1,89 @@
+/*
+ * MediaStatus
+ * Connect SDK
+ *
+ * Copyright (c) 2015 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.connectsdk.core;
+
+import com.connectsdk.service.capability.MediaControl.PlayStateStatus;
+
+/**
+ * Snapshot of the playback status of a media control: play state, position, duration and
+ * metadata of the current media. A service reports the fields it can get in one go; the others
+ * are unknown, i.e. null for objects and -1 for times. This class is immutable.
+ */
+public class MediaStatus {
+    public static final long UNKNOWN_TIME = -1;
+
+    private final PlayStateStatus playState;
+    private final long position;
+    private final long duration;
+    private final MediaInfo mediaInfo;
+
+    /**
+     * @param playState play state or null if unknown
+     * @param position  position in milliseconds or {@link #UNKNOWN_TIME}
+     * @param duration  duration in milliseconds or {@link #UNKNOWN_TIME}
+     * @param mediaInfo metadata of the current media or null if unknown
+     */
+    public MediaStatus(PlayStateStatus playState, long position, long duration, MediaInfo mediaInfo) {
+        this.playState = playState;
+        this.position = position;
+        this.duration = duration;
+        this.mediaInfo = mediaInfo;
+    }
+
+    /**
+     * @return the play state or null if the service did not report it
+     */
+    public PlayStateStatus getPlayState() {
+        return playState;
+    }
+
+    /**
+     * @return the playback position in milliseconds or {@link #UNKNOWN_TIME}
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the media duration in milliseconds or {@link #UNKNOWN_TIME}
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the metadata of the current media or null if the service did not report it
+     */
+    public MediaInfo getMediaInfo() {
+        return mediaInfo;
+    }
+
+    /**
+     * @return a copy of this status with the given play state
+     */
+    public MediaStatus withPlayState(PlayStateStatus playState) {
+        return new MediaStatus(playState, position, duration, mediaInfo);
+    }
+
+    @Override
+    public String toString() {
+        return "MediaStatus{playState=" + playState + ", position=" + position
+                + ", duration=" + duration + ", mediaInfo=" + mediaInfo + "}";
+    }
+}
@@ -32,18 +32,42 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Default implementation of ConnectableDeviceStore. It stores data in a file in application
  * data directory.
+ * <p>
+ * The file is either JSON or, if requested in the constructor, a binary snapshot that starts
+ * with an index of device ids and service UUIDs. With the binary format only the index is read
+ * at startup, and a stored device is decoded the first time it is asked for.
  *
  * @noinspection unused
  */
@@ -53,10 +77,40 @@ public class DefaultConnectableDeviceStore implements ConnectableDeviceStore {
     public static final String KEY_CREATED = "created";
     public static final String KEY_UPDATED = "updated";
     public static final String KEY_DEVICES = "devices";
+    public static final String KEY_GENERATION = "generation";
 
     static final int CURRENT_VERSION = 0;
 
     static final String FILENAME = "StoredDevices";
+    static final String BINARY_SUFFIX = ".bin";
+    static final String JOURNAL_SUFFIX = ".journal";
+    static final String TEMP_SUFFIX = ".tmp";
+
+    static final int BINARY_MAGIC = 0x43534453; // "CSDS"
+    static final int BINARY_FORMAT_VERSION = 1;
+    /* magic, format version, store version, created, updated, device count, index length, generation */
+    static final int BINARY_HEADER_LENGTH = 48;
+
+    /* The journal is folded into the snapshot once it holds this many records plus one for every
+       two stored devices, which keeps the cost of compaction constant per record */
+    static final int COMPACTION_SLACK = 64;
+
+    /* Quiet period after the last change before it is written, in milliseconds */
+    public static final long DEFAULT_WRITE_DELAY = 500;
+    /* Longest time a change may wait for a write during a continuous burst, in milliseconds */
+    public static final long DEFAULT_MAX_WRITE_LATENCY = 5000;
+
+    public static final int DEFAULT_MAX_STORED_DEVICES = 500;
+
+    /* Devices examined per eviction step, so that one step never holds the store for long */
+    static final int EVICTION_BATCH_SIZE = 64;
+    static final long EVICTION_START_DELAY = TimeUnit.SECONDS.toMillis(10);
+    static final long EVICTION_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    static final String KEY_OP = "op";
+    static final String KEY_DEVICE = "device";
+    static final String OP_PUT = "put";
+    static final String OP_REMOVE = "remove";
 
     static final String IP_ADDRESS = "ipAddress";
     static final String FRIENDLY_NAME = "friendlyName";
@@ -92,22 +146,92 @@ public class DefaultConnectableDeviceStore implements ConnectableDeviceStore {
     public int version;
 
     /**
-     * Max length of time for a ConnectableDevice to remain in the ConnectableDeviceStore
-     * without being discovered. Default is 3 days, and modifications to this value
-     * will trigger a scan for old devices.
+     * Max length of time, in seconds, for a ConnectableDevice to remain in the
+     * ConnectableDeviceStore without being discovered. Default is 3 days. Devices older than
+     * this are removed by the eviction pass, which runs shortly after the store is created and
+     * then every hour.
      */
     public long maxStoreDuration = TimeUnit.DAYS.toSeconds(3);
 
+    /**
+     * Max number of ConnectableDevices kept in the ConnectableDeviceStore. When there are more,
+     * the devices that were detected or connected least recently are removed. Devices in use
+     * in this session are never removed.
+     */
+    public int maxStoredDevices = DEFAULT_MAX_STORED_DEVICES;
+
     private final String fileFullPath;
+    private final boolean binaryFormat;
+
+    /* Location of a stored device in the binary snapshot that has not been decoded yet */
+    private static class Slot {
+        final long offset;
+        final int length;
+        final String[] serviceUUIDs;
+        /* Time the device was last detected or connected */
+        final long lastSeen;
+
+        Slot(long offset, int length, String[] serviceUUIDs, long lastSeen) {
+            this.offset = offset;
+            this.length = length;
+            this.serviceUUIDs = serviceUUIDs;
+            this.lastSeen = lastSeen;
+        }
+    }
 
     private final Map<String, JSONObject> storedDevices = new ConcurrentHashMap<>();
+    private final Map<String, Slot> storedSlots = new ConcurrentHashMap<>();
+    private RandomAccessFile snapshotFile;
     private final Map<String, ConnectableDevice> activeDevices = new ConcurrentHashMap<>();
+    /* Maps the UUID of every stored or active service to the id of its device */
+    private final Map<String, String> deviceIdsByServiceUUID = new ConcurrentHashMap<>();
+
+    /* Devices changed since the last flush, guarded by this */
+    private final Set<String> dirtyDeviceIds = new LinkedHashSet<>();
+    private boolean compactionRequested;
+    private int journalRecords;
+    /* Incremented by every snapshot; journal records carry the generation of the snapshot they
+       follow, so that a journal left behind by an interrupted compaction is not replayed onto
+       the newer snapshot */
+    private long generation;
+    private boolean closed;
+
+    private long writeDelay = DEFAULT_WRITE_DELAY;
+    private long maxWriteLatency = DEFAULT_MAX_WRITE_LATENCY;
+    private long firstChangeTime;
+    private long flushTime = Long.MAX_VALUE;
+    private boolean writeTaskPending;
 
-    private boolean waitToWrite = false;
+    /* Serializes flushes from the background thread and from flush() */
+    private final Object writeLock = new Object();
+    private final ScheduledExecutorService writeExecutor;
 
     public DefaultConnectableDeviceStore(Context context) {
+        this(context, false);
+    }
+
+    /**
+     * @param binaryFormat whether to keep the store in the indexed binary format, which decodes
+     *                     stored devices on demand. An existing store in the other format is
+     *                     read and converted on the next compaction.
+     */
+    public DefaultConnectableDeviceStore(Context context, boolean binaryFormat) {
+        this.binaryFormat = binaryFormat;
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread th = new Thread(r);
+            th.setName("Device Store");
+            th.setDaemon(true);
+            return th;
+        });
+        executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        writeExecutor = executor;
+
         fileFullPath = new File(context.getFilesDir(), FILENAME).getPath();
         load();
+
+        scheduleEviction(EVICTION_START_DELAY);
     }
 
     @Override
@@ -117,13 +241,16 @@ public class DefaultConnectableDeviceStore implements ConnectableDeviceStore {
 
         if (!activeDevices.containsKey(device.getId()))
             activeDevices.put(device.getId(), device);
+        indexServices(device);
 
         JSONObject storedDevice = getStoredDevice(device.getId());
         if (storedDevice != null) {
             updateDevice(device);
         } else {
-            storedDevices.put(device.getId(), device.toJSONObject());
-            store();
+            JSONObject deviceInfo = device.toJSONObject();
+            storedDevices.put(device.getId(), deviceInfo);
+            indexServices(device.getId(), deviceInfo);
+            store(device.getId());
         }
     }
 
@@ -132,9 +259,18 @@ public class DefaultConnectableDeviceStore implements ConnectableDeviceStore {
         if (device == null)
             return;
 
-        activeDevices.remove(device.getId());
-        storedDevices.remove(device.getId());
-        store();
+        ConnectableDevice activeDevice = activeDevices.remove(device.getId());
+        JSONObject storedDevice = storedDevices.remove(device.getId());
+        Slot slot = storedSlots.remove(device.getId());
+
+        unindexServices(device);
+        if (activeDevice != null)
+            unindexServices(activeDevice);
+        if (storedDevice != null)
+            unindexServices(device.getId(), storedDevice);
+        if (slot != null)
+            unindexServices(device.getId(), slot);
+        store(device.getId());
     }
 
     @Override
@@ -146,43 +282,59 @@ public class DefaultConnectableDeviceStore implements ConnectableDeviceStore {
         if (storedDevice == null)
             return;
 
-        try {
-            storedDevice.put(ConnectableDevice.KEY_LAST_IP, device.getLastKnownIPAddress());
-            storedDevice.put(ConnectableDevice.KEY_LAST_SEEN, device.getLastSeenOnWifi());
-            storedDevice.put(ConnectableDevice.KEY_LAST_CONNECTED, device.getLastConnected());
-            storedDevice.put(ConnectableDevice.KEY_LAST_DETECTED, device.getLastDetection());
+        // the record may be serialized by a compaction at the same time
+        synchronized (this) {
+            try {
+                updateStoredDevice(storedDevice, device);
+            } catch (JSONException e) {
+                Log.e(Util.T,e.getMessage(),e);
+                return;
+            }
+        }
 
-            JSONObject services = storedDevice.optJSONObject(ConnectableDevice.KEY_SERVICES);
+        storedDevices.put(device.getId(), storedDevice);
+        activeDevices.put(device.getId(), device);
+        indexServices(device);
+        store(device.getId());
+    }
 
-            if (services == null)
-                services = new JSONObject();
+    private static void updateStoredDevice(JSONObject storedDevice, ConnectableDevice device) throws JSONException {
+        storedDevice.put(ConnectableDevice.KEY_LAST_IP, device.getLastKnownIPAddress());
+        storedDevice.put(ConnectableDevice.KEY_LAST_SEEN, device.getLastSeenOnWifi());
+        storedDevice.put(ConnectableDevice.KEY_LAST_CONNECTED, device.getLastConnected());
+        storedDevice.put(ConnectableDevice.KEY_LAST_DETECTED, device.getLastDetection());
 
-            for (DeviceService service : device.getServices()) {
-                JSONObject serviceInfo = service.toJSONObject();
+        JSONObject services = storedDevice.optJSONObject(ConnectableDevice.KEY_SERVICES);
 
-                if (serviceInfo != null)
-                    services.put(service.getServiceDescription().getUUID(), serviceInfo);
-            }
-            storedDevice.put(ConnectableDevice.KEY_SERVICES, services);
-            storedDevices.put(device.getId(), storedDevice);
-            activeDevices.put(device.getId(), device);
-            store();
-        } catch (JSONException e) {
-            Log.e(Util.T,e.getMessage(),e);
+        if (services == null)
+            services = new JSONObject();
+
+        for (DeviceService service : device.getServices()) {
+            JSONObject serviceInfo = service.toJSONObject();
+
+            if (serviceInfo != null)
+                services.put(service.getServiceDescription().getUUID(), serviceInfo);
         }
+        storedDevice.put(ConnectableDevice.KEY_SERVICES, services);
     }
 
     @Override
     public void removeAll() {
         activeDevices.clear();
         storedDevices.clear();
-        store();
+        storedSlots.clear();
+        deviceIdsByServiceUUID.clear();
+        compact();
     }
 
     @Override
     public JSONObject getStoredDevices() {
         JSONObject ret = new JSONObject();
 
+        for (String deviceId : storedSlots.keySet()) {
+            hydrate(deviceId);
+        }
+
         for (Map.Entry<String, JSONObject> entry : storedDevices.entrySet()) {
             try {
                 ret.put(entry.getKey(), entry.getValue());
@@ -212,31 +364,111 @@ public class DefaultConnectableDeviceStore implements ConnectableDeviceStore {
         ConnectableDevice foundDevice = activeDevices.get(uuid);
 
         if (foundDevice == null) {
-            for (ConnectableDevice device : activeDevices.values()) {
-                for (DeviceService service : device.getServices()) {
-                    if (uuid.equals(service.getServiceDescription().getUUID())) {
-                        return device;
-                    }
-                }
-            }
+            String deviceId = deviceIdsByServiceUUID.get(uuid);
+            if (deviceId != null)
+                foundDevice = activeDevices.get(deviceId);
         }
         return foundDevice;
     }
 
     private JSONObject getStoredDevice(String uuid) {
-        JSONObject foundDevice = storedDevices.get(uuid);
+        JSONObject foundDevice = getStoredDeviceById(uuid);
 
         if (foundDevice == null) {
-            for (JSONObject device : storedDevices.values()) {
-                JSONObject services = device.optJSONObject(ConnectableDevice.KEY_SERVICES);
-
-                if (services != null && services.has(uuid))
-                    return device;
-            }
+            String deviceId = deviceIdsByServiceUUID.get(uuid);
+            if (deviceId != null)
+                foundDevice = getStoredDeviceById(deviceId);
         }
         return foundDevice;
     }
 
+    private JSONObject getStoredDeviceById(String deviceId) {
+        JSONObject foundDevice = storedDevices.get(deviceId);
+
+        if (foundDevice == null && storedSlots.containsKey(deviceId))
+            foundDevice = hydrate(deviceId);
+        return foundDevice;
+    }
+
+    /**
+     * Decodes a device from the binary snapshot and keeps it in storedDevices from then on.
+     */
+    private synchronized JSONObject hydrate(String deviceId) {
+        Slot slot = storedSlots.get(deviceId);
+        if (slot == null)
+            return storedDevices.get(deviceId);
+
+        try {
+            JSONObject device = new JSONObject(new String(readSlot(snapshotFile, slot), StandardCharsets.UTF_8));
+            storedDevices.put(deviceId, device);
+            return device;
+        } catch (IOException | JSONException e) {
+            Log.e(Util.T, "Failed to read stored device " + deviceId, e);
+            unindexServices(deviceId, slot);
+            return null;
+        } finally {
+            storedSlots.remove(deviceId);
+        }
+    }
+
+    /* Positional reads, so that the writer can copy slots while the file is also being hydrated from */
+    private static byte[] readSlot(RandomAccessFile file, Slot slot) throws IOException {
+        if (file == null)
+            throw new IOException("No snapshot");
+
+        ByteBuffer data = ByteBuffer.allocate(slot.length);
+        FileChannel channel = file.getChannel();
+        while (data.hasRemaining()) {
+            if (channel.read(data, slot.offset + data.position()) < 0)
+                throw new EOFException("Truncated device store");
+        }
+        return data.array();
+    }
+
+    private void indexServices(ConnectableDevice device) {
+        for (DeviceService service : device.getServices()) {
+            String uuid = service.getServiceDescription().getUUID();
+            if (uuid != null)
+                deviceIdsByServiceUUID.put(uuid, device.getId());
+        }
+    }
+
+    private void indexServices(String deviceId, JSONObject storedDevice) {
+        JSONObject services = storedDevice.optJSONObject(ConnectableDevice.KEY_SERVICES);
+        if (services == null)
+            return;
+
+        Iterator<String> uuids = services.keys();
+        while (uuids.hasNext()) {
+            deviceIdsByServiceUUID.put(uuids.next(), deviceId);
+        }
+    }
+
+    private void unindexServices(String deviceId, JSONObject storedDevice) {
+        JSONObject services = storedDevice.optJSONObject(ConnectableDevice.KEY_SERVICES);
+        if (services == null)
+            return;
+
+        Iterator<String> uuids = services.keys();
+        while (uuids.hasNext()) {
+            deviceIdsByServiceUUID.remove(uuids.next(), deviceId);
+        }
+    }
+
+    private void unindexServices(String deviceId, Slot slot) {
+        for (String uuid : slot.serviceUUIDs) {
+            deviceIdsByServiceUUID.remove(uuid, deviceId);
+        }
+    }
+
+    private void unindexServices(ConnectableDevice device) {
+        for (DeviceService service : device.getServices()) {
+            String uuid = service.getServiceDescription().getUUID();
+            if (uuid != null)
+                deviceIdsByServiceUUID.remove(uuid, device.getId());
+        }
+    }
+
     @Override
     public ServiceConfig getServiceConfig(ServiceDescription serviceDescription) {
         if (serviceDescription == null) {
@@ -264,89 +496,719 @@ public class DefaultConnectableDeviceStore implements ConnectableDeviceStore {
         return null;
     }
 
+    /**
+     * Reads the last snapshot and replays the journal written after it, skipping records of an
+     * older generation than the snapshot. A record that cannot be
+     * parsed ends the replay, as it can only be the tail of an interrupted write; the store is
+     * then compacted so that new records are not appended after it.
+     */
     private void load() {
-        String line;
-        BufferedReader in;
         File file = new File(fileFullPath);
+        File binaryFile = new File(fileFullPath + BINARY_SUFFIX);
 
-        if (!file.exists()) {
-            version = CURRENT_VERSION;
-            created = Util.getTime();
-            updated = Util.getTime();
-        } else {
-            try {
-                in = new BufferedReader(new FileReader(file));
-                StringBuilder sb = new StringBuilder();
-                while ((line = in.readLine()) != null) {
-                    sb.append(line);
+        version = CURRENT_VERSION;
+        created = Util.getTime();
+        updated = Util.getTime();
+
+        boolean converted = false;
+        if (binaryFile.exists()) {
+            loadBinary(binaryFile);
+            converted = !binaryFormat;
+        } else if (file.exists()) {
+            loadJSON(file);
+            converted = binaryFormat;
+        }
+
+        if (!replayJournal(new File(fileFullPath + JOURNAL_SUFFIX)) || converted)
+            compact();
+    }
+
+    private void loadJSON(File file) {
+        try {
+            JSONObject data = new JSONObject(readFile(file));
+            JSONArray deviceArray = data.optJSONArray(KEY_DEVICES);
+            if (deviceArray != null) {
+                for (int i = 0; i < deviceArray.length(); i++) {
+                    JSONObject device = deviceArray.getJSONObject(i);
+                    String deviceId = device.getString(ConnectableDevice.KEY_ID);
+                    storedDevices.put(deviceId, device);
+                    indexServices(deviceId, device);
                 }
-                in.close();
-                JSONObject data = new JSONObject(sb.toString());
-                JSONArray deviceArray = data.optJSONArray(KEY_DEVICES);
-                if (deviceArray != null) {
-                    for (int i = 0; i < deviceArray.length(); i++) {
-                        JSONObject device = deviceArray.getJSONObject(i);
-                        storedDevices.put(device.getString(ConnectableDevice.KEY_ID), device);
-                    }
+            }
+            version = data.optInt(KEY_VERSION, CURRENT_VERSION);
+            created = data.optLong(KEY_CREATED, 0);
+            updated = data.optLong(KEY_UPDATED, 0);
+            generation = data.optLong(KEY_GENERATION, 0);
+        } catch (IOException | JSONException e) {
+            Log.e(Util.T,e.getMessage(),e);
+            // it is likely that the device store has been corrupted
+            boolean s = file.delete();
+        }
+    }
+
+    /**
+     * Reads only the header and the index of a binary snapshot; the device records stay on
+     * disk until they are needed.
+     */
+    private void loadBinary(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int formatVersion = in.readInt() == BINARY_MAGIC ? in.readInt() : -1;
+            if (formatVersion != BINARY_FORMAT_VERSION)
+                throw new IOException("Unsupported device store format");
+
+            int storeVersion = in.readInt();
+            long storeCreated = in.readLong();
+            long storeUpdated = in.readLong();
+            int count = in.readInt();
+            long indexLength = in.readLong();
+            long storeGeneration = in.readLong();
+
+            long offset = BINARY_HEADER_LENGTH + indexLength;
+            Map<String, Slot> slots = new HashMap<>();
+
+            for (int i = 0; i < count; i++) {
+                String deviceId = in.readUTF();
+                String[] serviceUUIDs = new String[in.readUnsignedShort()];
+                for (int j = 0; j < serviceUUIDs.length; j++) {
+                    serviceUUIDs[j] = in.readUTF();
                 }
-                version = data.optInt(KEY_VERSION, CURRENT_VERSION);
-                created = data.optLong(KEY_CREATED, 0);
-                updated = data.optLong(KEY_UPDATED, 0);
-            } catch (IOException | JSONException e) {
-                Log.e(Util.T,e.getMessage(),e);
-                // it is likely that the device store has been corrupted
-                boolean s = file.delete();
-                version = CURRENT_VERSION;
-                created = Util.getTime();
-                updated = Util.getTime();
+                int length = in.readInt();
+                long lastSeen = in.readLong();
+
+                slots.put(deviceId, new Slot(offset, length, serviceUUIDs, lastSeen));
+                offset += length;
+            }
+
+            if (offset != file.length())
+                throw new IOException("Truncated device store");
+
+            snapshotFile = new RandomAccessFile(file, "r");
+            for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+                storedSlots.put(entry.getKey(), entry.getValue());
+                for (String uuid : entry.getValue().serviceUUIDs) {
+                    deviceIdsByServiceUUID.put(uuid, entry.getKey());
+                }
+            }
+            version = storeVersion;
+            created = storeCreated;
+            updated = storeUpdated;
+            generation = storeGeneration;
+        } catch (IOException e) {
+            Log.e(Util.T,e.getMessage(),e);
+            // it is likely that the device store has been corrupted
+            boolean s = file.delete();
+        }
+    }
+
+    /**
+     * @return false if the journal ends with an incomplete record
+     */
+    private boolean replayJournal(File journal) {
+        if (!journal.exists())
+            return true;
+
+        try (BufferedReader in = new BufferedReader(new FileReader(journal))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+
+                JSONObject record;
+                try {
+                    record = new JSONObject(line);
+                } catch (JSONException e) {
+                    Log.w(Util.T, "Ignoring incomplete device store journal record", e);
+                    return false;
+                }
+
+                String deviceId = record.optString(ConnectableDevice.KEY_ID, null);
+                if (deviceId == null)
+                    continue;
+                // written before the snapshot that was loaded, which already contains it
+                if (record.optLong(KEY_GENERATION, 0) < generation)
+                    continue;
+
+                JSONObject previous = storedDevices.remove(deviceId);
+                if (previous != null)
+                    unindexServices(deviceId, previous);
+                Slot slot = storedSlots.remove(deviceId);
+                if (slot != null)
+                    unindexServices(deviceId, slot);
+
+                JSONObject device = record.optJSONObject(KEY_DEVICE);
+                if (OP_PUT.equals(record.optString(KEY_OP)) && device != null) {
+                    storedDevices.put(deviceId, device);
+                    indexServices(deviceId, device);
+                }
+
+                updated = Math.max(updated, record.optLong(KEY_UPDATED, 0));
+                journalRecords++;
             }
+        } catch (IOException e) {
+            Log.e(Util.T, e.getMessage(), e);
         }
+        return true;
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                sb.append(line);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Sets how long writes are held back so that bursts of changes are written together. A
+     * change is written once no other change followed it for writeDelay, but never later than
+     * maxWriteLatency after the first unwritten change.
+     */
+    public synchronized void setWriteDelay(long writeDelay, long maxWriteLatency) {
+        if (writeDelay < 0 || maxWriteLatency < writeDelay)
+            throw new IllegalArgumentException("Invalid write delay");
+
+        this.writeDelay = writeDelay;
+        this.maxWriteLatency = maxWriteLatency;
     }
 
-    private void store() {
+    /**
+     * Writes all pending changes on the calling thread and returns once they are on disk.
+     * Call it before the process is expected to exit.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            writePending();
+        }
+    }
+
+    /**
+     * Writes all pending changes and stops the background writer and the eviction pass. Changes
+     * made afterwards are only written by an explicit {@link #flush()}.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        writeExecutor.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Marks one device as changed. Its record, or its removal if it is no longer stored, is
+     * serialized when the next write runs, however often it changed in between.
+     */
+    private synchronized void store(String deviceId) {
         updated = Util.getTime();
+        dirtyDeviceIds.add(deviceId);
+        scheduleWrite();
+    }
 
-        JSONObject deviceStore = new JSONObject();
-        try {
-            deviceStore.put(KEY_VERSION, version);
-            deviceStore.put(KEY_CREATED, created);
-            deviceStore.put(KEY_UPDATED, updated);
-            JSONArray deviceArray = new JSONArray(storedDevices.values());
-            deviceStore.put(KEY_DEVICES, deviceArray);
-        } catch (JSONException e) {
-            Log.e(Util.T,e.getMessage(),e);
+    /**
+     * Asks the writer to replace the snapshot with the full current state and start a new journal.
+     */
+    private synchronized void compact() {
+        compactionRequested = true;
+        // the snapshot will contain every journaled change
+        dirtyDeviceIds.clear();
+        journalRecords = 0;
+
+        scheduleWrite();
+    }
+
+    private synchronized void scheduleWrite() {
+        long now = System.currentTimeMillis();
+
+        if (flushTime == Long.MAX_VALUE)
+            firstChangeTime = now;
+        flushTime = Math.min(now + writeDelay, firstChangeTime + maxWriteLatency);
+
+        if (!writeTaskPending && !closed) {
+            writeTaskPending = true;
+            writeExecutor.schedule(this::runScheduledWrite, flushTime - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /* Runs on the write thread; waits again if more changes arrived in the meantime */
+    private void runScheduledWrite() {
+        synchronized (this) {
+            if (closed)
+                return;
+
+            long delay = flushTime - System.currentTimeMillis();
+            if (flushTime != Long.MAX_VALUE && delay > 0) {
+                writeExecutor.schedule(this::runScheduledWrite, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            writeTaskPending = false;
+            if (flushTime == Long.MAX_VALUE)
+                return;
         }
 
-        if (!waitToWrite)
-            writeStoreToDisk(deviceStore);
+        flush();
     }
 
-    private synchronized void writeStoreToDisk(final JSONObject deviceStore) {
-        final long lastUpdate = updated;
-        waitToWrite = true;
+    /* Called with writeLock held. Changes made while a write is running are picked up by a
+       later one, and records are always appended after the snapshot they follow. Only the
+       capture of the changed state and the switch to a new snapshot hold the store's lock, the
+       file is written and synced without it. */
+    private void writePending() {
+        File journal = new File(fileFullPath + JOURNAL_SUFFIX);
 
-        Util.runInBackground(() -> {
-            FileWriter out;
-            try {
-                File output = new File(fileFullPath);
+        File parent = journal.getParentFile();
+        if (parent != null && !parent.exists()) {
+            boolean result = parent.mkdirs();
+        }
+
+        List<String> deviceIds = null;
+        List<String> records = new ArrayList<>();
+        Snapshot snapshot = null;
 
-                if (!output.exists()) {
-                    File parent = output.getParentFile();
-                    if (parent != null) {
-                        boolean result = parent.mkdirs();
+        synchronized (this) {
+            flushTime = Long.MAX_VALUE;
+
+            boolean compaction = compactionRequested;
+            if (!compaction) {
+                for (String deviceId : dirtyDeviceIds) {
+                    try {
+                        records.add(createRecord(deviceId).toString());
+                    } catch (JSONException e) {
+                        Log.e(Util.T,e.getMessage(),e);
                     }
                 }
-                out = new FileWriter(output);
-                out.write(deviceStore.toString());
-                out.close();
+
+                // fold the records into a new snapshot rather than letting the journal grow
+                compaction = journalRecords + records.size()
+                        > COMPACTION_SLACK + (storedDevices.size() + storedSlots.size()) / 2;
+            }
+
+            if (compaction) {
+                snapshot = captureSnapshot();
+                // changes from now on are journaled after the new snapshot
+                compactionRequested = false;
+                dirtyDeviceIds.clear();
+            } else {
+                deviceIds = new ArrayList<>(dirtyDeviceIds);
+                dirtyDeviceIds.clear();
+                journalRecords += records.size();
+            }
+        }
+
+        if (snapshot != null) {
+            try {
+                writeSnapshot(snapshot);
             } catch (IOException e) {
                 Log.e(Util.T,e.getMessage(),e);
-            } finally {
-                waitToWrite = false;
+                synchronized (this) {
+                    // the snapshot on disk is still the previous one, the next write tries again
+                    compactionRequested = true;
+                }
+                return;
             }
 
-            if (lastUpdate < updated)
-                writeStoreToDisk(deviceStore);
-        });
+            synchronized (this) {
+                commitSnapshot(snapshot);
+            }
+
+            if (journal.exists() && !journal.delete())
+                Log.w(Util.T, "Failed to delete " + journal);
+            File stale = binaryFormat ? new File(fileFullPath) : new File(fileFullPath + BINARY_SUFFIX);
+            if (stale.exists() && !stale.delete())
+                Log.w(Util.T, "Failed to delete " + stale);
+            return;
+        }
+
+        if (records.isEmpty())
+            return;
+
+        try {
+            appendRecords(journal, records);
+        } catch (IOException e) {
+            Log.e(Util.T,e.getMessage(),e);
+            synchronized (this) {
+                // written again by the next write, with their state at that time
+                dirtyDeviceIds.addAll(deviceIds);
+                journalRecords -= records.size();
+            }
+        }
+    }
+
+    private JSONObject createRecord(String deviceId) throws JSONException {
+        JSONObject device = storedDevices.get(deviceId);
+        if (device == null && storedSlots.containsKey(deviceId))
+            device = hydrate(deviceId);
+
+        JSONObject record = new JSONObject();
+        record.put(KEY_OP, device != null ? OP_PUT : OP_REMOVE);
+        record.put(ConnectableDevice.KEY_ID, deviceId);
+        record.put(KEY_UPDATED, updated);
+        record.put(KEY_GENERATION, generation);
+        if (device != null)
+            record.put(KEY_DEVICE, device);
+        return record;
+    }
+
+    private static long getLastSeen(JSONObject storedDevice) {
+        return Math.max(storedDevice.optLong(ConnectableDevice.KEY_LAST_DETECTED, 0),
+                storedDevice.optLong(ConnectableDevice.KEY_LAST_CONNECTED, 0));
+    }
+
+    /**
+     * @return time the device was last detected or connected, or -1 if it is not stored
+     */
+    private synchronized long getLastSeen(String deviceId) {
+        Slot slot = storedSlots.get(deviceId);
+        if (slot != null)
+            return slot.lastSeen;
+
+        JSONObject storedDevice = getStoredDeviceById(deviceId);
+        return storedDevice != null ? getLastSeen(storedDevice) : -1;
+    }
+
+    private synchronized void evict(String deviceId) {
+        JSONObject storedDevice = storedDevices.remove(deviceId);
+        Slot slot = storedSlots.remove(deviceId);
+
+        if (storedDevice != null)
+            unindexServices(deviceId, storedDevice);
+        if (slot != null)
+            unindexServices(deviceId, slot);
+        store(deviceId);
+    }
+
+    private synchronized void scheduleEviction(long delay) {
+        if (!closed)
+            writeExecutor.schedule(new EvictionPass(), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes devices that were not seen for maxStoreDuration, then the least recently seen
+     * devices beyond maxStoredDevices. The pass runs on the write thread in steps of
+     * EVICTION_BATCH_SIZE devices, so writes are not held up behind a large store.
+     */
+    private class EvictionPass implements Runnable {
+        private List<String> deviceIds;
+        private final List<String> survivors = new ArrayList<>();
+        private final Map<String, Long> lastSeen = new HashMap<>();
+        private int position;
+        private boolean pruning;
+
+        @Override
+        public void run() {
+            synchronized (DefaultConnectableDeviceStore.this) {
+                if (closed)
+                    return;
+            }
+
+            if (deviceIds == null) {
+                synchronized (DefaultConnectableDeviceStore.this) {
+                    deviceIds = new ArrayList<>(storedDevices.keySet());
+                    deviceIds.addAll(storedSlots.keySet());
+                }
+            }
+
+            int end = Math.min(position + EVICTION_BATCH_SIZE, deviceIds.size());
+            if (!pruning)
+                expire(end);
+            else
+                prune(end);
+            position = end;
+
+            if (position < deviceIds.size()) {
+                writeExecutor.execute(this);
+            } else if (!pruning && survivors.size() > maxStoredDevices) {
+                // least recently seen first
+                Collections.sort(survivors, (a, b) -> Long.compare(lastSeen.get(a), lastSeen.get(b)));
+                deviceIds = survivors.subList(0, survivors.size() - maxStoredDevices);
+                position = 0;
+                pruning = true;
+                writeExecutor.execute(this);
+            } else {
+                scheduleEviction(EVICTION_INTERVAL);
+            }
+        }
+
+        private void expire(int end) {
+            long oldest = Util.getTime() - maxStoreDuration;
+
+            synchronized (DefaultConnectableDeviceStore.this) {
+                for (int i = position; i < end; i++) {
+                    String deviceId = deviceIds.get(i);
+                    if (activeDevices.containsKey(deviceId))
+                        continue;
+
+                    long seen = getLastSeen(deviceId);
+                    if (seen < 0)
+                        continue;
+
+                    if (seen < oldest) {
+                        evict(deviceId);
+                    } else {
+                        survivors.add(deviceId);
+                        lastSeen.put(deviceId, seen);
+                    }
+                }
+            }
+        }
+
+        private void prune(int end) {
+            synchronized (DefaultConnectableDeviceStore.this) {
+                for (int i = position; i < end; i++) {
+                    String deviceId = deviceIds.get(i);
+                    if (!activeDevices.containsKey(deviceId))
+                        evict(deviceId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Contents of the store at the time a snapshot was started. Decoded devices are serialized
+     * when it is captured, as they are updated in place; devices that are still undecoded are
+     * copied from the current snapshot file while the new one is written.
+     */
+    private static class Snapshot {
+        final long generation;
+        final int version;
+        final long created;
+        final long updated;
+        final RandomAccessFile source;
+
+        final List<String> deviceIds = new ArrayList<>();
+        /* Serialized device, or null where the device is copied from a slot */
+        final List<String> records = new ArrayList<>();
+        final List<Slot> slots = new ArrayList<>();
+        final List<String[]> serviceUUIDs = new ArrayList<>();
+        final List<Long> lastSeen = new ArrayList<>();
+
+        /* Filled in by the write */
+        final Map<String, Slot> movedSlots = new HashMap<>();
+        /* Devices decoded from slots, as a JSON store cannot refer to the binary snapshot */
+        final Map<String, JSONObject> decoded = new HashMap<>();
+        RandomAccessFile target;
+
+        Snapshot(long generation, int version, long created, long updated, RandomAccessFile source) {
+            this.generation = generation;
+            this.version = version;
+            this.created = created;
+            this.updated = updated;
+            this.source = source;
+        }
+    }
+
+    /* Runs with the store locked, so that no record changes while it is captured */
+    private Snapshot captureSnapshot() {
+        updated = Util.getTime();
+        Snapshot snapshot = new Snapshot(generation + 1, version, created, updated, snapshotFile);
+
+        for (Map.Entry<String, JSONObject> entry : storedDevices.entrySet()) {
+            List<String> serviceUUIDs = new ArrayList<>();
+            JSONObject services = entry.getValue().optJSONObject(ConnectableDevice.KEY_SERVICES);
+            if (services != null) {
+                Iterator<String> uuids = services.keys();
+                while (uuids.hasNext()) {
+                    serviceUUIDs.add(uuids.next());
+                }
+            }
+
+            snapshot.deviceIds.add(entry.getKey());
+            snapshot.records.add(entry.getValue().toString());
+            snapshot.slots.add(null);
+            snapshot.serviceUUIDs.add(serviceUUIDs.toArray(new String[0]));
+            snapshot.lastSeen.add(getLastSeen(entry.getValue()));
+        }
+
+        for (Map.Entry<String, Slot> entry : storedSlots.entrySet()) {
+            Slot slot = entry.getValue();
+            snapshot.deviceIds.add(entry.getKey());
+            snapshot.records.add(null);
+            snapshot.slots.add(slot);
+            snapshot.serviceUUIDs.add(slot.serviceUUIDs);
+            snapshot.lastSeen.add(slot.lastSeen);
+        }
+        return snapshot;
+    }
+
+    /* Runs without the store's lock; nothing in memory changes until commitSnapshot */
+    private void writeSnapshot(Snapshot snapshot) throws IOException {
+        if (!binaryFormat) {
+            File jsonFile = new File(fileFullPath);
+
+            // the devices are already serialized, so the document is put together as text
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"").append(KEY_VERSION).append("\":").append(snapshot.version);
+            sb.append(",\"").append(KEY_CREATED).append("\":").append(snapshot.created);
+            sb.append(",\"").append(KEY_UPDATED).append("\":").append(snapshot.updated);
+            sb.append(",\"").append(KEY_GENERATION).append("\":").append(snapshot.generation);
+            sb.append(",\"").append(KEY_DEVICES).append("\":[");
+            for (int i = 0; i < snapshot.deviceIds.size(); i++) {
+                String record = snapshot.records.get(i);
+                if (record == null) {
+                    String deviceId = snapshot.deviceIds.get(i);
+                    record = new String(readSlot(snapshot.source, snapshot.slots.get(i)), StandardCharsets.UTF_8);
+                    try {
+                        snapshot.decoded.put(deviceId, new JSONObject(record));
+                    } catch (JSONException e) {
+                        // left out of the new store
+                        Log.e(Util.T, "Failed to read stored device " + deviceId, e);
+                        continue;
+                    }
+                }
+
+                if (sb.charAt(sb.length() - 1) != '[')
+                    sb.append(',');
+                sb.append(record);
+            }
+            sb.append("]}");
+
+            File temp = new File(jsonFile.getPath() + TEMP_SUFFIX);
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            replace(temp, jsonFile);
+            return;
+        }
+
+        File binaryFile = new File(fileFullPath + BINARY_SUFFIX);
+        List<byte[]> records = new ArrayList<>();
+
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+
+        for (int i = 0; i < snapshot.deviceIds.size(); i++) {
+            String record = snapshot.records.get(i);
+            byte[] data = record != null ? record.getBytes(StandardCharsets.UTF_8) : null;
+            int length = data != null ? data.length : snapshot.slots.get(i).length;
+
+            writeIndexEntry(index, snapshot.deviceIds.get(i), snapshot.serviceUUIDs.get(i), length,
+                    snapshot.lastSeen.get(i));
+            records.add(data);
+        }
+        index.flush();
+
+        File temp = new File(binaryFile.getPath() + TEMP_SUFFIX);
+        long offset = BINARY_HEADER_LENGTH + indexBytes.size();
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(BINARY_FORMAT_VERSION);
+            out.writeInt(snapshot.version);
+            out.writeLong(snapshot.created);
+            out.writeLong(snapshot.updated);
+            out.writeInt(snapshot.deviceIds.size());
+            out.writeLong(indexBytes.size());
+            out.writeLong(snapshot.generation);
+            indexBytes.writeTo(out);
+
+            for (int i = 0; i < snapshot.deviceIds.size(); i++) {
+                Slot slot = snapshot.slots.get(i);
+                if (slot == null) {
+                    out.write(records.get(i));
+                    offset += records.get(i).length;
+                } else {
+                    // copied without being decoded
+                    out.write(readSlot(snapshot.source, slot));
+                    snapshot.movedSlots.put(snapshot.deviceIds.get(i),
+                            new Slot(offset, slot.length, slot.serviceUUIDs, slot.lastSeen));
+                    offset += slot.length;
+                }
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        // opened before the rename, so that once the file is in place nothing can fail anymore
+        RandomAccessFile target = new RandomAccessFile(temp, "r");
+        try {
+            replace(temp, binaryFile);
+        } catch (IOException e) {
+            target.close();
+            throw e;
+        }
+        snapshot.target = target;
+    }
+
+    /**
+     * Switches to a snapshot that has been written. Runs with the store locked. Devices that
+     * were decoded or removed while the snapshot was written keep their current state, which is
+     * journaled after it.
+     */
+    private void commitSnapshot(Snapshot snapshot) {
+        generation = snapshot.generation;
+        journalRecords = 0;
+        closeSnapshot();
+
+        if (binaryFormat) {
+            snapshotFile = snapshot.target;
+            for (int i = 0; i < snapshot.deviceIds.size(); i++) {
+                String deviceId = snapshot.deviceIds.get(i);
+                Slot slot = snapshot.slots.get(i);
+                if (slot != null)
+                    storedSlots.replace(deviceId, slot, snapshot.movedSlots.get(deviceId));
+            }
+            return;
+        }
+
+        // the binary snapshot is going away, the devices it still held were decoded by the write
+        for (int i = 0; i < snapshot.deviceIds.size(); i++) {
+            String deviceId = snapshot.deviceIds.get(i);
+            Slot slot = snapshot.slots.get(i);
+            if (slot == null || !storedSlots.remove(deviceId, slot))
+                continue;
+
+            JSONObject device = snapshot.decoded.get(deviceId);
+            if (device != null)
+                storedDevices.put(deviceId, device);
+            else
+                unindexServices(deviceId, slot);
+        }
+    }
+
+    private static void writeIndexEntry(DataOutputStream index, String deviceId, String[] serviceUUIDs, int length,
+                                        long lastSeen) throws IOException {
+        index.writeUTF(deviceId);
+        index.writeShort(serviceUUIDs.length);
+        for (String uuid : serviceUUIDs) {
+            index.writeUTF(uuid);
+        }
+        index.writeInt(length);
+        index.writeLong(lastSeen);
+    }
+
+    private void closeSnapshot() {
+        if (snapshotFile == null)
+            return;
+
+        try {
+            snapshotFile.close();
+        } catch (IOException e) {
+            Log.w(Util.T, e.getMessage(), e);
+        }
+        snapshotFile = null;
+    }
+
+    private static void replace(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            boolean s = temp.delete();
+            throw new IOException("Failed to rename " + temp + " to " + file);
+        }
+    }
+
+    private static void appendRecords(File journal, List<String> records) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String record : records) {
+            sb.append(record).append('\n');
+        }
+
+        try (FileOutputStream out = new FileOutputStream(journal, true)) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+/*
+ * DeviceIndex
+ * Connect SDK
+ *
+ * Copyright (c) 2015 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.connectsdk.discovery;
+
+import com.connectsdk.device.ConnectableDevice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary indexes over the devices known to DiscoveryManager: by device id, by IP address and
+ * by capability. A device is indexed under the values it had when it was last added or
+ * refreshed, so the owner has to refresh it whenever its address or services change.
+ */
+class DeviceIndex {
+    private static class Keys {
+        final String id;
+        final String ipAddress;
+        final List<String> capabilities;
+
+        Keys(ConnectableDevice device) {
+            id = device.getId();
+            ipAddress = device.getIpAddress();
+            capabilities = device.getCapabilities();
+        }
+    }
+
+    private final Map<String, ConnectableDevice> byId = new HashMap<>();
+    private final Map<String, ConnectableDevice> byIpAddress = new HashMap<>();
+    private final Map<String, Set<ConnectableDevice>> byCapability = new HashMap<>();
+    private final Map<ConnectableDevice, Keys> indexed = new HashMap<>();
+
+    synchronized void add(ConnectableDevice device) {
+        unindex(device);
+
+        Keys keys = new Keys(device);
+        indexed.put(device, keys);
+
+        byId.put(keys.id, device);
+        if (keys.ipAddress != null)
+            byIpAddress.put(keys.ipAddress, device);
+
+        for (String capability : keys.capabilities) {
+            Set<ConnectableDevice> devices = byCapability.get(capability);
+            if (devices == null) {
+                devices = new LinkedHashSet<>();
+                byCapability.put(capability, devices);
+            }
+            devices.add(device);
+        }
+    }
+
+    /**
+     * Re-reads the keys of a device that is already indexed; devices that are not indexed are
+     * ignored.
+     */
+    synchronized void refresh(ConnectableDevice device) {
+        if (indexed.containsKey(device))
+            add(device);
+    }
+
+    synchronized void remove(ConnectableDevice device) {
+        unindex(device);
+    }
+
+    synchronized void clear() {
+        byId.clear();
+        byIpAddress.clear();
+        byCapability.clear();
+        indexed.clear();
+    }
+
+    synchronized ConnectableDevice getById(String id) {
+        return byId.get(id);
+    }
+
+    synchronized ConnectableDevice getByIpAddress(String ipAddress) {
+        return byIpAddress.get(ipAddress);
+    }
+
+    synchronized List<ConnectableDevice> getWithCapability(String capability) {
+        Set<ConnectableDevice> devices = byCapability.get(capability);
+        if (devices == null)
+            return Collections.emptyList();
+
+        return new ArrayList<>(devices);
+    }
+
+    private void unindex(ConnectableDevice device) {
+        Keys keys = indexed.remove(device);
+        if (keys == null)
+            return;
+
+        if (byId.get(keys.id) == device)
+            byId.remove(keys.id);
+        if (keys.ipAddress != null && byIpAddress.get(keys.ipAddress) == device)
+            byIpAddress.remove(keys.ipAddress);
+
+        for (String capability : keys.capabilities) {
+            Set<ConnectableDevice> devices = byCapability.get(capability);
+            if (devices != null) {
+                devices.remove(device);
+                if (devices.isEmpty())
+                    byCapability.remove(capability);
+            }
+        }
+    }
+}
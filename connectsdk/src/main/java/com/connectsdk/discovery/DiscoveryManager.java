@@ -38,10 +38,12 @@ import com.connectsdk.device.ConnectableDevice;
 import com.connectsdk.device.ConnectableDeviceListener;
 import com.connectsdk.device.ConnectableDeviceStore;
 import com.connectsdk.device.DefaultConnectableDeviceStore;
+import com.connectsdk.discovery.provider.SSDPDiscoveryProvider;
 import com.connectsdk.service.DLNAService;
 import com.connectsdk.service.DeviceService;
 import com.connectsdk.service.DeviceService.PairingType;
 import com.connectsdk.service.NetcastTVService;
+import com.connectsdk.service.WebOSTVService;
 import com.connectsdk.service.command.ServiceCommandError;
 import com.connectsdk.service.config.ServiceConfig;
 import com.connectsdk.service.config.ServiceConfig.ServiceConfigListener;
@@ -135,6 +137,7 @@ public class DiscoveryManager implements ConnectableDeviceListener,
 
     private final ConcurrentHashMap<String, ConnectableDevice> allDevices;
     private final ConcurrentHashMap<String, ConnectableDevice> compatibleDevices;
+    private final DeviceIndex deviceIndex = new DeviceIndex();
 
     ConcurrentHashMap<String, Class<? extends DeviceService>> deviceClasses;
     CopyOnWriteArrayList<DiscoveryProvider> discoveryProviders;
@@ -262,6 +265,7 @@ public class DiscoveryManager implements ConnectableDeviceListener,
                                     }
 
                                     allDevices.clear();
+                                    deviceIndex.clear();
 
                                     for (ConnectableDevice device : compatibleDevices.values()) {
                                         handleDeviceLoss(device);
@@ -368,7 +372,8 @@ public class DiscoveryManager implements ConnectableDeviceListener,
     /**
      * Registers a DeviceService with DiscoveryManager and tells it which DiscoveryProvider
      * to use to find it. Each DeviceService has a JSONObject of discovery parameters
-     * that its DiscoveryProvider will use to find it.
+     * that its DiscoveryProvider will use to find it. Services registered first have
+     * their device descriptions loaded first.
      *
      * @param deviceClass    Class for object that should be instantiated when DeviceService is found
      * @param discoveryClass Class for object that should discover this DeviceService.
@@ -406,6 +411,12 @@ public class DiscoveryManager implements ConnectableDeviceListener,
                 String serviceId = discoveryFilter.getServiceId();
                 deviceClasses.put(serviceId, deviceClass);
                 discoveryProvider.addDeviceFilter(discoveryFilter);
+
+                // only these services read the raw description; others get theirs parsed off the socket
+                if (discoveryProvider instanceof SSDPDiscoveryProvider
+                        && (deviceClass == DLNAService.class || deviceClass == WebOSTVService.class)) {
+                    ((SSDPDiscoveryProvider) discoveryProvider).setRequiresLocationXML(discoveryFilter.getServiceFilter(), true);
+                }
             }
 //            if (mSearching) {
 //                discoveryProvider.restart();
@@ -568,6 +579,7 @@ public class DiscoveryManager implements ConnectableDeviceListener,
     }
 
     public void handleDeviceAdd(ConnectableDevice device) {
+        deviceIndex.refresh(device);
 
         compatibleDevices.put(getDeviceKey(device), device);
 
@@ -577,6 +589,8 @@ public class DiscoveryManager implements ConnectableDeviceListener,
     }
 
     public void handleDeviceUpdate(ConnectableDevice device) {
+        deviceIndex.refresh(device);
+
         String devKey = getDeviceKey(device);
 
         if (device.getIpAddress() != null && compatibleDevices.containsKey(devKey)) {
@@ -626,12 +640,8 @@ public class DiscoveryManager implements ConnectableDeviceListener,
      * Returns null if deviceId is null.
      */
     public ConnectableDevice getDeviceById(String deviceId) {
-        if (deviceId != null) {
-            for (ConnectableDevice dvc : allDevices.values()) {
-                if (deviceId.equals(dvc.getId()))
-                    return dvc;
-            }
-        }
+        if (deviceId != null)
+            return deviceIndex.getById(deviceId);
 
         return null;
     }
@@ -641,16 +651,37 @@ public class DiscoveryManager implements ConnectableDeviceListener,
      * Returns null if deviceId is null.
      */
     public ConnectableDevice getDeviceByIpAddress(String ipAddress) {
-        if (ipAddress != null) {
-            for (ConnectableDevice dvc : allDevices.values()) {
-                if (ipAddress.equals(dvc.getIpAddress()))
-                    return dvc;
-            }
-        }
+        if (ipAddress != null)
+            return deviceIndex.getByIpAddress(ipAddress);
 
         return null;
     }
 
+    /**
+     * Returns all discovered devices that have the given capability, e.g. MediaPlayer.Play_Video.
+     * Wildcard capabilities are not supported here; use ConnectableDevice.hasCapability for those.
+     */
+    public List<ConnectableDevice> getDevicesWithCapability(String capability) {
+        if (capability == null)
+            return new ArrayList<>();
+
+        return deviceIndex.getWithCapability(capability);
+    }
+
+    private void putDevice(String devKey, ConnectableDevice device) {
+        ConnectableDevice previous = allDevices.put(devKey, device);
+        if (previous != null && previous != device)
+            deviceIndex.remove(previous);
+
+        deviceIndex.add(device);
+    }
+
+    private void removeDevice(String devKey) {
+        ConnectableDevice device = allDevices.remove(devKey);
+        if (device != null)
+            deviceIndex.remove(device);
+    }
+
     /**
      * Filtered list of discovered ConnectableDevices, limited to devices that match at least one of the CapabilityFilters in the capabilityFilters array. Each ConnectableDevice object is keyed against its current IP address.
      */
@@ -686,6 +717,9 @@ public class DiscoveryManager implements ConnectableDeviceListener,
 
     public void onDestroy() {
         unregisterBroadcastReceiver();
+
+        if (connectableDeviceStore instanceof DefaultConnectableDeviceStore)
+            ((DefaultConnectableDeviceStore) connectableDeviceStore).close();
     }
 
     public List<DiscoveryProvider> getDiscoveryProviders() {
@@ -738,8 +772,8 @@ public class DiscoveryManager implements ConnectableDeviceListener,
                 device = connectableDeviceStore.getDevice(serviceDescription.getUUID());
 
                 if (device != null) {
-                    allDevices.put(devKey, device);
                     device.setIpAddress(serviceDescription.getIpAddress());
+                    putDevice(devKey, device);
                 }
             }
         } else {
@@ -749,7 +783,7 @@ public class DiscoveryManager implements ConnectableDeviceListener,
         if (device == null) {
             device = new ConnectableDevice(serviceDescription);
             device.setIpAddress(serviceDescription.getIpAddress());
-            allDevices.put(devKey, device);
+            putDevice(devKey, device);
             deviceIsNew = true;
         }
 
@@ -764,7 +798,7 @@ public class DiscoveryManager implements ConnectableDeviceListener,
 
         if (device.getServices().isEmpty()) {
             // we get here when a non-LG DLNA TV is found
-            allDevices.remove(devKey);
+            removeDevice(devKey);
             return;
         }
 
@@ -788,7 +822,7 @@ public class DiscoveryManager implements ConnectableDeviceListener,
         if (device != null) {
             device.removeServiceWithId(serviceDescription.getServiceID());
             if (device.getServices().isEmpty()) {
-                allDevices.remove(devKey);
+                removeDevice(devKey);
                 handleDeviceLoss(device);
             } else {
                 handleDeviceUpdate(device);
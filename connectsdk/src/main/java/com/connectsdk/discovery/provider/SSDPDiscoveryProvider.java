@@ -28,26 +28,34 @@ import com.connectsdk.discovery.DiscoveryFilter;
 import com.connectsdk.discovery.DiscoveryProvider;
 import com.connectsdk.discovery.DiscoveryProviderListener;
 import com.connectsdk.discovery.provider.ssdp.SSDPClient;
+import com.connectsdk.discovery.provider.ssdp.SSDPDescriptionCache;
+import com.connectsdk.discovery.provider.ssdp.SSDPDescriptionFetcher;
 import com.connectsdk.discovery.provider.ssdp.SSDPDevice;
 import com.connectsdk.discovery.provider.ssdp.SSDPPacket;
 import com.connectsdk.service.config.ServiceDescription;
 
-import org.xml.sax.SAXException;
-
+import java.io.File;
 import java.io.IOException;
+import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.URL;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.xml.parsers.ParserConfigurationException;
 
 public class SSDPDiscoveryProvider implements DiscoveryProvider {
+    /* Interval between M-SEARCH rounds while discovery is running */
+    static final long SEARCH_INTERVAL = 10 * 1000;
+
     Context context;
 
     private final CopyOnWriteArrayList<DiscoveryProviderListener> serviceListeners;
@@ -59,20 +67,26 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
 
     private SSDPClient ssdpClient;
 
-    private final Pattern uuidReg;
+    private final SSDPDescriptionCache descriptionCache;
+    private final SSDPDescriptionFetcher descriptionFetcher;
+    private final ConcurrentHashMap<String, Integer> filterPriorities = new ConcurrentHashMap<>();
+    private final Set<String> filtersRequiringXML = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    private Thread responseThread;
-    private Thread notifyThread;
+    /* One selector thread serves both sockets and the search timer for the provider's lifetime */
+    private Selector selector;
+    private Thread selectorThread;
+    private SSDPClient registeredClient;
+    private long nextSearchTime = Long.MAX_VALUE;
 
     boolean isRunning = false;
-    private  boolean isScanning = false;
 
     private final Object lock = new Object();
 
     public SSDPDiscoveryProvider(Context context) {
         this.context = context;
 
-        uuidReg = Pattern.compile("(?<=uuid:)(.+?)(?=(::)|$)");
+        descriptionCache = new SSDPDescriptionCache(context != null ? new File(context.getCacheDir(), "ssdp") : null);
+        descriptionFetcher = new SSDPDescriptionFetcher(descriptionCache);
 
         serviceListeners = new CopyOnWriteArrayList<>();
         serviceFilters = new CopyOnWriteArrayList<>();
@@ -105,72 +119,55 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
             isRunning = true;
 
             openSocket();
+            startSelector();
 
-            responseThread = new Thread(mResponseHandler);
-            notifyThread = new Thread(mRespNotifyHandler);
+            sendSearch();
+        }
+    }
 
-            responseThread.start();
-            notifyThread.start();
+    private void startSelector() {
+        if (selectorThread != null)
+            return;
 
-            sendSearch();
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            Log.e(Util.T, "Failed to open selector", e);
+            return;
         }
+
+        selectorThread = new Thread(mSelectorLoop, "SSDP");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
     }
 
+    /**
+     * Schedules an M-SEARCH round on the selector thread right away. Further rounds follow every
+     * SEARCH_INTERVAL while the provider is running.
+     */
     public void sendSearch() {
-        if (isScanning) return;
-
-//        List<String> killKeys = new ArrayList<>();
-//
-//        long killPoint = new Date().getTime() - TIMEOUT;
-//
-//        for (String key : foundServices.keySet()) {
-//            ServiceDescription service = foundServices.get(key);
-//            if (service == null || service.getLastDetection() < killPoint) {
-//                killKeys.add(key);
-//            }
-//        }
-//
-//        for (String key : killKeys) {
-//            final ServiceDescription service = foundServices.get(key);
-//
-//            if (service != null) {
-//                notifyListenersOfLostService(service);
-//            }
-//
-//            foundServices.remove(key);
-//        }
+        synchronized (lock) {
+            if (!isRunning || selector == null)
+                return;
 
-        isScanning = true;
-        new Thread(() -> {
-            try {
-                scan();
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                isScanning = false;
-            }
-        }).start();
+            nextSearchTime = 0;
+            selector.wakeup();
+        }
     }
 
     @Override
     public void stop() {
         synchronized (lock) {
             isRunning = false;
-            isScanning = true;
-            if (responseThread != null) {
-                responseThread.interrupt();
-                responseThread = null;
-            }
-
-            if (notifyThread != null) {
-                notifyThread.interrupt();
-                notifyThread = null;
-            }
+            nextSearchTime = Long.MAX_VALUE;
 
             if (ssdpClient != null) {
                 ssdpClient.close();
                 ssdpClient = null;
             }
+
+            if (selector != null)
+                selector.wakeup();
         }
     }
 
@@ -183,6 +180,7 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
     @Override
     public void reset() {
         stop();
+        descriptionFetcher.clear();
         foundServices.clear();
         discoveredServices.clear();
     }
@@ -225,31 +223,85 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
         return serviceFilters.isEmpty();
     }
 
-    private final Runnable mResponseHandler = new Runnable() {
+    private final Runnable mSelectorLoop = new Runnable() {
         @Override
         public void run() {
-            while (ssdpClient != null) {
+            DatagramPacket datagramPacket = SSDPClient.newReceivePacket();
+            SSDPPacket ssdpPacket = new SSDPPacket();
+
+            while (true) {
                 try {
-                    handleSSDPPacket(new SSDPPacket(ssdpClient.responseReceive()));
-                } catch (IOException|RuntimeException e) {
+                    long timeout = prepareSelect();
+
+                    if (timeout < 0)
+                        selector.selectNow();
+                    else
+                        selector.select(timeout);
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        if (!key.isValid() || !key.isReadable())
+                            continue;
+
+                        SSDPClient client = (SSDPClient) key.attachment();
+                        DatagramChannel channel = (DatagramChannel) key.channel();
+
+                        while (client.receive(channel, datagramPacket) != null) {
+                            try {
+                                if (ssdpPacket.parse(datagramPacket))
+                                    handleSSDPPacket(ssdpPacket);
+                            } catch (RuntimeException e) {
+                                Log.w(Util.T, "Failed to handle SSDP packet", e);
+                            }
+                        }
+                    }
+
+                    if (isSearchDue())
+                        scan();
+                } catch (ClosedSelectorException e) {
                     break;
+                } catch (IOException e) {
+                    Log.d(Util.T, "SSDP selector error", e);
                 }
             }
         }
     };
 
-    private final Runnable mRespNotifyHandler = new Runnable() {
-        @Override
-        public void run() {
-            while (ssdpClient != null) {
-                try {
-                    handleSSDPPacket(new SSDPPacket(ssdpClient.multicastReceive()));
-                } catch (IOException | RuntimeException e) {
-                    break;
-                }
+    /**
+     * Registers a newly opened client and returns how long the selector may block:
+     * 0 to wait indefinitely, a negative value if a search is already due.
+     */
+    private long prepareSelect() throws IOException {
+        synchronized (lock) {
+            if (ssdpClient != null && ssdpClient != registeredClient) {
+                ssdpClient.register(selector);
+                registeredClient = ssdpClient;
+            } else if (ssdpClient == null) {
+                registeredClient = null;
             }
+
+            if (nextSearchTime == Long.MAX_VALUE)
+                return 0;
+
+            long delay = nextSearchTime - System.currentTimeMillis();
+            return delay <= 0 ? -1 : delay;
         }
-    };
+    }
+
+    private boolean isSearchDue() {
+        synchronized (lock) {
+            long now = System.currentTimeMillis();
+
+            if (now < nextSearchTime)
+                return false;
+
+            nextSearchTime = isRunning ? now + SEARCH_INTERVAL : Long.MAX_VALUE;
+            return isRunning;
+        }
+    }
 
     private void handleSSDPPacket(SSDPPacket ssdpPacket) {
         // Debugging stuff
@@ -267,27 +319,22 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
 //        });
         // End Debugging stuff
 
-        if (ssdpPacket == null || ssdpPacket.getData().isEmpty() || ssdpPacket.getType() == null)
+        if (ssdpPacket == null || ssdpPacket.isType(SSDPClient.MSEARCH))
             return;
 
-        String serviceFilter = ssdpPacket.getData().get(ssdpPacket.getType().equals(SSDPClient.NOTIFY) ? "NT" : "ST");
+        // Match the filter in place so that packets for unwanted devices allocate nothing
+        String serviceFilter = findSearchedFilter(ssdpPacket,
+                ssdpPacket.isType(SSDPClient.NOTIFY) ? SSDPPacket.HEADER_NT : SSDPPacket.HEADER_ST);
 
-        if (serviceFilter == null || SSDPClient.MSEARCH.equals(ssdpPacket.getType()) || !isSearchingForFilter(serviceFilter))
+        if (serviceFilter == null)
             return;
 
-        String usnKey = ssdpPacket.getData().get("USN");
+        String uuid = ssdpPacket.getUUID();
 
-        if (usnKey == null || usnKey.isEmpty())
+        if (uuid == null || uuid.isEmpty())
             return;
 
-        Matcher m = uuidReg.matcher(usnKey);
-
-        if (!m.find())
-            return;
-
-        String uuid = m.group();
-
-        if (SSDPClient.BYEBYE.equals(ssdpPacket.getData().get("NTS"))) {
+        if (ssdpPacket.headerEquals(SSDPPacket.HEADER_NTS, SSDPClient.BYEBYE)) {
             final ServiceDescription service = foundServices.get(uuid);
 
             if (service != null) {
@@ -296,9 +343,7 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
                 notifyListenersOfLostService(service);
             }
         } else {
-            String location = ssdpPacket.getData().get("LOCATION");
-
-            if (location == null || location.isEmpty())
+            if (!ssdpPacket.hasHeader(SSDPPacket.HEADER_LOCATION) || ssdpPacket.headerEquals(SSDPPacket.HEADER_LOCATION, ""))
                 return;
 
             ServiceDescription foundService = foundServices.get(uuid);
@@ -307,6 +352,9 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
             boolean isNew = foundService == null && discoverdService == null;
 
             if (isNew) {
+                String location = ssdpPacket.getHeader(SSDPPacket.HEADER_LOCATION);
+                long maxAge = ssdpPacket.getMaxAge();
+
                 foundService = new ServiceDescription();
                 foundService.setUUID(uuid);
                 foundService.setServiceFilter(serviceFilter);
@@ -315,7 +363,8 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
 
                 discoveredServices.put(uuid, foundService);
 
-                getLocationData(location, uuid, serviceFilter);
+                getLocationData(location, uuid, serviceFilter,
+                        maxAge >= 0 ? maxAge * 1000 : SSDPDescriptionCache.DEFAULT_MAX_AGE);
             }
 
             if (foundService != null)
@@ -324,23 +373,34 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
     }
 
     public void getLocationData(final String location, final String uuid, final String serviceFilter) {
+        getLocationData(location, uuid, serviceFilter, SSDPDescriptionCache.DEFAULT_MAX_AGE);
+    }
+
+    public void getLocationData(final String location, final String uuid, final String serviceFilter, final long maxAge) {
         try {
-            getLocationData(new URL(location), uuid, serviceFilter);
+            getLocationData(new URL(location), uuid, serviceFilter, maxAge);
         } catch (IOException e) {
             Log.d(Util.T, "Failed to get location data", e);
         }
     }
 
     public void getLocationData(final URL location, final String uuid, final String serviceFilter) {
-        Util.runInBackground(() -> {
-            SSDPDevice device = null;
-            try {
-                device = new SSDPDevice(location, serviceFilter);
-            } catch (IOException|ParserConfigurationException|SAXException e) {
-                Log.d(Util.T, "Failed to get location data", e);
-            }
+        getLocationData(location, uuid, serviceFilter, SSDPDescriptionCache.DEFAULT_MAX_AGE);
+    }
 
-            if (device != null) {
+    /**
+     * Queues the device description for loading through the description cache. Fetches are
+     * limited globally and per host, and descriptions for filters with a higher priority
+     * (see {@link #getFilterPriority(String)}) are loaded first.
+     *
+     * @param maxAge how long the description may be reused without revalidation, in milliseconds
+     */
+    public void getLocationData(final URL location, final String uuid, final String serviceFilter, final long maxAge) {
+        boolean queued = descriptionFetcher.fetch(location, uuid, serviceFilter, getFilterPriority(serviceFilter), maxAge,
+                filtersRequiringXML.contains(serviceFilter), new SSDPDescriptionFetcher.Callback() {
+
+            @Override
+            public void onFetched(SSDPDevice device) {
                 device.UUID = uuid;
                 boolean hasServices = containsServicesWithFilter(device, serviceFilter);
 
@@ -365,11 +425,58 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
                         notifyListenersOfNewService(service);
                     }
                 }
+
+                discoveredServices.remove(uuid);
             }
 
-            discoveredServices.remove(uuid);
-        }, true);
+            @Override
+            public void onFailed(Exception e) {
+                discoveredServices.remove(uuid);
+            }
+        });
+
+        if (!queued)
+            Log.d(Util.T, "Description of " + uuid + " is already being loaded");
+    }
+
+    /**
+     * Sets the priority of description fetches for devices found with the given SSDP filter.
+     * Higher values are loaded first. Without an explicit priority the filters rank in the order
+     * their services were registered, see {@link #getFilterPriority(String)}.
+     */
+    public void setFilterPriority(String serviceFilter, int priority) {
+        filterPriorities.put(serviceFilter, priority);
+    }
+
+    /**
+     * @return the priority set with {@link #setFilterPriority(String, int)}, otherwise 0 for the
+     * filter that was added first, -1 for the second and so on, as apps register the services
+     * they care about most first
+     */
+    public int getFilterPriority(String serviceFilter) {
+        Integer priority = filterPriorities.get(serviceFilter);
+        if (priority != null)
+            return priority;
+
+        int position = 0;
+        for (DiscoveryFilter filter : serviceFilters) {
+            if (serviceFilter.equals(filter.getServiceFilter()))
+                return -position;
+            position++;
+        }
+        return -position;
+    }
 
+    /**
+     * Sets whether services found with the given SSDP filter need the raw device description
+     * (ServiceDescription.getLocationXML()). Descriptions for other filters are parsed while
+     * they are received and not kept in memory.
+     */
+    public void setRequiresLocationXML(String serviceFilter, boolean required) {
+        if (required)
+            filtersRequiringXML.add(serviceFilter);
+        else
+            filtersRequiringXML.remove(serviceFilter);
     }
 
     private void notifyListenersOfNewService(ServiceDescription service) {
@@ -423,6 +530,24 @@ public class SSDPDiscoveryProvider implements DiscoveryProvider {
         return serviceIds;
     }
 
+    private String findSearchedFilter(SSDPPacket ssdpPacket, String header) {
+        for (DiscoveryFilter serviceFilter : serviceFilters) {
+            String ssdpFilter = serviceFilter.getServiceFilter();
+
+            if (ssdpPacket.headerEquals(header, ssdpFilter))
+                return ssdpFilter;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return cache of device descriptions, e.g. to read its hit and miss counters
+     */
+    public SSDPDescriptionCache getDescriptionCache() {
+        return descriptionCache;
+    }
+
     public boolean isSearchingForFilter(String filter) {
         for (DiscoveryFilter serviceFilter : serviceFilters) {
             String ssdpFilter = serviceFilter.getServiceFilter();
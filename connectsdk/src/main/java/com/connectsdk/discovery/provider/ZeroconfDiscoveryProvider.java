@@ -47,6 +47,10 @@ public class ZeroconfDiscoveryProvider implements DiscoveryProvider {
 
     JmDNS jmdns;
     InetAddress srcAddress;
+    Context context;
+
+    /* Keep jmdns, and with it the DNS cache, between scans */
+    private boolean persistentSession = false;
 
 
     List<DiscoveryFilter> serviceFilters;
@@ -139,6 +143,7 @@ public class ZeroconfDiscoveryProvider implements DiscoveryProvider {
     };
 
     public ZeroconfDiscoveryProvider(Context context) {
+        this.context = context;
         foundServices = new ConcurrentHashMap<>(8, 0.75f, 2);
 
         serviceListeners = new CopyOnWriteArrayList<>();
@@ -206,16 +211,50 @@ public class ZeroconfDiscoveryProvider implements DiscoveryProvider {
     public void reset() {
         stop();
         foundServices.clear();
+
+        if (persistentSession) {
+            // the network may have changed, so the next scan binds again
+            closeJmDNS();
+            try {
+                srcAddress = Util.getIpAddress(context);
+            } catch (UnknownHostException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Sets whether the JmDNS instance is kept between scans. With a persistent session a rescan
+     * keeps the socket, threads and DNS cache, re-registers the filter listeners (which are
+     * answered from the cache at once) and only sends new queries for the filter types. The
+     * session is closed by reset().
+     */
+    public void setPersistentSession(boolean persistentSession) {
+        this.persistentSession = persistentSession;
+    }
+
+    public boolean isPersistentSession() {
+        return persistentSession;
+    }
+
+    private void closeJmDNS() {
+        if (jmdns != null) {
+            try {
+                jmdns.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            jmdns = null;
+        }
     }
 
     @Override
     public void scan() {
         try {
-            if (jmdns != null) {
-                jmdns.close();
-                jmdns = null;
+            if (!persistentSession || jmdns == null) {
+                closeJmDNS();
+                jmdns = createJmDNS();
             }
-            jmdns = createJmDNS();
 
             if (jmdns != null) {
                 for (DiscoveryFilter searchTarget : serviceFilters) {
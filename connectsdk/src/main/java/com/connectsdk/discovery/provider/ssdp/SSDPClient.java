@@ -26,14 +26,25 @@ import com.connectsdk.core.Util;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.MulticastSocket;
 import java.net.NetworkInterface;
 import java.net.SocketAddress;
 import java.net.SocketException;
-
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Owns the two SSDP sockets: a unicast one that sends M-SEARCH requests and receives the
+ * responses, and one bound to port 1900 that has joined the 239.255.255.250 group and receives
+ * NOTIFY messages. Both are non-blocking channels meant to be driven by a single Selector.
+ */
 public class SSDPClient {
     /* New line definition */
     public static final String NEWLINE = "\r\n";
@@ -51,8 +62,13 @@ public class SSDPClient {
     public static final String BYEBYE = "ssdp:byebye";
     public static final String UPDATE = "ssdp:update";
 
-    DatagramSocket datagramSocket;
-    MulticastSocket multicastSocket;
+    DatagramChannel datagramChannel;
+    DatagramChannel multicastChannel;
+    MembershipKey membershipKey;
+
+    /* Receive buffers, one per channel; direct so the channel reads into them without a copy */
+    final ByteBuffer datagramBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+    final ByteBuffer multicastBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
 
     SocketAddress multicastGroup;
     NetworkInterface networkInterface;
@@ -61,89 +77,128 @@ public class SSDPClient {
     int timeout = 0;
     static int MX = 5;
 
+    /* Size of the buffer a received datagram is copied into */
+    public static final int RECEIVE_BUFFER_SIZE = 1024;
+
     public SSDPClient(InetAddress source) throws IOException {
-        this(source, createMulticastSocket(), new DatagramSocket(null));
+        this(source, createMulticastChannel(), DatagramChannel.open(StandardProtocolFamily.INET));
     }
 
-    private static MulticastSocket createMulticastSocket() throws IOException {
-        MulticastSocket socket = new MulticastSocket(PORT);
-        socket.setReuseAddress(true);
-        socket.setTimeToLive(2);
-        try {
-            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
-            if (networkInterface != null) {
-                socket.setNetworkInterface(networkInterface);
-            }
-        } catch (Exception e) {
-            Log.w(Util.T, "Failed to set network interface: " + e.getMessage());
-        }
-        return socket;
+    private static DatagramChannel createMulticastChannel() throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 2);
+        channel.bind(new InetSocketAddress(PORT));
+        return channel;
     }
 
-    public SSDPClient(InetAddress source, MulticastSocket mcSocket, DatagramSocket dgSocket) throws IOException {
+    public SSDPClient(InetAddress source, DatagramChannel mcChannel, DatagramChannel dgChannel) throws IOException {
         localInAddress = source;
-        multicastSocket = mcSocket;
-        datagramSocket = dgSocket;
+        multicastChannel = mcChannel;
+        datagramChannel = dgChannel;
 
         multicastGroup = new InetSocketAddress(MULTICAST_ADDRESS, PORT);
         networkInterface = NetworkInterface.getByInetAddress(localInAddress);
-        multicastSocket.joinGroup(multicastGroup, networkInterface);
+        if (networkInterface == null) {
+            close();
+            throw new IOException("No network interface for " + localInAddress);
+        }
 
-        datagramSocket.setReuseAddress(true);
-        datagramSocket.bind(new InetSocketAddress(localInAddress, 0));
+        try {
+            multicastChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        } catch (IOException e) {
+            Log.w(Util.T, "Failed to set network interface: " + e.getMessage());
+        }
+        membershipKey = multicastChannel.join(InetAddress.getByName(MULTICAST_ADDRESS), networkInterface);
+        multicastChannel.configureBlocking(false);
+
+        datagramChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        datagramChannel.bind(new InetSocketAddress(localInAddress, 0));
+        datagramChannel.configureBlocking(false);
+    }
+
+    /**
+     * Registers both channels for reading, with this client as the key attachment.
+     * Closing the client cancels the keys.
+     */
+    public void register(Selector selector) throws IOException {
+        datagramChannel.register(selector, SelectionKey.OP_READ, this);
+        multicastChannel.register(selector, SelectionKey.OP_READ, this);
     }
 
     /** Used to send SSDP packet */
     public void send(String data) throws IOException {
-        DatagramPacket dp = new DatagramPacket(data.getBytes(), data.length(), multicastGroup);
-
-        datagramSocket.send(dp);
+        datagramChannel.send(ByteBuffer.wrap(data.getBytes(StandardCharsets.US_ASCII)), multicastGroup);
     }
 
+    /**
+     * Reads a pending datagram from the given channel of this client into the channel's receive
+     * buffer and copies it into the packet's buffer. Datagrams longer than the packet's buffer
+     * are truncated.
+     *
+     * @return the packet, or null if no datagram was waiting
+     */
+    public DatagramPacket receive(DatagramChannel channel, DatagramPacket dp) throws IOException {
+        ByteBuffer buffer = channel == multicastChannel ? multicastBuffer : datagramBuffer;
+        buffer.clear();
+        SocketAddress source = channel.receive(buffer);
+        if (source == null) {
+            return null;
+        }
 
-    /** Used to receive SSDP Response packet */
-    public DatagramPacket responseReceive() throws IOException {
-        byte[] buf = new byte[1024];
-        DatagramPacket dp = new DatagramPacket(buf, buf.length);
-
-        datagramSocket.receive(dp);
-
+        buffer.flip();
+        int length = Math.min(buffer.remaining(), dp.getData().length);
+        buffer.get(dp.getData(), 0, length);
+        dp.setData(dp.getData(), 0, length);
+        dp.setSocketAddress(source);
         return dp;
     }
 
-    /** Used to receive SSDP Multicast packet */
-    public DatagramPacket multicastReceive() throws IOException {
-        byte[] buf = new byte[1024];
-        DatagramPacket dp = new DatagramPacket(buf, buf.length);
+    /** Used to receive SSDP Response packet; returns null if none is waiting */
+    public DatagramPacket responseReceive(DatagramPacket dp) throws IOException {
+        return receive(datagramChannel, dp);
+    }
 
-        multicastSocket.receive(dp);
+    /** Used to receive SSDP Multicast packet; returns null if none is waiting */
+    public DatagramPacket multicastReceive(DatagramPacket dp) throws IOException {
+        return receive(multicastChannel, dp);
+    }
 
-        return dp;
+    /** Creates a packet that can be passed to the receive methods repeatedly */
+    public static DatagramPacket newReceivePacket() {
+        byte[] buf = new byte[RECEIVE_BUFFER_SIZE];
+        return new DatagramPacket(buf, buf.length);
     }
 
     public boolean isConnected() {
-        return datagramSocket != null && multicastSocket != null && !datagramSocket.isClosed() && !multicastSocket.isClosed();
+        return datagramChannel != null && multicastChannel != null && datagramChannel.isOpen() && multicastChannel.isOpen();
     }
 
     /** Close the socket */
     public void close() {
-        if (multicastSocket != null) {
+        if (multicastChannel != null) {
+            if (membershipKey != null) {
+                membershipKey.drop();
+            }
             try {
-                multicastSocket.leaveGroup(multicastGroup, networkInterface);
+                multicastChannel.close();
             } catch (IOException e) {
                 Log.e(Util.T,e.getMessage(),e);
             }
-            multicastSocket.close();
         }
 
-        if (datagramSocket != null) {
-            datagramSocket.close();
+        if (datagramChannel != null) {
+            try {
+                datagramChannel.close();
+            } catch (IOException e) {
+                Log.e(Util.T,e.getMessage(),e);
+            }
         }
     }
 
     public void setTimeout(int timeout) throws SocketException {
         this.timeout = timeout;
-        datagramSocket.setSoTimeout(this.timeout);
+        datagramChannel.socket().setSoTimeout(this.timeout);
     }
 
     public static String getSSDPSearchMessage(String ST) {
@@ -0,0 +1,398 @@
+/*
+ * SSDPDescriptionCache
+ * Connect SDK
+ *
+ * Copyright (c) 2015 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.connectsdk.discovery.provider.ssdp;
+
+import android.util.Log;
+
+import com.connectsdk.core.Util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two-tier cache of UPnP device descriptions keyed by LOCATION URL and device UUID.
+ * <p>
+ * Entries stay fresh for the max-age announced in the SSDP CACHE-CONTROL header. A fresh entry
+ * is used without touching the network; a stale one is revalidated with If-None-Match /
+ * If-Modified-Since. Entries are kept in a bounded LRU map and, if a directory is given, written
+ * to disk so that discovery in the next session can start without any description fetch.
+ */
+public class SSDPDescriptionCache {
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    /* Used when a device does not announce CACHE-CONTROL; UPnP requires at least 1800 s */
+    public static final long DEFAULT_MAX_AGE = 1800 * 1000;
+
+    static final String KEY_LOCATION = "location";
+    static final String KEY_UUID = "uuid";
+    static final String KEY_XML = "xml";
+    static final String KEY_DESCRIPTION = "description";
+    static final String KEY_HEADERS = "headers";
+    static final String KEY_ETAG = "etag";
+    static final String KEY_LAST_MODIFIED = "lastModified";
+    static final String KEY_EXPIRES = "expires";
+
+    private static final String FILE_SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /* Temp files older than this were left behind by a crash, not by a write in progress */
+    private static final long STALE_TEMP_AGE = 60 * 1000;
+
+    /**
+     * A cached description holds either the raw document, for devices whose consumers need
+     * it, or only the fields parsed from it (see SSDPDevice), which is much smaller.
+     */
+    public static class Entry {
+        public final String location;
+        public final String uuid;
+        /* Raw description, or null if only the parsed fields are cached */
+        public final String locationXML;
+        public final JSONObject description;
+        public final Map<String, List<String>> headers;
+        public final String etag;
+        public final String lastModified;
+        volatile long expires;
+
+        public Entry(String location, String uuid, String locationXML, JSONObject description,
+                     Map<String, List<String>> headers, String etag, String lastModified, long expires) {
+            this.location = location;
+            this.uuid = uuid;
+            this.locationXML = locationXML;
+            this.description = description;
+            this.headers = headers;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        JSONObject toJSONObject() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put(KEY_LOCATION, location);
+            json.put(KEY_UUID, uuid);
+            json.put(KEY_XML, locationXML);
+            json.put(KEY_DESCRIPTION, description);
+            json.put(KEY_ETAG, etag);
+            json.put(KEY_LAST_MODIFIED, lastModified);
+            json.put(KEY_EXPIRES, expires);
+
+            JSONObject headersJson = new JSONObject();
+            if (headers != null) {
+                for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                    if (header.getKey() != null && header.getValue() != null) {
+                        headersJson.put(header.getKey(), new JSONArray(header.getValue()));
+                    }
+                }
+            }
+            json.put(KEY_HEADERS, headersJson);
+
+            return json;
+        }
+
+        static Entry fromJSONObject(JSONObject json) throws JSONException {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            JSONObject headersJson = json.optJSONObject(KEY_HEADERS);
+            if (headersJson != null) {
+                Iterator<String> names = headersJson.keys();
+                while (names.hasNext()) {
+                    String name = names.next();
+                    JSONArray values = headersJson.getJSONArray(name);
+                    List<String> list = new ArrayList<>(values.length());
+                    for (int i = 0; i < values.length(); i++) {
+                        list.add(values.getString(i));
+                    }
+                    headers.put(name, list);
+                }
+            }
+
+            String locationXML = json.optString(KEY_XML, null);
+            JSONObject description = json.optJSONObject(KEY_DESCRIPTION);
+            if (locationXML == null && description == null) {
+                throw new JSONException("No description");
+            }
+
+            return new Entry(json.getString(KEY_LOCATION), json.getString(KEY_UUID), locationXML, description,
+                    headers, json.optString(KEY_ETAG, null), json.optString(KEY_LAST_MODIFIED, null),
+                    json.optLong(KEY_EXPIRES, 0));
+        }
+    }
+
+    private final File directory;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger revalidatedCount = new AtomicInteger();
+
+    /**
+     * @param directory  directory for the on-disk tier, or null to keep entries in memory only
+     * @param maxEntries maximum number of entries in each tier
+     */
+    public SSDPDescriptionCache(File directory, final int maxEntries) {
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    deleteFile(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public SSDPDescriptionCache(File directory) {
+        this(directory, DEFAULT_MAX_ENTRIES);
+    }
+
+    static String key(String location, String uuid) {
+        return uuid + "|" + location;
+    }
+
+    /**
+     * Looks up an entry in memory, then on disk. Does not update the counters; callers record
+     * the outcome with {@link #recordHit()}, {@link #recordMiss()} or {@link #recordRevalidated()}.
+     *
+     * @return the entry, fresh or stale, or null if none is cached
+     */
+    public Entry get(String location, String uuid) {
+        String key = key(location, uuid);
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+
+        Entry entry = readFile(key);
+        if (entry != null && location.equals(entry.location) && uuid.equals(entry.uuid)) {
+            synchronized (this) {
+                entries.put(key, entry);
+            }
+            return entry;
+        }
+        return null;
+    }
+
+    public void put(Entry entry) {
+        String key = key(entry.location, entry.uuid);
+
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+        writeFile(key, entry);
+    }
+
+    /**
+     * Extends the lifetime of an entry after the device answered 304 Not Modified.
+     */
+    public void refresh(Entry entry, long expires) {
+        entry.expires = expires;
+        writeFile(key(entry.location, entry.uuid), entry);
+    }
+
+    public void remove(String location, String uuid) {
+        String key = key(location, uuid);
+
+        synchronized (this) {
+            entries.remove(key);
+        }
+        deleteFile(key);
+    }
+
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+        }
+
+        File[] files = directory != null ? directory.listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if ((name.endsWith(FILE_SUFFIX) || name.endsWith(TEMP_SUFFIX)) && !file.delete()) {
+                    Log.w(Util.T, "Failed to delete " + file);
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    void recordRevalidated() {
+        revalidatedCount.incrementAndGet();
+    }
+
+    /**
+     * @return number of descriptions served from a fresh entry without any request
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of descriptions that had to be fetched in full
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of stale entries confirmed by a 304 Not Modified response
+     */
+    public int getRevalidatedCount() {
+        return revalidatedCount.get();
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, Integer.toHexString(key.hashCode()) + FILE_SUFFIX);
+    }
+
+    private Entry readFile(String key) {
+        if (directory == null) {
+            return null;
+        }
+
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                sb.append(line).append('\n');
+            }
+            return Entry.fromJSONObject(new JSONObject(sb.toString()));
+        } catch (IOException | JSONException e) {
+            Log.w(Util.T, "Failed to read cached description " + file, e);
+            return null;
+        }
+    }
+
+    private void writeFile(String key, Entry entry) {
+        if (directory == null) {
+            return;
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(Util.T, "Failed to create " + directory);
+            return;
+        }
+
+        // written to a temp file of its own and renamed into place, so that readers never see
+        // a partial file after a crash or while another thread writes the same entry
+        File file = fileFor(key);
+        File temp = null;
+        try {
+            byte[] data = entry.toJSONObject().toString().getBytes(StandardCharsets.UTF_8);
+            temp = File.createTempFile(file.getName(), TEMP_SUFFIX, directory);
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(data);
+                out.getFD().sync();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Failed to rename " + temp + " to " + file);
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(Util.T, "Failed to write cached description " + file, e);
+            if (temp != null && temp.exists() && !temp.delete()) {
+                Log.w(Util.T, "Failed to delete " + temp);
+            }
+        }
+
+        trimDirectory();
+    }
+
+    /* Files written in earlier sessions are not in the LRU map, so bound the directory as well */
+    private void trimDirectory() {
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_AGE;
+        File[] temps = directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (temps != null) {
+            for (File temp : temps) {
+                // a temp file renamed in the meantime reports 0 and is gone already
+                if (temp.lastModified() < staleBefore && !temp.delete() && temp.exists()) {
+                    Log.w(Util.T, "Failed to delete " + temp);
+                }
+            }
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null || files.length <= maxEntries) {
+            return;
+        }
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length - maxEntries; i++) {
+            if (!files[i].delete()) {
+                Log.w(Util.T, "Failed to delete " + files[i]);
+            }
+        }
+    }
+
+    private void deleteFile(String key) {
+        if (directory == null) {
+            return;
+        }
+
+        File file = fileFor(key);
+        if (file.exists() && !file.delete()) {
+            Log.w(Util.T, "Failed to delete " + file);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * SSDPDescriptionFetcher
+ * Connect SDK
+ *
+ * Copyright (c) 2015 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.connectsdk.discovery.provider.ssdp;
+
+import android.util.Log;
+
+import com.connectsdk.core.Util;
+
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Fetch stage for device descriptions.
+ * <p>
+ * At most maxConcurrentFetches descriptions are downloaded at once, and at most one per host.
+ * A request for a description that is already queued or in flight is dropped. Waiting requests
+ * are served by priority, then in arrival order. A failed fetch is retried with exponential
+ * backoff, and the host is not contacted again until its backoff has elapsed. Hosts are forgotten
+ * once they are idle and their failures are older than {@link #MAX_BACKOFF}.
+ */
+public class SSDPDescriptionFetcher {
+    public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long INITIAL_BACKOFF = 1000;
+    public static final long MAX_BACKOFF = 60 * 1000;
+
+    public interface Callback {
+        void onFetched(SSDPDevice device);
+
+        void onFailed(Exception e);
+    }
+
+    private static class Request implements Comparable<Request> {
+        final URL location;
+        final String host;
+        final String uuid;
+        final String serviceFilter;
+        final int priority;
+        final long maxAge;
+        final boolean keepLocationXML;
+        final long sequence;
+        final Callback callback;
+        int attempts;
+
+        Request(URL location, String uuid, String serviceFilter, int priority, long maxAge, boolean keepLocationXML,
+                long sequence, Callback callback) {
+            this.location = location;
+            this.host = location.getHost();
+            this.uuid = uuid;
+            this.serviceFilter = serviceFilter;
+            this.priority = priority;
+            this.maxAge = maxAge;
+            this.keepLocationXML = keepLocationXML;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+
+        String key() {
+            return uuid + "|" + location;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class Host {
+        boolean busy;
+        int failures;
+        long backoffUntil;
+    }
+
+    private final SSDPDescriptionCache cache;
+    private final int maxConcurrentFetches;
+    private final ScheduledExecutorService executor;
+
+    private final PriorityQueue<Request> pending = new PriorityQueue<>();
+    private final Set<String> requested = new HashSet<>();
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    private int active;
+    private long sequence;
+    private long scheduledDispatch = Long.MAX_VALUE;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    public SSDPDescriptionFetcher(SSDPDescriptionCache cache, int maxConcurrentFetches) {
+        this.cache = cache;
+        this.maxConcurrentFetches = maxConcurrentFetches;
+
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(maxConcurrentFetches, r -> {
+            Thread th = new Thread(r);
+            th.setName("SSDP Fetch");
+            th.setDaemon(true);
+            return th;
+        });
+        pool.setKeepAliveTime(30, TimeUnit.SECONDS);
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public SSDPDescriptionFetcher(SSDPDescriptionCache cache) {
+        this(cache, DEFAULT_MAX_CONCURRENT_FETCHES);
+    }
+
+    /**
+     * Queues a description fetch unless one for the same UUID and location is already
+     * queued or running.
+     *
+     * @param priority higher values are fetched first
+     * @param maxAge   lifetime of the fetched description in milliseconds
+     * @param keepLocationXML whether the fetched device should keep its raw description
+     * @return false if the request was dropped as a duplicate
+     */
+    public boolean fetch(URL location, String uuid, String serviceFilter, int priority, long maxAge,
+                         boolean keepLocationXML, Callback callback) {
+        synchronized (this) {
+            Request request = new Request(location, uuid, serviceFilter, priority, maxAge, keepLocationXML,
+                    sequence++, callback);
+            if (!requested.add(request.key())) {
+                return false;
+            }
+            pending.add(request);
+        }
+
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Drops all queued requests and forgets host backoff. Fetches in flight still complete.
+     */
+    public synchronized void clear() {
+        for (Request request : pending) {
+            requested.remove(request.key());
+        }
+        pending.clear();
+        hosts.clear();
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    private void dispatch() {
+        List<Request> ready = new ArrayList<>();
+        long nextBackoff = Long.MAX_VALUE;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            List<Request> skipped = new ArrayList<>();
+
+            while (active < maxConcurrentFetches && !pending.isEmpty()) {
+                Request request = pending.poll();
+                Host host = getHost(request.host);
+
+                if (host.busy) {
+                    skipped.add(request);
+                } else if (host.backoffUntil > now) {
+                    nextBackoff = Math.min(nextBackoff, host.backoffUntil);
+                    skipped.add(request);
+                } else {
+                    host.busy = true;
+                    active++;
+                    ready.add(request);
+                }
+            }
+
+            pending.addAll(skipped);
+        }
+
+        for (final Request request : ready) {
+            executor.execute(() -> run(request));
+        }
+
+        if (nextBackoff != Long.MAX_VALUE) {
+            scheduleDispatch(nextBackoff);
+        }
+    }
+
+    /* Wakes the dispatcher when the earliest host backoff ends */
+    private void scheduleDispatch(long time) {
+        synchronized (this) {
+            if (time >= scheduledDispatch) {
+                return;
+            }
+            scheduledDispatch = time;
+        }
+
+        executor.schedule(() -> {
+            synchronized (SSDPDescriptionFetcher.this) {
+                scheduledDispatch = Long.MAX_VALUE;
+            }
+            dispatch();
+        }, time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private Host getHost(String name) {
+        Host host = hosts.get(name);
+        if (host == null) {
+            host = new Host();
+            hosts.put(name, host);
+        }
+        return host;
+    }
+
+    /* Called with the lock held */
+    private void pruneHosts(long now) {
+        Iterator<Host> i = hosts.values().iterator();
+        while (i.hasNext()) {
+            Host host = i.next();
+            if (!host.busy && (host.failures == 0 || now >= host.backoffUntil + MAX_BACKOFF)) {
+                i.remove();
+            }
+        }
+    }
+
+    private void run(Request request) {
+        SSDPDevice device = null;
+        Exception error = null;
+        boolean retry = false;
+
+        try {
+            device = new SSDPDevice(request.location, request.serviceFilter, request.uuid, cache, request.maxAge,
+                    request.keepLocationXML);
+        } catch (IOException | ParserConfigurationException | SAXException | RuntimeException e) {
+            // a malformed description may also fail with a runtime exception while parsing
+            error = e;
+        } finally {
+            retry = release(request, error);
+        }
+
+        try {
+            if (device != null) {
+                request.callback.onFetched(device);
+            } else if (!retry) {
+                Log.d(Util.T, "Failed to get location data", error);
+                request.callback.onFailed(error);
+            }
+        } finally {
+            dispatch();
+        }
+    }
+
+    /**
+     * Frees the host and the request slot of a finished fetch, and queues a retry for I/O
+     * errors.
+     *
+     * @return true if the request was queued again
+     */
+    private synchronized boolean release(Request request, Exception error) {
+        boolean retry = false;
+
+        Host host = getHost(request.host);
+        host.busy = false;
+        active--;
+
+        if (error instanceof IOException) {
+            host.failures++;
+            host.backoffUntil = System.currentTimeMillis()
+                    + Math.min(INITIAL_BACKOFF << Math.min(host.failures - 1, 16), MAX_BACKOFF);
+
+            if (++request.attempts < maxAttempts && requested.contains(request.key())) {
+                pending.add(request);
+                retry = true;
+            }
+        } else if (error == null) {
+            host.failures = 0;
+            host.backoffUntil = 0;
+        }
+
+        if (!retry) {
+            requested.remove(request.key());
+        }
+
+        pruneHosts(System.currentTimeMillis());
+        return retry;
+    }
+}
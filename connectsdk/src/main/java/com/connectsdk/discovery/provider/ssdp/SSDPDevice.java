@@ -20,21 +20,32 @@
 
 package com.connectsdk.discovery.provider.ssdp;
 
+import android.util.Log;
+
 import androidx.annotation.NonNull;
 
+import com.connectsdk.core.Util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Scanner;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -42,6 +53,19 @@ import javax.xml.parsers.SAXParserFactory;
 
 /** @noinspection unused*/
 public class SSDPDevice {
+    /* Timeouts for loading the description, in milliseconds */
+    static final int CONNECT_TIMEOUT = 5000;
+    static final int READ_TIMEOUT = 10000;
+
+    /* Parsers are reused by each discovery thread instead of being looked up per device */
+    private static final SAXParserFactory SAX_PARSER_FACTORY = SAXParserFactory.newInstance();
+    private static final ThreadLocal<SAXParser> SAX_PARSERS = new ThreadLocal<>();
+
+    /* Key of the service URI in a cached description, which a Samsung capability may change */
+    static final String KEY_SERVICE_URI = "serviceURI";
+
+    private final boolean keepLocationXML;
+
     /* Required. UPnP device type. */
     public String deviceType;
     /* Required. Short description for end user. */
@@ -87,6 +111,26 @@ public class SSDPDevice {
     }
 
     public SSDPDevice(URL urlObject, String ST) throws IOException, ParserConfigurationException, SAXException {
+        this(urlObject, ST, null, null, 0, true);
+    }
+
+    public SSDPDevice(URL urlObject, String ST, String uuid, SSDPDescriptionCache cache, long maxAge) throws IOException, ParserConfigurationException, SAXException {
+        this(urlObject, ST, uuid, cache, maxAge, true);
+    }
+
+    /**
+     * Loads the description through a cache. A fresh cached description is used without any
+     * request; a stale one is revalidated with If-None-Match / If-Modified-Since.
+     *
+     * @param uuid   device UUID taken from the SSDP USN header
+     * @param cache  description cache, or null to always fetch
+     * @param maxAge lifetime of a fetched description in milliseconds
+     * @param keepLocationXML whether locationXML should hold the raw description; if false, the
+     *                        description is parsed straight off the socket and only the parsed
+     *                        fields are cached
+     */
+    public SSDPDevice(URL urlObject, String ST, String uuid, SSDPDescriptionCache cache, long maxAge, boolean keepLocationXML) throws IOException, ParserConfigurationException, SAXException {
+        this.keepLocationXML = keepLocationXML;
         if (urlObject.getPort() == -1) {
             baseURL = String.format("%s://%s", urlObject.getProtocol(), urlObject.getHost());
         } else {
@@ -94,37 +138,263 @@ public class SSDPDevice {
         }
         ipAddress = urlObject.getHost();
         port = urlObject.getPort();
-        UUID = null;
+        UUID = uuid;
         this.ST =ST;
         serviceURI = String.format("%s://%s", urlObject.getProtocol(), urlObject.getHost());
 
-        parse(urlObject);
+        if (cache != null && uuid != null)
+            parse(urlObject, cache, maxAge);
+        else
+            parse(urlObject);
     }
 
     public void parse(URL url) throws IOException, ParserConfigurationException, SAXException {
-        SAXParserFactory factory = SAXParserFactory.newInstance();
-        SAXParser saxParser;
+        URLConnection urlConnection = openConnection(url);
+
+        read(urlConnection, keepLocationXML);
+    }
+
+    void parse(URL url, SSDPDescriptionCache cache, long maxAge) throws IOException, ParserConfigurationException, SAXException {
+        String location = url.toString();
+        SSDPDescriptionCache.Entry cached = cache.get(location, UUID);
+        if (cached != null && keepLocationXML && cached.locationXML == null) {
+            // only the parsed description was cached, the document itself has to be fetched
+            cached = null;
+        }
+
+        if (cached != null && cached.isFresh()) {
+            try {
+                load(cached);
+                cache.recordHit();
+                return;
+            } catch (SAXException | JSONException e) {
+                cache.remove(location, UUID);
+                cached = null;
+            }
+        }
 
-        SSDPDeviceDescriptionParser parser = new SSDPDeviceDescriptionParser(this);
+        URLConnection urlConnection = openConnection(url);
 
+        if (cached != null && urlConnection instanceof HttpURLConnection
+                && (cached.etag != null || cached.lastModified != null)) {
+            HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
+            if (cached.etag != null)
+                httpConnection.setRequestProperty("If-None-Match", cached.etag);
+            if (cached.lastModified != null)
+                httpConnection.setRequestProperty("If-Modified-Since", cached.lastModified);
+
+            if (httpConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                httpConnection.disconnect();
+                try {
+                    load(cached);
+                } catch (JSONException e) {
+                    cache.remove(location, UUID);
+                    throw new SAXException(e);
+                }
+                cache.refresh(cached, System.currentTimeMillis() + maxAge);
+                cache.recordRevalidated();
+                return;
+            }
+        }
+
+        cache.recordMiss();
+        // the document is only kept when a consumer needs it, otherwise the parsed fields are
+        String xml = read(urlConnection, keepLocationXML);
+        JSONObject description;
+        try {
+            description = xml == null ? toDescription() : null;
+        } catch (JSONException e) {
+            Log.w(Util.T, "Failed to cache the description of " + location, e);
+            return;
+        }
+
+        cache.put(new SSDPDescriptionCache.Entry(location, UUID, xml, description, headers,
+                urlConnection.getHeaderField("ETag"), urlConnection.getHeaderField("Last-Modified"),
+                System.currentTimeMillis() + maxAge));
+    }
+
+    private static URLConnection openConnection(URL url) throws IOException {
         URLConnection urlConnection = url.openConnection();
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
+        urlConnection.setReadTimeout(READ_TIMEOUT);
+        return urlConnection;
+    }
+
+    /**
+     * Parses the description while it is being received. The raw document is only copied
+     * aside when capture is set.
+     *
+     * @return the raw description if it was captured, otherwise null
+     */
+    private String read(URLConnection urlConnection, boolean capture) throws IOException, ParserConfigurationException, SAXException {
+        setApplicationURL(urlConnection.getHeaderField("Application-URL"));
+
+        ByteArrayOutputStream copy = capture ? new ByteArrayOutputStream(4096) : null;
+
+        try (InputStream body = new BufferedInputStream(urlConnection.getInputStream())) {
+            InputStream in = copy != null ? new CopyingInputStream(body, copy) : body;
+            parseXML(new InputSource(in));
+
+            if (copy != null) {
+                // the parser may stop at the end of the root element
+                byte[] rest = new byte[512];
+                while (in.read(rest) != -1) {
+                    // drain into the copy
+                }
+            }
+        }
+
+        headers = urlConnection.getHeaderFields();
+
+        String xml = copy != null ? copy.toString(StandardCharsets.UTF_8.name()) : null;
+        locationXML = keepLocationXML ? xml : null;
+        return xml;
+    }
+
+    private void load(SSDPDescriptionCache.Entry cached) throws ParserConfigurationException, SAXException, IOException, JSONException {
+        // the header map of a connection is not always case-insensitive
+        List<String> values = null;
+        if (cached.headers != null) {
+            for (Map.Entry<String, List<String>> header : cached.headers.entrySet()) {
+                if ("Application-URL".equalsIgnoreCase(header.getKey())) {
+                    values = header.getValue();
+                    break;
+                }
+            }
+        }
+        setApplicationURL(values != null && !values.isEmpty() ? values.get(0) : null);
+
+        if (cached.locationXML != null) {
+            parseXML(new InputSource(new StringReader(cached.locationXML)));
+            locationXML = keepLocationXML ? cached.locationXML : null;
+        } else {
+            loadDescription(cached.description);
+            locationXML = null;
+        }
+
+        headers = cached.headers;
+    }
+
+    /**
+     * @return the fields filled in by SSDPDeviceDescriptionParser, which is all a device needs
+     * when it does not keep its raw description
+     */
+    private JSONObject toDescription() throws JSONException {
+        JSONObject description = new JSONObject();
+        description.put(SSDPDeviceDescriptionParser.TAG_DEVICE_TYPE, deviceType);
+        description.put(SSDPDeviceDescriptionParser.TAG_FRIENDLY_NAME, friendlyName);
+        description.put(SSDPDeviceDescriptionParser.TAG_MANUFACTURER, manufacturer);
+        description.put(SSDPDeviceDescriptionParser.TAG_MODEL_DESCRIPTION, modelDescription);
+        description.put(SSDPDeviceDescriptionParser.TAG_MODEL_NAME, modelName);
+        description.put(SSDPDeviceDescriptionParser.TAG_MODEL_NUMBER, modelNumber);
+        description.put(SSDPDeviceDescriptionParser.TAG_UDN, UDN);
+        description.put(KEY_SERVICE_URI, serviceURI);
+
+        JSONArray services = new JSONArray();
+        for (Service service : serviceList) {
+            JSONObject json = new JSONObject();
+            json.put(Service.TAG_SERVICE_TYPE, service.serviceType);
+            json.put(Service.TAG_SERVICE_ID, service.serviceId);
+            json.put(Service.TAG_SCPD_URL, service.SCPDURL);
+            json.put(Service.TAG_CONTROL_URL, service.controlURL);
+            json.put(Service.TAG_EVENTSUB_URL, service.eventSubURL);
+            services.put(json);
+        }
+        description.put(SSDPDeviceDescriptionParser.TAG_SERVICE_LIST, services);
+        return description;
+    }
+
+    private void loadDescription(JSONObject description) throws JSONException {
+        deviceType = description.optString(SSDPDeviceDescriptionParser.TAG_DEVICE_TYPE, null);
+        friendlyName = description.optString(SSDPDeviceDescriptionParser.TAG_FRIENDLY_NAME, null);
+        manufacturer = description.optString(SSDPDeviceDescriptionParser.TAG_MANUFACTURER, null);
+        modelDescription = description.optString(SSDPDeviceDescriptionParser.TAG_MODEL_DESCRIPTION, null);
+        modelName = description.optString(SSDPDeviceDescriptionParser.TAG_MODEL_NAME, null);
+        modelNumber = description.optString(SSDPDeviceDescriptionParser.TAG_MODEL_NUMBER, null);
+        UDN = description.optString(SSDPDeviceDescriptionParser.TAG_UDN, null);
+        serviceURI = description.optString(KEY_SERVICE_URI, serviceURI);
+
+        JSONArray services = description.getJSONArray(SSDPDeviceDescriptionParser.TAG_SERVICE_LIST);
+        for (int i = 0; i < services.length(); i++) {
+            JSONObject json = services.getJSONObject(i);
+            Service service = new Service();
+            service.baseURL = baseURL;
+            service.serviceType = json.optString(Service.TAG_SERVICE_TYPE, null);
+            service.serviceId = json.optString(Service.TAG_SERVICE_ID, null);
+            service.SCPDURL = json.optString(Service.TAG_SCPD_URL, null);
+            service.controlURL = json.optString(Service.TAG_CONTROL_URL, null);
+            service.eventSubURL = json.optString(Service.TAG_EVENTSUB_URL, null);
+            serviceList.add(service);
+        }
+    }
 
-        applicationURL = urlConnection.getHeaderField("Application-URL");
-        if (applicationURL != null && !applicationURL.substring(applicationURL.length() - 1).equals("/")) {
+    private void setApplicationURL(String url) {
+        // an empty Application-URL header is the same as none
+        applicationURL = url != null && !url.isEmpty() ? url : null;
+        if (applicationURL != null && !applicationURL.endsWith("/")) {
             applicationURL = applicationURL.concat("/");
         }
+    }
 
-        try (
-                InputStream in = new BufferedInputStream(urlConnection.getInputStream());
-                Scanner s = new Scanner(in).useDelimiter("\\A")
-        ) {
-            locationXML = s.hasNext() ? s.next() : "";
+    private void parseXML(InputSource source) throws ParserConfigurationException, SAXException, IOException {
+        SAXParser saxParser = SAX_PARSERS.get();
+        if (saxParser == null) {
+            synchronized (SAX_PARSER_FACTORY) {
+                saxParser = SAX_PARSER_FACTORY.newSAXParser();
+            }
+            SAX_PARSERS.set(saxParser);
+        }
 
-            saxParser = factory.newSAXParser();
-            saxParser.parse(new ByteArrayInputStream(locationXML.getBytes()), parser);
+        try {
+            saxParser.parse(source, new SSDPDeviceDescriptionParser(this));
+        } finally {
+            saxParser.reset();
         }
+    }
 
-        headers = urlConnection.getHeaderFields();
+    /* Passes the stream through while keeping a copy of everything read. The parser closes its
+       input when it is done, so closing is left to the owner of the underlying stream. */
+    private static class CopyingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream copy;
+
+        CopyingInputStream(InputStream in, ByteArrayOutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                copy.write(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 512)];
+            int count = read(buffer, 0, buffer.length);
+            return Math.max(count, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
     }
 
     @NonNull
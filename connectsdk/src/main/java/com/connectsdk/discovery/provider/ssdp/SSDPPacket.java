@@ -26,74 +26,299 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Flyweight view of an SSDP datagram. The packet only records where the start line and the
+ * headers are located in the receive buffer; header names are matched in place and values are
+ * turned into Strings only when asked for. A single instance can be reused for every datagram
+ * received on a socket by calling {@link #parse(DatagramPacket)}.
+ */
 public class SSDPPacket {
+    public static final String HEADER_ST = "ST";
+    public static final String HEADER_NT = "NT";
+    public static final String HEADER_NTS = "NTS";
+    public static final String HEADER_USN = "USN";
+    public static final String HEADER_LOCATION = "LOCATION";
+    public static final String HEADER_CACHE_CONTROL = "CACHE-CONTROL";
+
+    /* Header names that are returned as shared constants from getData() */
+    static final String[] KNOWN_HEADERS = {
+            HEADER_ST, HEADER_NT, HEADER_NTS, HEADER_USN, HEADER_LOCATION,
+            HEADER_CACHE_CONTROL, "SERVER", "EXT", "HOST", "MAN", "MX", "DATE", "USER-AGENT",
+            "BOOTID.UPNP.ORG", "CONFIGID.UPNP.ORG", "SEARCHPORT.UPNP.ORG"
+    };
+
+    static final int MAX_HEADERS = 32;
+    static final Charset ASCII_CHARSET = StandardCharsets.US_ASCII;
+
+    private static final byte[] UUID_PREFIX = "uuid:".getBytes(ASCII_CHARSET);
+    private static final String MAX_AGE = "max-age";
+
     DatagramPacket datagramPacket;
-    Map<String, String> data = new HashMap<>();
+    byte[] buffer;
+
+    int typeStart;
+    int typeEnd = -1;
+
+    int headerCount;
+    final int[] nameStart = new int[MAX_HEADERS];
+    final int[] nameEnd = new int[MAX_HEADERS];
+    final int[] valueStart = new int[MAX_HEADERS];
+    final int[] valueEnd = new int[MAX_HEADERS];
+
+    Map<String, String> data;
     String type;
-    static final Charset ASCII_CHARSET = StandardCharsets.US_ASCII;
-    static final String CRLF = "\r\n";
-    static final String LF = "\n";
+
+    public SSDPPacket() {
+    }
 
     public SSDPPacket(DatagramPacket datagramPacket) {
+        parse(datagramPacket);
+    }
+
+    /**
+     * Indexes the start line and headers of the received datagram, discarding the previous one.
+     * Only the first MAX_HEADERS headers are kept.
+     *
+     * @return false if the datagram does not contain a complete start line
+     */
+    public boolean parse(DatagramPacket datagramPacket) {
         this.datagramPacket = datagramPacket;
-        String text = new String(datagramPacket.getData(), ASCII_CHARSET);
-        int pos;
-        int eolPos;
-
-        if ((eolPos = text.indexOf(CRLF)) != -1) {
-            pos = eolPos + CRLF.length();
-        } else if ((eolPos = text.indexOf(LF)) != -1) {
-            pos = eolPos + LF.length();
-        } else
-            return;
-
-        // Get first line
-        type = text.substring(0, eolPos);
-
-        while (pos < text.length()) {
-            String line;
-            if ((eolPos = text.indexOf(CRLF, pos)) != -1) {
-                line = text.substring(pos, eolPos);
-                pos = eolPos + CRLF.length();
-            } else if ((eolPos = text.indexOf(LF, pos)) != -1) {
-                line = text.substring(pos, eolPos);
-                pos = eolPos + LF.length();
-            } else
+        buffer = datagramPacket.getData();
+        data = null;
+        type = null;
+        headerCount = 0;
+        typeStart = datagramPacket.getOffset();
+        typeEnd = -1;
+
+        int end = typeStart + datagramPacket.getLength();
+        int eol = indexOfLF(typeStart, end);
+        if (eol == -1) {
+            return false;
+        }
+        typeEnd = trimLineEnd(typeStart, eol);
+
+        int pos = eol + 1;
+        while (pos < end && headerCount < MAX_HEADERS) {
+            eol = indexOfLF(pos, end);
+            if (eol == -1) {
                 break;
+            }
+            int lineEnd = trimLineEnd(pos, eol);
 
-            int index = line.indexOf(':');
-            if (index == -1) {
-                continue;
+            int colon = pos;
+            while (colon < lineEnd && buffer[colon] != ':') {
+                colon++;
+            }
+
+            if (colon < lineEnd) {
+                int vs = colon + 1;
+                int ve = lineEnd;
+                while (vs < ve && buffer[vs] <= ' ') {
+                    vs++;
+                }
+                while (ve > vs && buffer[ve - 1] <= ' ') {
+                    ve--;
+                }
+
+                nameStart[headerCount] = pos;
+                nameEnd[headerCount] = colon;
+                valueStart[headerCount] = vs;
+                valueEnd[headerCount] = ve;
+                headerCount++;
             }
 
-            String key = asciiUpper(line.substring(0, index));
-            String value = line.substring(index + 1).trim();
+            pos = eol + 1;
+        }
+
+        return true;
+    }
 
-            data.put(key, value);
+    private int indexOfLF(int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
         }
+        return -1;
     }
 
-    // Fast toUpperCase for ASCII strings
-    private static String asciiUpper(String text) {
-        char[] chars = text.toCharArray();
+    private int trimLineEnd(int start, int lf) {
+        return (lf > start && buffer[lf - 1] == '\r') ? lf - 1 : lf;
+    }
 
-        for (int i = 0; i < chars.length; i++) {
-            char c = chars[i];
-            chars[i] = (c >= 97 && c <= 122) ? (char) (c - 32) : c;
+    private static int asciiUpper(int c) {
+        return (c >= 'a' && c <= 'z') ? c - 32 : c;
+    }
+
+    private boolean regionEquals(int start, int end, String text, boolean ignoreCase) {
+        int length = text.length();
+        if (end - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            int b = buffer[start + i] & 0xff;
+            int c = text.charAt(i);
+            if (b != c && !(ignoreCase && asciiUpper(b) == asciiUpper(c))) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        return new String(chars);
+    private int indexOfHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (regionEquals(nameStart[i], nameEnd[i], name, true)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     public DatagramPacket getDatagramPacket() {
         return datagramPacket;
     }
 
+    /**
+     * @return true if the start line equals the given one (e.g. SSDPClient.NOTIFY)
+     */
+    public boolean isType(String startLine) {
+        return typeEnd != -1 && regionEquals(typeStart, typeEnd, startLine, false);
+    }
+
+    /**
+     * @return true if the packet has the header, compared case-insensitively
+     */
+    public boolean hasHeader(String name) {
+        return indexOfHeader(name) != -1;
+    }
+
+    /**
+     * Compares a header value with the given text without decoding it.
+     */
+    public boolean headerEquals(String name, String value) {
+        int index = indexOfHeader(name);
+        return index != -1 && regionEquals(valueStart[index], valueEnd[index], value, false);
+    }
+
+    /**
+     * @return trimmed value of the header or null if it is not present
+     */
+    public String getHeader(String name) {
+        int index = indexOfHeader(name);
+        if (index == -1) {
+            return null;
+        }
+        return new String(buffer, valueStart[index], valueEnd[index] - valueStart[index], ASCII_CHARSET);
+    }
+
+    /**
+     * Extracts the device UUID from the USN header, i.e. the text between "uuid:" and
+     * either "::" or the end of the value.
+     *
+     * @return the UUID or null if the USN header is missing or has no UUID
+     */
+    public String getUUID() {
+        int index = indexOfHeader(HEADER_USN);
+        if (index == -1) {
+            return null;
+        }
+
+        int start = valueStart[index];
+        int end = valueEnd[index];
+        int from = -1;
+
+        for (int i = start; i + UUID_PREFIX.length <= end; i++) {
+            int j = 0;
+            while (j < UUID_PREFIX.length && buffer[i + j] == UUID_PREFIX[j]) {
+                j++;
+            }
+            if (j == UUID_PREFIX.length) {
+                from = i + j;
+                break;
+            }
+        }
+        if (from == -1 || from >= end) {
+            return null;
+        }
+
+        int to = end;
+        for (int i = from + 1; i + 1 < end; i++) {
+            if (buffer[i] == ':' && buffer[i + 1] == ':') {
+                to = i;
+                break;
+            }
+        }
+
+        return new String(buffer, from, to - from, ASCII_CHARSET);
+    }
+
+    /**
+     * Reads the max-age directive of the CACHE-CONTROL header.
+     *
+     * @return max-age in seconds or -1 if it is not present or malformed
+     */
+    public long getMaxAge() {
+        int index = indexOfHeader(HEADER_CACHE_CONTROL);
+        if (index == -1) {
+            return -1;
+        }
+
+        int end = valueEnd[index];
+        for (int i = valueStart[index]; i + MAX_AGE.length() <= end; i++) {
+            if (!regionEquals(i, i + MAX_AGE.length(), MAX_AGE, true)) {
+                continue;
+            }
+
+            int pos = i + MAX_AGE.length();
+            while (pos < end && (buffer[pos] == ' ' || buffer[pos] == '=')) {
+                pos++;
+            }
+
+            long value = 0;
+            int digits = 0;
+            while (pos < end && buffer[pos] >= '0' && buffer[pos] <= '9' && digits < 10) {
+                value = value * 10 + (buffer[pos] - '0');
+                pos++;
+                digits++;
+            }
+            return digits > 0 ? value : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return all headers keyed by their upper-cased name
+     */
     public Map<String, String> getData() {
+        if (data == null) {
+            data = new HashMap<>();
+
+            for (int i = 0; i < headerCount; i++) {
+                String value = new String(buffer, valueStart[i], valueEnd[i] - valueStart[i], ASCII_CHARSET);
+                data.put(headerName(i), value);
+            }
+        }
         return data;
     }
 
+    private String headerName(int index) {
+        for (String known : KNOWN_HEADERS) {
+            if (regionEquals(nameStart[index], nameEnd[index], known, true)) {
+                return known;
+            }
+        }
+
+        char[] chars = new char[nameEnd[index] - nameStart[index]];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) asciiUpper(buffer[nameStart[index] + i] & 0xff);
+        }
+        return new String(chars);
+    }
+
     public String getType() {
+        if (type == null && typeEnd != -1) {
+            type = new String(buffer, typeStart, typeEnd - typeStart, ASCII_CHARSET);
+        }
         return type;
     }
-}
\ No newline at end of file
+}
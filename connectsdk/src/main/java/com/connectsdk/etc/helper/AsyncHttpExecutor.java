@@ -0,0 +1,744 @@
+/*
+ * AsyncHttpExecutor
+ * Connect SDK
+ *
+ * Copyright (c) 2015 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.connectsdk.etc.helper;
+
+import android.util.Log;
+
+import com.connectsdk.core.Util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector driven HTTP/1.1 engine. All in-flight requests to every device are multiplexed
+ * over a small, fixed number of I/O threads instead of parking one background thread per
+ * request on a blocking socket, so a slow device no longer holds up commands to the others.
+ * Sockets are kept alive per host:port and reused for subsequent requests. A request that
+ * fails on a reused socket is sent again on a fresh one only if it is idempotent or none of
+ * it had been written yet.
+ * Callbacks are invoked on the I/O thread and must not block.
+ */
+public class AsyncHttpExecutor {
+
+    public static final int DEFAULT_IO_THREADS = 2;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 10000;
+    public static final long DEFAULT_KEEP_ALIVE_DURATION = 30000;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+    private static final int MAX_IDLE_PER_HOST = 4;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static AsyncHttpExecutor defaultExecutor;
+
+    public interface Callback {
+        void onResponse(int code, Map<String, String> headers, byte[] body);
+        void onFailure(IOException e);
+    }
+
+    private final IoThread[] threads;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile long keepAliveDuration = DEFAULT_KEEP_ALIVE_DURATION;
+    private volatile int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    public static synchronized AsyncHttpExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new AsyncHttpExecutor(DEFAULT_IO_THREADS);
+        }
+        return defaultExecutor;
+    }
+
+    public AsyncHttpExecutor(int ioThreads) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("ioThreads < 1");
+        }
+        threads = new IoThread[ioThreads];
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public void setKeepAliveDuration(long keepAliveDuration) {
+        this.keepAliveDuration = keepAliveDuration;
+    }
+
+    /**
+     * Requests beyond this many open sockets to one device wait for a socket to free up.
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+    }
+
+    /**
+     * @return number of requests that have been submitted and not completed yet
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Sends a fully serialized HTTP request and returns immediately. All requests for the
+     * same host:port are handled by the same I/O thread, which lets them share sockets.
+     * Without expectBody a response that declares neither a length nor chunked coding is
+     * taken to have no body instead of running to the end of the stream.
+     */
+    public void execute(String host, int port, byte[] request, boolean expectBody, Callback callback) {
+        String key = host + ":" + port;
+        Exchange exchange = new Exchange(key, new InetSocketAddress(host, port), request, expectBody, callback);
+
+        inFlight.incrementAndGet();
+        threadFor(key).submit(exchange);
+    }
+
+    public synchronized void shutdown() {
+        for (int i = 0; i < threads.length; i++) {
+            if (threads[i] != null) {
+                threads[i].shutdown();
+                threads[i] = null;
+            }
+        }
+    }
+
+    private synchronized IoThread threadFor(String key) {
+        int index = (key.hashCode() & 0x7FFFFFFF) % threads.length;
+        if (threads[index] == null) {
+            try {
+                threads[index] = new IoThread("HTTP I/O " + index);
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot open selector", e);
+            }
+            threads[index].start();
+        }
+        return threads[index];
+    }
+
+    private final class Exchange {
+        final String key;
+        final InetSocketAddress address;
+        final ByteBuffer request;
+        final boolean expectBody;
+        final boolean idempotent;
+        final Callback callback;
+
+        SocketChannel channel;
+        boolean reused;
+        boolean retried;
+        long deadline;
+
+        byte[] in = new byte[2048];
+        int inLength;
+
+        int headerEnd = -1;
+        int code;
+        Map<String, String> headers;
+        boolean chunked;
+        int contentLength = -1;
+        boolean keepAlive;
+
+        Exchange(String key, InetSocketAddress address, byte[] request, boolean expectBody, Callback callback) {
+            this.key = key;
+            this.address = address;
+            this.request = ByteBuffer.wrap(request);
+            this.expectBody = expectBody;
+            this.idempotent = isIdempotent(request);
+            this.callback = callback;
+        }
+
+        void append(ByteBuffer data) {
+            int count = data.remaining();
+            if (inLength + count > in.length) {
+                in = Arrays.copyOf(in, Math.max(in.length * 2, inLength + count));
+            }
+            data.get(in, inLength, count);
+            inLength += count;
+        }
+
+        void reset() {
+            request.rewind();
+            inLength = 0;
+            headerEnd = -1;
+            headers = null;
+            chunked = false;
+            contentLength = -1;
+        }
+    }
+
+    /**
+     * Sockets and queued requests of a single host:port.
+     */
+    private static final class Route {
+        final String key;
+        final Deque<SocketChannel> idle = new ArrayDeque<>();
+        final Deque<Exchange> waiting = new ArrayDeque<>();
+        int open;
+
+        Route(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class IdleChannel {
+        final Route route;
+        final long since;
+
+        IdleChannel(Route route, long since) {
+            this.route = route;
+            this.since = since;
+        }
+    }
+
+    private final class IoThread extends Thread {
+        private final Selector selector;
+        private final Queue<Exchange> submissions = new ConcurrentLinkedQueue<>();
+        private final Set<Exchange> active = new HashSet<>();
+        private final Map<String, Route> routes = new HashMap<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+        private volatile boolean running = true;
+
+        IoThread(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void submit(Exchange exchange) {
+            submissions.add(exchange);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(1000);
+                } catch (IOException e) {
+                    Log.e(Util.T, "HTTP selector failed", e);
+                    break;
+                }
+
+                Exchange submitted;
+                while ((submitted = submissions.poll()) != null) {
+                    dispatch(submitted);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.attachment() instanceof IdleChannel) {
+                        // an idle socket only becomes readable when the device closes it
+                        IdleChannel idle = (IdleChannel) key.attachment();
+                        idle.route.idle.remove(key.channel());
+                        closeChannel(idle.route, (SocketChannel) key.channel());
+                        continue;
+                    }
+
+                    Exchange exchange = (Exchange) key.attachment();
+                    try {
+                        if (key.isConnectable() && exchange.channel.finishConnect()) {
+                            exchange.deadline = System.currentTimeMillis() + readTimeout;
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(exchange, key);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(exchange);
+                        }
+                    } catch (IOException e) {
+                        fail(exchange, e);
+                    }
+                }
+
+                sweep(System.currentTimeMillis());
+            }
+
+            IOException error = new IOException("executor shut down");
+            for (Exchange exchange : active) {
+                notifyFailure(exchange, error);
+            }
+            for (Route route : routes.values()) {
+                for (Exchange exchange : route.waiting) {
+                    notifyFailure(exchange, error);
+                }
+            }
+            Exchange pending;
+            while ((pending = submissions.poll()) != null) {
+                notifyFailure(pending, error);
+            }
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly((SocketChannel) key.channel());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        private void dispatch(Exchange exchange) {
+            Route route = routes.get(exchange.key);
+            if (route == null) {
+                route = new Route(exchange.key);
+                routes.put(exchange.key, route);
+            }
+
+            if (!route.idle.isEmpty() || route.open < maxConnectionsPerHost) {
+                start(route, exchange);
+            } else {
+                exchange.deadline = System.currentTimeMillis() + connectTimeout + readTimeout;
+                route.waiting.add(exchange);
+            }
+        }
+
+        private void start(Route route, Exchange exchange) {
+            active.add(exchange);
+
+            SocketChannel channel;
+            while ((channel = route.idle.pollFirst()) != null) {
+                SelectionKey key = channel.keyFor(selector);
+                if (channel.isOpen() && key != null && key.isValid()) {
+                    exchange.channel = channel;
+                    exchange.reused = true;
+                    exchange.deadline = System.currentTimeMillis() + readTimeout;
+                    key.attach(exchange);
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                closeQuietly(channel);
+                route.open--;
+            }
+
+            exchange.reused = false;
+            exchange.channel = null;
+            try {
+                channel = SocketChannel.open();
+                // counted once it exists, fail() gives the count back when it closes the channel
+                route.open++;
+                exchange.channel = channel;
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                if (channel.connect(exchange.address)) {
+                    exchange.deadline = System.currentTimeMillis() + readTimeout;
+                    channel.register(selector, SelectionKey.OP_WRITE, exchange);
+                } else {
+                    exchange.deadline = System.currentTimeMillis() + connectTimeout;
+                    channel.register(selector, SelectionKey.OP_CONNECT, exchange);
+                }
+            } catch (IOException e) {
+                fail(exchange, e);
+            } catch (UnresolvedAddressException e) {
+                fail(exchange, new IOException("cannot resolve " + exchange.key, e));
+            }
+        }
+
+        private void write(Exchange exchange, SelectionKey key) throws IOException {
+            exchange.channel.write(exchange.request);
+            if (!exchange.request.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            exchange.deadline = System.currentTimeMillis() + readTimeout;
+        }
+
+        private void read(Exchange exchange) throws IOException {
+            boolean closed = false;
+            while (true) {
+                readBuffer.clear();
+                int count = exchange.channel.read(readBuffer);
+
+                if (count < 0) {
+                    closed = true;
+                    break;
+                }
+                if (count == 0) {
+                    break;
+                }
+
+                readBuffer.flip();
+                exchange.append(readBuffer);
+            }
+
+            exchange.deadline = System.currentTimeMillis() + readTimeout;
+
+            // the last bytes and the end of the stream often arrive together
+            byte[] body = parse(exchange);
+            if (body == null && closed && exchange.headerEnd >= 0 && !exchange.chunked && exchange.contentLength < 0) {
+                // body delimited by the end of the stream
+                body = Arrays.copyOfRange(exchange.in, exchange.headerEnd, exchange.inLength);
+            }
+            if (body != null) {
+                if (closed) {
+                    exchange.keepAlive = false;
+                }
+                complete(exchange, body);
+            } else if (closed) {
+                throw new IOException("connection closed before the response was complete");
+            }
+        }
+
+        /**
+         * Returns the body once the whole response has arrived, null while more data is needed.
+         */
+        private byte[] parse(Exchange exchange) throws IOException {
+            while (exchange.headerEnd < 0) {
+                int end = indexOfHeaderEnd(exchange.in, exchange.inLength);
+                if (end < 0) {
+                    return null;
+                }
+
+                String[] lines = new String(exchange.in, 0, end, ASCII).split("\r\n");
+                String[] status = lines[0].split(" ", 3);
+                if (status.length < 2) {
+                    throw new IOException("malformed status line: " + lines[0]);
+                }
+                try {
+                    exchange.code = Integer.parseInt(status[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("malformed status line: " + lines[0]);
+                }
+
+                if (exchange.code >= 100 && exchange.code < 200) {
+                    // skip interim responses such as 100 Continue
+                    System.arraycopy(exchange.in, end + 4, exchange.in, 0, exchange.inLength - end - 4);
+                    exchange.inLength -= end + 4;
+                    continue;
+                }
+
+                Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon > 0) {
+                        headers.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+                    }
+                }
+
+                String connection = headers.get("Connection");
+                exchange.keepAlive = lines[0].startsWith("HTTP/1.1")
+                        ? !"close".equalsIgnoreCase(connection)
+                        : "keep-alive".equalsIgnoreCase(connection);
+
+                String transferEncoding = headers.get("Transfer-Encoding");
+                exchange.chunked = transferEncoding != null && transferEncoding.toLowerCase().contains("chunked");
+
+                String contentLength = headers.get("Content-Length");
+                if (contentLength != null) {
+                    try {
+                        exchange.contentLength = Integer.parseInt(contentLength.trim());
+                    } catch (NumberFormatException e) {
+                        throw new IOException("malformed Content-Length: " + contentLength);
+                    }
+                }
+                if (exchange.code == 204 || exchange.code == 304) {
+                    exchange.chunked = false;
+                    exchange.contentLength = 0;
+                } else if (!exchange.expectBody && !exchange.chunked && exchange.contentLength < 0) {
+                    // an unframed response that should have no body, a framed one is still
+                    // read to the end so its bytes don't stay on a socket that is reused
+                    exchange.contentLength = 0;
+                }
+
+                exchange.headers = headers;
+                exchange.headerEnd = end + 4;
+            }
+
+            if (exchange.chunked) {
+                return parseChunked(exchange);
+            }
+            if (exchange.contentLength >= 0) {
+                if (exchange.inLength - exchange.headerEnd < exchange.contentLength) {
+                    return null;
+                }
+                return Arrays.copyOfRange(exchange.in, exchange.headerEnd, exchange.headerEnd + exchange.contentLength);
+            }
+            return null;
+        }
+
+        private byte[] parseChunked(Exchange exchange) throws IOException {
+            byte[] in = exchange.in;
+            int position = exchange.headerEnd;
+            int bodyLength = 0;
+
+            // first pass only checks that the last chunk has arrived
+            while (true) {
+                int lineEnd = indexOfLineEnd(in, position, exchange.inLength);
+                if (lineEnd < 0) {
+                    return null;
+                }
+                int size = chunkSize(in, position, lineEnd);
+                position = lineEnd + 2;
+
+                if (size == 0) {
+                    // trailers end with an empty line
+                    while (true) {
+                        int trailerEnd = indexOfLineEnd(in, position, exchange.inLength);
+                        if (trailerEnd < 0) {
+                            return null;
+                        }
+                        boolean empty = trailerEnd == position;
+                        position = trailerEnd + 2;
+                        if (empty) {
+                            break;
+                        }
+                    }
+                    break;
+                }
+                if (exchange.inLength < (long) position + size + 2) {
+                    return null;
+                }
+                position += size + 2;
+                bodyLength += size;
+            }
+
+            byte[] body = new byte[bodyLength];
+            int offset = 0;
+            position = exchange.headerEnd;
+            while (offset < bodyLength) {
+                int lineEnd = indexOfLineEnd(in, position, exchange.inLength);
+                int size = chunkSize(in, position, lineEnd);
+                System.arraycopy(in, lineEnd + 2, body, offset, size);
+                offset += size;
+                position = lineEnd + 2 + size + 2;
+            }
+            return body;
+        }
+
+        private void complete(Exchange exchange, byte[] body) {
+            if (!active.remove(exchange)) {
+                return;
+            }
+
+            Route route = routes.get(exchange.key);
+            if (exchange.keepAlive) {
+                release(route, exchange.channel);
+            } else {
+                closeChannel(route, exchange.channel);
+            }
+
+            notifyResponse(exchange, body);
+        }
+
+        private void fail(Exchange exchange, IOException error) {
+            if (!active.remove(exchange)) {
+                return;
+            }
+
+            Route route = routes.get(exchange.key);
+            if (exchange.channel != null) {
+                closeChannel(route, exchange.channel);
+                exchange.channel = null;
+            } else if (route != null && route.open <= 0 && route.idle.isEmpty() && route.waiting.isEmpty()) {
+                routes.remove(route.key);
+            }
+
+            // the device may have dropped the keep-alive socket just before we reused it. Only
+            // replay what is safe to send twice, or what the device can't have seen at all
+            if (running && exchange.reused && !exchange.retried && exchange.inLength == 0
+                    && (exchange.idempotent || exchange.request.position() == 0)) {
+                exchange.retried = true;
+                exchange.reset();
+                dispatch(exchange);
+                return;
+            }
+
+            notifyFailure(exchange, error);
+        }
+
+        /**
+         * Hands a kept-alive socket to the next queued request, or parks it as idle.
+         */
+        private void release(Route route, SocketChannel channel) {
+            SelectionKey key = channel.keyFor(selector);
+            if (keepAliveDuration <= 0 || route.idle.size() >= MAX_IDLE_PER_HOST || key == null || !key.isValid()) {
+                closeChannel(route, channel);
+                return;
+            }
+
+            key.attach(new IdleChannel(route, System.currentTimeMillis()));
+            key.interestOps(SelectionKey.OP_READ);
+            route.idle.addFirst(channel);
+
+            Exchange next = route.waiting.pollFirst();
+            if (next != null) {
+                start(route, next);
+            }
+        }
+
+        private void closeChannel(Route route, SocketChannel channel) {
+            closeQuietly(channel);
+            route.open--;
+
+            Exchange next = route.waiting.pollFirst();
+            if (next != null) {
+                start(route, next);
+            } else if (route.open <= 0 && route.idle.isEmpty()) {
+                routes.remove(route.key);
+            }
+        }
+
+        private void notifyResponse(Exchange exchange, byte[] body) {
+            inFlight.decrementAndGet();
+
+            try {
+                exchange.callback.onResponse(exchange.code, exchange.headers, body);
+            } catch (RuntimeException e) {
+                Log.e(Util.T, "HTTP callback failed", e);
+            }
+        }
+
+        private void notifyFailure(Exchange exchange, IOException error) {
+            inFlight.decrementAndGet();
+
+            try {
+                exchange.callback.onFailure(error);
+            } catch (RuntimeException e) {
+                Log.e(Util.T, "HTTP callback failed", e);
+            }
+        }
+
+        private void sweep(long now) {
+            if (!active.isEmpty()) {
+                for (Exchange exchange : new ArrayList<>(active)) {
+                    if (now >= exchange.deadline) {
+                        exchange.retried = true;
+                        fail(exchange, new IOException("request to " + exchange.key + " timed out"));
+                    }
+                }
+            }
+
+            for (Route route : new ArrayList<>(routes.values())) {
+                Iterator<Exchange> waiting = route.waiting.iterator();
+                while (waiting.hasNext()) {
+                    Exchange exchange = waiting.next();
+                    if (now >= exchange.deadline) {
+                        waiting.remove();
+                        notifyFailure(exchange, new IOException("timed out waiting for a connection to " + route.key));
+                    }
+                }
+
+                Iterator<SocketChannel> idle = route.idle.iterator();
+                while (idle.hasNext()) {
+                    SocketChannel channel = idle.next();
+                    SelectionKey key = channel.keyFor(selector);
+                    if (key == null || now - ((IdleChannel) key.attachment()).since >= keepAliveDuration) {
+                        idle.remove();
+                        closeChannel(route, channel);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * POST and SUBSCRIBE without a SID change state on the device, sending them twice could
+     * skip a track or leave a second subscription behind.
+     */
+    private static boolean isIdempotent(byte[] request) {
+        int end = 0;
+        while (end < request.length && request[end] != ' ') {
+            end++;
+        }
+        String method = new String(request, 0, end, ASCII);
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method)
+                || "DELETE".equals(method) || "OPTIONS".equals(method) || "UNSUBSCRIBE".equals(method);
+    }
+
+    private static int indexOfHeaderEnd(byte[] data, int length) {
+        for (int i = 0; i + 3 < length; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfLineEnd(byte[] data, int from, int length) {
+        for (int i = from; i + 1 < length; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int chunkSize(byte[] data, int from, int to) throws IOException {
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(data[i], 16);
+            if (digit < 0) {
+                if (data[i] == ';' || data[i] == ' ') {
+                    break;
+                }
+                throw new IOException("malformed chunk size");
+            }
+            if (size > (Integer.MAX_VALUE >> 4)) {
+                throw new IOException("chunk size too large");
+            }
+            size = size * 16 + digit;
+        }
+        return size;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
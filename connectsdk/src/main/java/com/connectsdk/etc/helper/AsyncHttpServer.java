@@ -0,0 +1,683 @@
+/*
+ * AsyncHttpServer
+ * Connect SDK
+ *
+ * Copyright (c) 2015 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.connectsdk.etc.helper;
+
+import android.util.Log;
+
+import com.connectsdk.core.Util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Selector driven HTTP/1.1 server for the event callbacks devices send to us. One thread
+ * accepts and serves every connection, so a device sending a large or slow request no longer
+ * holds up the others. Requests are parsed as bytes arrive; the body is framed by
+ * Content-Length or chunked transfer coding. A request with neither has no body, unless the
+ * devices are known to send an unframed body ending with a given marker, see
+ * {@link #setUnframedBodyEnd(String)}.
+ * Each connection serves a single request and is closed once the response is written.
+ * The handler is invoked on the I/O thread and must not block.
+ */
+public class AsyncHttpServer {
+
+    public static final int DEFAULT_READ_TIMEOUT = 10000;
+    public static final int DEFAULT_MAX_HEADER_SIZE = 8 * 1024;
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /* RFC 1123 dates only change once a second, so the last one is kept */
+    private static final SimpleDateFormat HTTP_DATE_FORMAT = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    private static long httpDateSecond = -1;
+    private static String httpDate;
+
+    static {
+        HTTP_DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
+    public interface Handler {
+        /**
+         * Called once a whole request has arrived.
+         *
+         * @return the response to send, or null for an empty 200 OK
+         */
+        Response handle(Request request);
+    }
+
+    public static final class Request {
+        private final String method;
+        private final String path;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final SocketAddress remoteAddress;
+
+        Request(String method, String path, Map<String, String> headers, byte[] body, SocketAddress remoteAddress) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+            this.remoteAddress = remoteAddress;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the headers, with case insensitive names
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public SocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+    }
+
+    public static final class Response {
+        private final int code;
+        private final String reason;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private byte[] body;
+
+        public Response(int code, String reason) {
+            this.code = code;
+            this.reason = reason;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public Response setHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response setBody(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        byte[] toBytes() {
+            int length = body != null ? body.length : 0;
+            StringBuilder sb = new StringBuilder(128);
+            sb.append("HTTP/1.1 ").append(code).append(' ').append(reason).append("\r\n");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            sb.append("Connection: close\r\n");
+            sb.append("Content-Length: ").append(length).append("\r\n\r\n");
+
+            byte[] head = sb.toString().getBytes(ASCII);
+            if (length == 0) {
+                return head;
+            }
+            byte[] bytes = Arrays.copyOf(head, head.length + length);
+            System.arraycopy(body, 0, bytes, head.length, length);
+            return bytes;
+        }
+    }
+
+    private final int port;
+    private final Handler handler;
+
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile int maxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+    private volatile int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+    private volatile byte[] unframedBodyEnd;
+
+    private IoThread thread;
+
+    public AsyncHttpServer(int port, Handler handler) {
+        this.port = port;
+        this.handler = handler;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Connections that stay silent this long before their request is complete are dropped.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * For devices that send a body without Content-Length or chunked coding: such a body ends
+     * right after the first occurrence of the marker, or when the device closes its side.
+     * By default a request without framing has no body.
+     */
+    public void setUnframedBodyEnd(String marker) {
+        this.unframedBodyEnd = marker != null && !marker.isEmpty() ? marker.getBytes(ASCII) : null;
+    }
+
+    /**
+     * @return the given time formatted for a Date header, as in RFC 1123
+     */
+    public static String httpDate(long millis) {
+        long second = millis / 1000;
+        synchronized (HTTP_DATE_FORMAT) {
+            if (second != httpDateSecond) {
+                httpDate = HTTP_DATE_FORMAT.format(second * 1000);
+                httpDateSecond = second;
+            }
+            return httpDate;
+        }
+    }
+
+    /**
+     * Binds the port and starts serving. Does nothing if the server is already running.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            thread = new IoThread("HTTP Server " + port, serverChannel);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.shutdown();
+            thread = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final SocketAddress remoteAddress;
+        long deadline;
+
+        byte[] in = new byte[2048];
+        int inLength;
+
+        /* where the search for the end of the headers, then of an unframed body, resumes */
+        int scanned;
+        int headerEnd = -1;
+        String method;
+        String path;
+        Map<String, String> headers;
+        boolean chunked;
+        boolean framed;
+        int contentLength;
+
+        /* chunked coding: start of the next chunk and the body decoded so far */
+        int chunkPosition;
+        byte[] body;
+        int bodyLength;
+
+        ByteBuffer out;
+
+        Connection(SocketChannel channel, SocketAddress remoteAddress) {
+            this.channel = channel;
+            this.remoteAddress = remoteAddress;
+        }
+
+        void append(ByteBuffer data) {
+            int count = data.remaining();
+            if (inLength + count > in.length) {
+                in = Arrays.copyOf(in, Math.max(in.length * 2, inLength + count));
+            }
+            data.get(in, inLength, count);
+            inLength += count;
+        }
+
+        void appendBody(int from, int count) {
+            if (bodyLength + count > body.length) {
+                body = Arrays.copyOf(body, Math.max(body.length * 2, bodyLength + count));
+            }
+            System.arraycopy(in, from, body, bodyLength, count);
+            bodyLength += count;
+        }
+    }
+
+    /**
+     * Thrown while parsing a request that cannot be served; the connection is answered with
+     * the given status and closed.
+     */
+    private static final class RequestException extends Exception {
+        final int code;
+        final String reason;
+
+        RequestException(int code, String reason) {
+            super(reason);
+            this.code = code;
+            this.reason = reason;
+        }
+    }
+
+    private final class IoThread extends Thread {
+        private final Selector selector;
+        private final ServerSocketChannel serverChannel;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+        private volatile boolean running = true;
+
+        IoThread(String name, ServerSocketChannel serverChannel) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.serverChannel = serverChannel;
+            selector = Selector.open();
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(1000);
+                } catch (IOException e) {
+                    Log.e(Util.T, "HTTP server selector failed", e);
+                    break;
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection, key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection, key);
+                        }
+                    } catch (IOException e) {
+                        close(connection);
+                    } catch (RuntimeException e) {
+                        // a malformed request must not take the server down for everyone else
+                        Log.e(Util.T, "HTTP server dropped a connection", e);
+                        close(connection);
+                    }
+                }
+
+                sweep(System.currentTimeMillis());
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        private void accept() {
+            SocketChannel channel;
+            try {
+                while ((channel = serverChannel.accept()) != null) {
+                    try {
+                        channel.configureBlocking(false);
+                        Connection connection = new Connection(channel, channel.socket().getRemoteSocketAddress());
+                        connection.deadline = System.currentTimeMillis() + readTimeout;
+                        channel.register(selector, SelectionKey.OP_READ, connection);
+                    } catch (IOException e) {
+                        closeQuietly(channel);
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(Util.T, "HTTP server accept failed", e);
+            }
+        }
+
+        private void read(Connection connection, SelectionKey key) throws IOException {
+            boolean closed = false;
+            while (true) {
+                readBuffer.clear();
+                int count = connection.channel.read(readBuffer);
+                if (count < 0) {
+                    closed = true;
+                    break;
+                }
+                if (count == 0) {
+                    break;
+                }
+                readBuffer.flip();
+                connection.append(readBuffer);
+            }
+            connection.deadline = System.currentTimeMillis() + readTimeout;
+
+            Response response;
+            try {
+                byte[] body = parse(connection, closed);
+                if (body == null) {
+                    if (closed) {
+                        close(connection);
+                    }
+                    return;
+                }
+                response = handle(connection, body);
+            } catch (RequestException e) {
+                response = new Response(e.code, e.reason);
+            }
+
+            connection.in = null;
+            connection.body = null;
+            connection.out = ByteBuffer.wrap(response.toBytes());
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private Response handle(Connection connection, byte[] body) {
+            Request request = new Request(connection.method, connection.path, connection.headers, body, connection.remoteAddress);
+            Response response;
+            try {
+                response = handler.handle(request);
+            } catch (RuntimeException e) {
+                Log.e(Util.T, "HTTP server handler failed", e);
+                response = new Response(500, "Internal Server Error");
+            }
+            return response != null ? response : new Response(200, "OK");
+        }
+
+        private void write(Connection connection, SelectionKey key) throws IOException {
+            connection.channel.write(connection.out);
+            if (!connection.out.hasRemaining()) {
+                close(connection);
+            }
+        }
+
+        /**
+         * Returns the body once the whole request has arrived, null while more data is needed.
+         */
+        private byte[] parse(Connection connection, boolean closed) throws RequestException {
+            if (connection.headerEnd < 0) {
+                int end = indexOfHeaderEnd(connection.in, Math.max(0, connection.scanned - 3), connection.inLength);
+                if (end < 0) {
+                    if (connection.inLength > maxHeaderSize) {
+                        throw new RequestException(431, "Request Header Fields Too Large");
+                    }
+                    connection.scanned = connection.inLength;
+                    return null;
+                }
+                parseHeaders(connection, end);
+                connection.scanned = connection.headerEnd;
+            }
+
+            if (connection.chunked) {
+                return parseChunked(connection);
+            }
+            byte[] marker = unframedBodyEnd;
+            if (!connection.framed && marker != null) {
+                return parseUnframed(connection, marker, closed);
+            }
+            if (connection.inLength - connection.headerEnd < connection.contentLength) {
+                return null;
+            }
+            return Arrays.copyOfRange(connection.in, connection.headerEnd, connection.headerEnd + connection.contentLength);
+        }
+
+        private void parseHeaders(Connection connection, int end) throws RequestException {
+            String[] lines = new String(connection.in, 0, end, ASCII).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+                throw new RequestException(400, "Bad Request");
+            }
+
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+                }
+            }
+
+            String transferEncoding = headers.get("Transfer-Encoding");
+            connection.chunked = transferEncoding != null && transferEncoding.toLowerCase().contains("chunked");
+
+            String contentLength = headers.get("Content-Length");
+            connection.framed = connection.chunked || contentLength != null;
+            if (!connection.chunked && contentLength != null) {
+                try {
+                    connection.contentLength = Integer.parseInt(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new RequestException(400, "Bad Request");
+                }
+                if (connection.contentLength < 0) {
+                    throw new RequestException(400, "Bad Request");
+                }
+                if (connection.contentLength > maxBodySize) {
+                    throw new RequestException(413, "Payload Too Large");
+                }
+            }
+
+            connection.method = requestLine[0];
+            connection.path = requestLine[1];
+            connection.headers = Collections.unmodifiableMap(headers);
+            connection.headerEnd = end + 4;
+            if (connection.chunked) {
+                connection.chunkPosition = connection.headerEnd;
+                connection.body = new byte[1024];
+            }
+        }
+
+        private byte[] parseUnframed(Connection connection, byte[] marker, boolean closed) throws RequestException {
+            int from = Math.max(connection.headerEnd, connection.scanned - marker.length + 1);
+            int end = indexOf(connection.in, marker, from, connection.inLength);
+            if (end < 0 && !closed) {
+                if (connection.inLength - connection.headerEnd > maxBodySize) {
+                    throw new RequestException(413, "Payload Too Large");
+                }
+                connection.scanned = connection.inLength;
+                return null;
+            }
+            int bodyEnd = end < 0 ? connection.inLength : end + marker.length;
+            return Arrays.copyOfRange(connection.in, connection.headerEnd, bodyEnd);
+        }
+
+        /**
+         * Decodes the chunks that have arrived completely, resuming after the last one.
+         */
+        private byte[] parseChunked(Connection connection) throws RequestException {
+            byte[] in = connection.in;
+            int position = connection.chunkPosition;
+            while (true) {
+                int lineEnd = indexOfLineEnd(in, position, connection.inLength);
+                if (lineEnd < 0) {
+                    if (connection.inLength - position > maxHeaderSize) {
+                        throw new RequestException(400, "Bad Request");
+                    }
+                    return null;
+                }
+                int size = chunkSize(in, position, lineEnd);
+
+                if (size == 0) {
+                    // trailers end with an empty line
+                    int trailer = lineEnd + 2;
+                    while (true) {
+                        int trailerEnd = indexOfLineEnd(in, trailer, connection.inLength);
+                        if (trailerEnd < 0) {
+                            if (connection.inLength - (lineEnd + 2) > maxHeaderSize) {
+                                throw new RequestException(431, "Request Header Fields Too Large");
+                            }
+                            return null;
+                        }
+                        boolean empty = trailerEnd == trailer;
+                        trailer = trailerEnd + 2;
+                        if (empty) {
+                            return Arrays.copyOf(connection.body, connection.bodyLength);
+                        }
+                    }
+                }
+                // written so that a huge chunk size cannot overflow
+                if (size > maxBodySize - connection.bodyLength) {
+                    throw new RequestException(413, "Payload Too Large");
+                }
+                long chunkEnd = (long) lineEnd + 2 + size + 2;
+                if (connection.inLength < chunkEnd) {
+                    return null;
+                }
+                connection.appendBody(lineEnd + 2, size);
+                position = (int) chunkEnd;
+                connection.chunkPosition = position;
+            }
+        }
+
+        private void close(Connection connection) {
+            SelectionKey key = connection.channel.keyFor(selector);
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(connection.channel);
+        }
+
+        private void sweep(long now) {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Connection && now >= ((Connection) attachment).deadline) {
+                    close((Connection) attachment);
+                }
+            }
+        }
+    }
+
+    private static int indexOfHeaderEnd(byte[] data, int from, int length) {
+        for (int i = from; i + 3 < length; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from, int length) {
+        outer:
+        for (int i = from; i + pattern.length <= length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static int indexOfLineEnd(byte[] data, int from, int length) {
+        for (int i = from; i + 1 < length; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int chunkSize(byte[] data, int from, int to) throws RequestException {
+        int size = 0;
+        boolean digits = false;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(data[i], 16);
+            if (digit < 0) {
+                // chunk extensions and whitespace
+                break;
+            }
+            if (size > (Integer.MAX_VALUE >> 4)) {
+                throw new RequestException(413, "Payload Too Large");
+            }
+            size = size * 16 + digit;
+            digits = true;
+        }
+        if (!digits) {
+            throw new RequestException(400, "Bad Request");
+        }
+        return size;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -19,6 +19,8 @@
  */
 package com.connectsdk.etc.helper;
 
+import com.connectsdk.core.Util;
+
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -29,9 +31,12 @@ import java.net.HttpURLConnection;
 import java.net.ProtocolException;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * HTTP connection implementation based on this article
@@ -48,6 +53,17 @@ public abstract class HttpConnection {
         return new CustomConnectionClient(uri);
     }
 
+    /**
+     * Creates a connection that is served by the default {@link AsyncHttpExecutor}, so no thread
+     * is blocked while waiting for the device in {@link #executeAsync(ResponseCallback)} and
+     * consecutive commands to the same device reuse a keep-alive socket instead of paying for a
+     * new TCP handshake. {@link #execute()} works too and waits for the response. Any method is
+     * supported, including SUBSCRIBE/UNSUBSCRIBE.
+     */
+    public static HttpConnection newAsyncInstance(URI uri) {
+        return new AsyncConnectionClient(uri, AsyncHttpExecutor.getDefault());
+    }
+
     public abstract void setMethod(Method method) throws ProtocolException;
 
     public abstract int getResponseCode() throws IOException;
@@ -64,6 +80,32 @@ public abstract class HttpConnection {
 
     public abstract String getResponseHeader(String name);
 
+    /**
+     * Executes the request without blocking the caller. Connections that can't do
+     * non-blocking I/O run {@link #execute()} on a background thread instead.
+     * The callback may be invoked on an I/O thread and should hand off any long work.
+     */
+    public void executeAsync(final ResponseCallback callback) {
+        Util.runInBackground(() -> {
+            int code;
+            String response;
+            try {
+                execute();
+                code = getResponseCode();
+                response = getResponseString();
+            } catch (IOException e) {
+                callback.onFailure(e);
+                return;
+            }
+            callback.onComplete(code, response, HttpConnection.this);
+        }, true);
+    }
+
+    public interface ResponseCallback {
+        void onComplete(int code, String response, HttpConnection connection);
+        void onFailure(IOException e);
+    }
+
     public enum Method {
         GET,
         POST,
@@ -268,4 +310,168 @@ public abstract class HttpConnection {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Base for the clients that write HTTP/1.1 requests themselves instead of going through
+     * HttpURLConnection.
+     */
+    private abstract static class RawConnectionClient extends HttpConnection {
+
+        static final Charset UTF8 = Charset.forName("UTF-8");
+
+        final URI uri;
+        Method method = Method.GET;
+        byte[] payload;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        int code;
+        String response;
+        final Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        RawConnectionClient(URI uri) {
+            this.uri = uri;
+        }
+
+        int getPort() {
+            return uri.getPort() > 0 ? uri.getPort() : 80;
+        }
+
+        void setResponse(int code, Map<String, String> headers, byte[] body) {
+            this.code = code;
+            this.response = new String(body, UTF8);
+            this.responseHeaders.putAll(headers);
+        }
+
+        byte[] buildRequest() {
+            String path = uri.getRawPath();
+            if (path == null || path.isEmpty()) {
+                path = "/";
+            }
+            String query = uri.getRawQuery();
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(method.name()).append(' ').append(path);
+            if (query != null && !query.isEmpty()) {
+                sb.append('?').append(query);
+            }
+            sb.append(" HTTP/1.1\r\n");
+
+            sb.append("Host: ").append(uri.getHost()).append(':').append(getPort()).append("\r\n");
+
+            for (Map.Entry<String, String> pair : headers.entrySet()) {
+                sb.append(pair.getKey()).append(": ").append(pair.getValue()).append("\r\n");
+            }
+            if (!headers.containsKey("Connection")) {
+                sb.append("Connection: keep-alive\r\n");
+            }
+            if (payload != null || method == Method.POST || method == Method.PUT) {
+                sb.append("Content-Length: ").append(payload != null ? payload.length : 0).append("\r\n");
+            }
+            sb.append("\r\n");
+
+            byte[] head = sb.toString().getBytes(UTF8);
+            if (payload == null) {
+                return head;
+            }
+
+            byte[] request = new byte[head.length + payload.length];
+            System.arraycopy(head, 0, request, 0, head.length);
+            System.arraycopy(payload, 0, request, head.length, payload.length);
+            return request;
+        }
+
+        @Override
+        public void setMethod(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return code;
+        }
+
+        @Override
+        public String getResponseString() {
+            return response;
+        }
+
+        @Override
+        public void setPayload(String payload) {
+            this.payload = payload.getBytes(UTF8);
+        }
+
+        @Override
+        public void setPayload(byte[] payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (name != null && value != null) {
+                this.headers.put(name.trim(), value.trim());
+            }
+        }
+
+        @Override
+        public String getResponseHeader(String name) {
+            return responseHeaders.get(name);
+        }
+    }
+
+    private static class AsyncConnectionClient extends RawConnectionClient {
+
+        private final AsyncHttpExecutor executor;
+
+        private AsyncConnectionClient(URI uri, AsyncHttpExecutor executor) {
+            super(uri);
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute() throws IOException {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final IOException[] failure = new IOException[1];
+
+            executeAsync(new ResponseCallback() {
+                @Override
+                public void onComplete(int code, String response, HttpConnection connection) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    failure[0] = e;
+                    latch.countDown();
+                }
+            });
+
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for a response");
+            }
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+
+        @Override
+        public void executeAsync(final ResponseCallback callback) {
+            // GENA responses carry no body, some renderers don't send a Content-Length for them either
+            boolean expectBody = method != Method.SUBSCRIBE && method != Method.UNSUBSCRIBE;
+
+            executor.execute(uri.getHost(), getPort(), buildRequest(), expectBody, new AsyncHttpExecutor.Callback() {
+                @Override
+                public void onResponse(int code, Map<String, String> headers, byte[] body) {
+                    setResponse(code, headers, body);
+                    callback.onComplete(AsyncConnectionClient.this.code, response, AsyncConnectionClient.this);
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    callback.onFailure(e);
+                }
+            });
+        }
+    }
+
+}
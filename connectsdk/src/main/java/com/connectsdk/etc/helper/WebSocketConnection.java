@@ -0,0 +1,762 @@
+/*
+ * WebSocketConnection
+ * Connect SDK
+ *
+ * Copyright (c) 2014 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.connectsdk.etc.helper;
+
+import android.util.Base64;
+import android.util.Log;
+
+import com.connectsdk.core.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+/**
+ * Minimal RFC 6455 WebSocket client running on a non-blocking SocketChannel.
+ * TLS (wss://) is handled by an SSLEngine, so no third party WebSocket library is needed.
+ * All socket I/O happens on a single thread per connection, while send() may be called
+ * from any thread; outgoing frames are queued and written as soon as the socket allows,
+ * which keeps any number of requests in flight over the same connection.
+ */
+public class WebSocketConnection implements Runnable {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    public static final int CLOSE_NORMAL = 1000;
+    public static final int CLOSE_ABNORMAL = 1006;
+
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int CLOSE_TIMEOUT = 2000;
+
+    public enum State {
+        NONE,
+        CONNECTING,
+        OPEN,
+        CLOSING,
+        CLOSED
+    }
+
+    public interface WebSocketListener {
+        void onOpen(WebSocketConnection connection);
+        void onMessage(WebSocketConnection connection, String message);
+        void onClose(WebSocketConnection connection, int code, String reason, boolean remote);
+        void onError(WebSocketConnection connection, Exception ex);
+    }
+
+    private final URI uri;
+    private final SSLContext sslContext;
+    private final WebSocketListener listener;
+    private final Queue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private volatile State state = State.NONE;
+
+    private SocketChannel channel;
+    private Selector selector;
+    private SSLEngine engine;
+    private Thread thread;
+
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private ByteBuffer upgradeRequest;
+    private String secWebSocketKey;
+
+    private ByteArrayOutputStream fragments;
+    private int fragmentOpcode;
+
+    private ByteBuffer closeFrame;
+    private boolean closeSent;
+    private long deadline;
+
+    public WebSocketConnection(URI uri, SSLContext sslContext, WebSocketListener listener) {
+        this.uri = uri;
+        this.sslContext = sslContext;
+        this.listener = listener;
+    }
+
+    public URI getURI() {
+        return uri;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    public synchronized void connect() {
+        if (state != State.NONE) {
+            return;
+        }
+        state = State.CONNECTING;
+
+        thread = new Thread(this, "WebSocket " + uri.getHost());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a text message. Messages may be sent while previous ones are still waiting
+     * for a response; they are written back to back on the same connection.
+     */
+    public boolean send(String message) {
+        if (state != State.OPEN) {
+            return false;
+        }
+        enqueue(encodeFrame(OPCODE_TEXT, message.getBytes(UTF8)));
+        return true;
+    }
+
+    public void close() {
+        close(CLOSE_NORMAL, null);
+    }
+
+    public void close(int code, String reason) {
+        synchronized (this) {
+            if (state == State.NONE || state == State.CONNECTING) {
+                state = State.CLOSED;
+                if (selector != null) {
+                    selector.wakeup();
+                }
+                return;
+            }
+            if (state != State.OPEN) {
+                return;
+            }
+            state = State.CLOSING;
+            closeFrame = encodeCloseFrame(code, reason);
+        }
+        enqueue(closeFrame);
+    }
+
+    @Override
+    public void run() {
+        int closeCode = CLOSE_ABNORMAL;
+        String closeReason = null;
+        boolean remote = true;
+
+        try {
+            open();
+
+            while (state != State.CLOSED) {
+                long timeout = deadline > 0 ? Math.max(1, deadline - System.currentTimeMillis()) : 0;
+                selector.select(timeout);
+
+                if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+                    if (state == State.CLOSING) {
+                        remote = false;
+                        break;
+                    }
+                    throw new IOException("WebSocket connect timed out");
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isConnectable() && channel.finishConnect()) {
+                        onTransportConnected();
+                    }
+                    if (key.isReadable() && channel.read(netIn) < 0) {
+                        throw new IOException("connection closed by peer");
+                    }
+                }
+
+                if (channel.isConnected()) {
+                    pump();
+                }
+            }
+
+            if (closeSent) {
+                closeCode = CLOSE_NORMAL;
+            }
+        } catch (CloseFrameReceived frame) {
+            closeCode = frame.code;
+            closeReason = frame.reason;
+        } catch (Exception ex) {
+            State previous = state;
+            state = State.CLOSED;
+            shutdown();
+            if (previous != State.CLOSED && listener != null) {
+                listener.onError(this, ex);
+            }
+            return;
+        }
+
+        State previous = state;
+        state = State.CLOSED;
+        shutdown();
+
+        if (previous != State.NONE && listener != null) {
+            listener.onClose(this, closeCode, closeReason, remote);
+        }
+    }
+
+    private void open() throws IOException {
+        int port = uri.getPort();
+        boolean secure = "wss".equalsIgnoreCase(uri.getScheme());
+        if (port <= 0) {
+            port = secure ? 443 : 80;
+        }
+
+        selector = Selector.open();
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setKeepAlive(true);
+
+        if (secure) {
+            if (sslContext == null) {
+                throw new IOException("wss:// requires an SSLContext");
+            }
+            engine = sslContext.createSSLEngine(uri.getHost(), port);
+            engine.setUseClientMode(true);
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            appIn = ByteBuffer.allocate(Math.max(DEFAULT_BUFFER_SIZE, engine.getSession().getApplicationBufferSize()));
+        } else {
+            netIn = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+            netOut = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+            appIn = netIn;
+        }
+
+        deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+
+        if (channel.connect(new InetSocketAddress(uri.getHost(), port))) {
+            channel.register(selector, SelectionKey.OP_READ);
+            onTransportConnected();
+            pump();
+        } else {
+            channel.register(selector, SelectionKey.OP_CONNECT);
+        }
+    }
+
+    private void onTransportConnected() throws IOException {
+        channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+
+        if (engine != null) {
+            engine.beginHandshake();
+        }
+
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        secWebSocketKey = Base64.encodeToString(nonce, Base64.NO_WRAP);
+
+        String path = uri.getRawPath();
+        if (path == null || path.isEmpty()) {
+            path = "/";
+        }
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+
+        String host = uri.getHost();
+        if (uri.getPort() > 0) {
+            host += ":" + uri.getPort();
+        }
+
+        String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + secWebSocketKey + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + "\r\n";
+        upgradeRequest = ByteBuffer.wrap(request.getBytes(ASCII));
+    }
+
+    /**
+     * Moves data through the TLS engine in both directions, writes whatever is pending
+     * and dispatches every complete inbound message.
+     */
+    private void pump() throws IOException {
+        if (engine != null) {
+            boolean progress = true;
+            while (progress) {
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        runDelegatedTasks();
+                        break;
+                    case NEED_WRAP:
+                        progress = wrap(ByteBuffer.allocate(0));
+                        break;
+                    default:
+                        progress = unwrap();
+                        break;
+                }
+            }
+        }
+
+        if (isHandshakeComplete()) {
+            if (upgradeRequest != null && upgradeRequest.hasRemaining()) {
+                write(upgradeRequest);
+            }
+
+            if (state == State.OPEN || state == State.CLOSING) {
+                ByteBuffer frame;
+                while ((frame = outgoing.peek()) != null) {
+                    if (!write(frame)) {
+                        break;
+                    }
+                    outgoing.poll();
+
+                    if (frame == closeFrame) {
+                        closeSent = true;
+                        deadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+                    }
+                }
+            }
+        }
+
+        flush();
+        processInbound();
+    }
+
+    private boolean isHandshakeComplete() {
+        if (engine == null) {
+            return true;
+        }
+        HandshakeStatus status = engine.getHandshakeStatus();
+        return status == HandshakeStatus.NOT_HANDSHAKING || status == HandshakeStatus.FINISHED;
+    }
+
+    /**
+     * Copies (or encrypts) as much of the given plain text buffer into the network
+     * buffer as fits. Returns true once the buffer has been fully consumed.
+     */
+    private boolean write(ByteBuffer src) throws IOException {
+        if (engine == null) {
+            while (src.hasRemaining()) {
+                if (!netOut.hasRemaining()) {
+                    flush();
+                    if (!netOut.hasRemaining()) {
+                        return false;
+                    }
+                }
+                int count = Math.min(src.remaining(), netOut.remaining());
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + count);
+                netOut.put(slice);
+                src.position(src.position() + count);
+            }
+            return true;
+        }
+
+        while (src.hasRemaining()) {
+            if (!wrap(src)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean wrap(ByteBuffer src) throws IOException {
+        SSLEngineResult result = engine.wrap(src, netOut);
+
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                if (netOut.position() > 0) {
+                    flush();
+                    return netOut.position() == 0;
+                }
+                netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                return true;
+            case CLOSED:
+                throw new SSLException("TLS session closed");
+            default:
+                if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    private boolean unwrap() throws IOException {
+        netIn.flip();
+        SSLEngineResult result;
+        try {
+            result = engine.unwrap(netIn, appIn);
+        } finally {
+            netIn.compact();
+        }
+
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                return true;
+            case BUFFER_UNDERFLOW:
+                if (netIn.position() == netIn.capacity()) {
+                    netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                }
+                return false;
+            case CLOSED:
+                throw new IOException("TLS session closed by peer");
+            default:
+                if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private void flush() throws IOException {
+        netOut.flip();
+        try {
+            channel.write(netOut);
+        } finally {
+            netOut.compact();
+        }
+
+        SelectionKey key = channel.keyFor(selector);
+        if (netOut.position() > 0) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void processInbound() throws IOException {
+        appIn.flip();
+        try {
+            if (state == State.CONNECTING) {
+                if (!readUpgradeResponse()) {
+                    return;
+                }
+            }
+
+            while (readFrame()) {
+                // keep going until the buffer holds only a partial frame
+            }
+        } finally {
+            appIn.compact();
+        }
+    }
+
+    private boolean readUpgradeResponse() throws IOException {
+        int end = -1;
+        for (int i = appIn.position(); i + 3 < appIn.limit(); i++) {
+            if (appIn.get(i) == '\r' && appIn.get(i + 1) == '\n'
+                    && appIn.get(i + 2) == '\r' && appIn.get(i + 3) == '\n') {
+                end = i + 4;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (appIn.limit() == appIn.capacity()) {
+                throw new IOException("WebSocket upgrade response too large");
+            }
+            return false;
+        }
+
+        byte[] raw = new byte[end - appIn.position()];
+        appIn.get(raw);
+        String[] lines = new String(raw, ASCII).split("\r\n");
+
+        String[] status = lines[0].split(" ", 3);
+        if (status.length < 2 || !"101".equals(status[1])) {
+            throw new IOException("WebSocket upgrade failed: " + lines[0]);
+        }
+
+        String accept = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Accept")) {
+                accept = lines[i].substring(colon + 1).trim();
+            }
+        }
+        if (!expectedAccept(secWebSocketKey).equals(accept)) {
+            throw new IOException("WebSocket upgrade failed: invalid Sec-WebSocket-Accept");
+        }
+
+        upgradeRequest = null;
+        deadline = 0;
+        state = State.OPEN;
+        Log.d(Util.T, "WebSocket opened: " + uri);
+
+        if (listener != null) {
+            listener.onOpen(this);
+        }
+        return true;
+    }
+
+    private boolean readFrame() throws IOException {
+        int start = appIn.position();
+        int available = appIn.remaining();
+        if (available < 2) {
+            return false;
+        }
+
+        int b0 = appIn.get(start) & 0xFF;
+        int b1 = appIn.get(start + 1) & 0xFF;
+        boolean fin = (b0 & 0x80) != 0;
+        int opcode = b0 & 0x0F;
+        boolean masked = (b1 & 0x80) != 0;
+        long length = b1 & 0x7F;
+        int header = 2;
+
+        if (length == 126) {
+            if (available < 4) {
+                return false;
+            }
+            length = appIn.getShort(start + 2) & 0xFFFF;
+            header = 4;
+        } else if (length == 127) {
+            if (available < 10) {
+                return false;
+            }
+            length = appIn.getLong(start + 2);
+            header = 10;
+        }
+        if (length < 0 || length > MAX_MESSAGE_SIZE) {
+            throw new IOException("WebSocket frame too large: " + length);
+        }
+
+        int maskOffset = header;
+        if (masked) {
+            header += 4;
+        }
+
+        int total = header + (int) length;
+        if (available < total) {
+            if (total > appIn.capacity()) {
+                appIn.compact();
+                appIn = enlarge(appIn, total);
+                if (engine == null) {
+                    netIn = appIn;
+                }
+                appIn.flip();
+            }
+            return false;
+        }
+
+        byte[] payload = new byte[(int) length];
+        appIn.position(start + header);
+        appIn.get(payload);
+
+        if (masked) {
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= appIn.get(start + maskOffset + (i & 3));
+            }
+        }
+
+        handleFrame(fin, opcode, payload);
+        return true;
+    }
+
+    private void handleFrame(boolean fin, int opcode, byte[] payload) throws IOException {
+        switch (opcode) {
+            case OPCODE_TEXT:
+            case OPCODE_BINARY:
+                if (fin) {
+                    dispatch(opcode, payload);
+                } else {
+                    fragmentOpcode = opcode;
+                    fragments = new ByteArrayOutputStream();
+                    fragments.write(payload);
+                }
+                break;
+            case OPCODE_CONTINUATION:
+                if (fragments == null) {
+                    throw new IOException("unexpected continuation frame");
+                }
+                fragments.write(payload);
+                if (fragments.size() > MAX_MESSAGE_SIZE) {
+                    throw new IOException("WebSocket message too large");
+                }
+                if (fin) {
+                    byte[] message = fragments.toByteArray();
+                    fragments = null;
+                    dispatch(fragmentOpcode, message);
+                }
+                break;
+            case OPCODE_PING:
+                enqueue(encodeFrame(OPCODE_PONG, payload));
+                break;
+            case OPCODE_PONG:
+                break;
+            case OPCODE_CLOSE:
+                int code = CLOSE_NORMAL;
+                String reason = null;
+                if (payload.length >= 2) {
+                    code = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+                    reason = new String(payload, 2, payload.length - 2, UTF8);
+                }
+                if (!closeSent) {
+                    state = State.CLOSING;
+                    closeSent = write(encodeCloseFrame(code, null));
+                    flush();
+                }
+                throw new CloseFrameReceived(code, reason);
+            default:
+                throw new IOException("unknown WebSocket opcode " + opcode);
+        }
+    }
+
+    private void dispatch(int opcode, byte[] payload) {
+        if (opcode != OPCODE_TEXT) {
+            Log.w(Util.T, "ignoring binary WebSocket message of " + payload.length + " bytes");
+            return;
+        }
+        if (listener != null) {
+            listener.onMessage(this, new String(payload, UTF8));
+        }
+    }
+
+    private void enqueue(ByteBuffer frame) {
+        outgoing.add(frame);
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    private ByteBuffer encodeCloseFrame(int code, String reason) {
+        byte[] text = reason != null ? reason.getBytes(UTF8) : new byte[0];
+        byte[] payload = new byte[2 + text.length];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, text.length);
+        return encodeFrame(OPCODE_CLOSE, payload);
+    }
+
+    /**
+     * Client to server frames are always masked (RFC 6455, section 5.3).
+     */
+    private ByteBuffer encodeFrame(int opcode, byte[] payload) {
+        int length = payload.length;
+        int header = length < 126 ? 2 : (length <= 0xFFFF ? 4 : 10);
+        ByteBuffer frame = ByteBuffer.allocate(header + 4 + length);
+
+        frame.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            frame.put((byte) (0x80 | length));
+        } else if (length <= 0xFFFF) {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) (0x80 | 127));
+            frame.putLong(length);
+        }
+
+        byte[] mask = new byte[4];
+        random.nextBytes(mask);
+        frame.put(mask);
+        for (int i = 0; i < length; i++) {
+            frame.put((byte) (payload[i] ^ mask[i & 3]));
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private void shutdown() {
+        try {
+            if (engine != null) {
+                engine.closeOutbound();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimum) {
+        int capacity = Math.max(buffer.capacity() * 2, minimum);
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static String expectedAccept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WEBSOCKET_GUID).getBytes(ASCII));
+            return Base64.encodeToString(digest, Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "WebSocketConnection[%s, %s]", uri, state);
+    }
+
+    private static class CloseFrameReceived extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+        final String reason;
+
+        CloseFrameReceived(int code, String reason) {
+            super("close frame received: " + code);
+            this.code = code;
+            this.reason = reason;
+        }
+    }
+}
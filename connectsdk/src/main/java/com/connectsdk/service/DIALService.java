@@ -379,38 +379,49 @@ public class DIALService extends DeviceService implements Launcher {
 
     @Override
     public void sendCommand(final ServiceCommand mCommand) {
-        Util.runInBackground(() -> {
-            Object payload = mCommand.getPayload();
+        getCommandScheduler().submit(mCommand);
+    }
 
-            try {
-                HttpConnection connection = createHttpConnection(mCommand.getTarget());
-                if (payload != null || mCommand.getHttpMethod().equalsIgnoreCase(ServiceCommand.TYPE_POST)) {
-                    connection.setMethod(HttpConnection.Method.POST);
-                    if (payload != null) {
-                        connection.setHeader(HttpMessage.CONTENT_TYPE_HEADER, "text/plain; " +
-                                "charset=\"utf-8\"");
-                        connection.setPayload(payload.toString());
+    @Override
+    protected void executeCommand(final ServiceCommand mCommand) {
+        Object payload = mCommand.getPayload();
+
+        try {
+            HttpConnection connection = createHttpConnection(mCommand.getTarget());
+            if (payload != null || mCommand.getHttpMethod().equalsIgnoreCase(ServiceCommand.TYPE_POST)) {
+                connection.setMethod(HttpConnection.Method.POST);
+                if (payload != null) {
+                    connection.setHeader(HttpMessage.CONTENT_TYPE_HEADER, "text/plain; " +
+                            "charset=\"utf-8\"");
+                    connection.setPayload(payload.toString());
+                }
+            } else if (mCommand.getHttpMethod().equalsIgnoreCase(ServiceCommand.TYPE_DEL)) {
+                connection.setMethod(HttpConnection.Method.DELETE);
+            }
+            connection.executeAsync(new HttpConnection.ResponseCallback() {
+                @Override
+                public void onComplete(int code, String response, HttpConnection connection) {
+                    if (code == 200) {
+                        Util.postSuccess(mCommand.getResponseListener(), response);
+                    } else if (code == 201) {
+                        Util.postSuccess(mCommand.getResponseListener(), connection.getResponseHeader("Location"));
+                    } else {
+                        Util.postError(mCommand.getResponseListener(), ServiceCommandError.getError(code));
                     }
-                } else if (mCommand.getHttpMethod().equalsIgnoreCase(ServiceCommand.TYPE_DEL)) {
-                    connection.setMethod(HttpConnection.Method.DELETE);
                 }
-                connection.execute();
-                int code = connection.getResponseCode();
-                if (code == 200) {
-                    Util.postSuccess(mCommand.getResponseListener(), connection.getResponseString());
-                } else if (code == 201) {
-                    Util.postSuccess(mCommand.getResponseListener(), connection.getResponseHeader("Location"));
-                } else {
-                    Util.postError(mCommand.getResponseListener(), ServiceCommandError.getError(code));
+
+                @Override
+                public void onFailure(IOException e) {
+                    Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, e.getMessage(), null));
                 }
-            } catch (Exception e) {
-                Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, e.getMessage(), null));
-            }
-        });
+            });
+        } catch (Exception e) {
+            Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, e.getMessage(), null));
+        }
     }
 
     HttpConnection createHttpConnection(String target) throws IOException {
-        return HttpConnection.newInstance(URI.create(target));
+        return HttpConnection.newAsyncInstance(URI.create(target));
     }
 
     private String requestURL(String appName) {
@@ -21,12 +21,11 @@
 package com.connectsdk.service;
 
 import android.content.Context;
-import android.text.Html;
 import android.util.Log;
-import android.util.Xml;
 
 import com.connectsdk.core.ImageInfo;
 import com.connectsdk.core.MediaInfo;
+import com.connectsdk.core.MediaStatus;
 import com.connectsdk.core.SubtitleInfo;
 import com.connectsdk.core.Util;
 import com.connectsdk.discovery.DiscoveryFilter;
@@ -50,16 +49,12 @@ import com.connectsdk.service.sessions.LaunchSession;
 import com.connectsdk.service.sessions.LaunchSession.LaunchSessionType;
 import com.connectsdk.service.upnp.DLNAHttpServer;
 import com.connectsdk.service.upnp.DLNAMediaInfoParser;
+import com.connectsdk.service.upnp.DLNAMessageWriter;
+import com.connectsdk.service.upnp.DLNAResponseExtractor;
 
 import org.json.JSONObject;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.xmlpull.v1.XmlPullParser;
 
 import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -67,10 +62,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.net.UnknownHostException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -80,15 +72,6 @@ import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
 
 /** @noinspection unused*/
 public class DLNAService extends DeviceService implements PlaylistControl, MediaControl, MediaPlayer, VolumeControl {
@@ -121,6 +104,10 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
 
     private static final int TIMEOUT = 300;
 
+    /* Metadata of the last media status, parsed again only when the track changes */
+    private String statusTrackMetaData;
+    private MediaInfo statusMediaInfo;
+
     interface PositionInfoListener {
         void onGetPositionInfoSuccess(String positionInfoXml);
         void onGetPositionInfoFailed(ServiceCommandError error);
@@ -221,7 +208,7 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
             public void onGetPositionInfoSuccess(final String positionInfoXml) {
                 Util.runInBackground(() -> {
                     String baseUrl = "http://" + getServiceDescription().getIpAddress() + ":" + getServiceDescription().getPort();
-                    String trackMetaData = parseData(positionInfoXml, "TrackMetaData");
+                    String trackMetaData = parseData(positionInfoXml, DLNAResponseExtractor.TRACK_META_DATA);
                     MediaInfo info = DLNAMediaInfoParser.getMediaInfo(trackMetaData, baseUrl);
                     Util.postSuccess(listener, info);
                 });
@@ -561,9 +548,12 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
 
             @Override
             public void onGetPositionInfoSuccess(String positionInfoXml) {
-                String strDuration = parseData(positionInfoXml, "TrackDuration");
+                DLNAResponseExtractor positionInfo = new DLNAResponseExtractor(
+                        DLNAResponseExtractor.TRACK_DURATION, DLNAResponseExtractor.TRACK_META_DATA)
+                        .extract(positionInfoXml);
+                String strDuration = positionInfo.get(DLNAResponseExtractor.TRACK_DURATION);
 
-                String trackMetaData = parseData(positionInfoXml, "TrackMetaData");
+                String trackMetaData = positionInfo.get(DLNAResponseExtractor.TRACK_META_DATA);
                 MediaInfo info = DLNAMediaInfoParser.getMediaInfo(trackMetaData);
                 // Check if duration we get not equals 0 or media is image, otherwise wait 1 second and try again
                 if ((!strDuration.equals("0:00:00")) || (info.getMimeType().contains("image"))) {
@@ -594,7 +584,7 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
 
             @Override
             public void onGetPositionInfoSuccess(String positionInfoXml) {
-                String strDuration = parseData(positionInfoXml, "RelTime");
+                String strDuration = parseData(positionInfoXml, DLNAResponseExtractor.REL_TIME);
 
                 long milliTimes = convertStrTimeFormatToLong(strDuration);
 
@@ -608,6 +598,54 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
         });
     }
 
+    /**
+     * Reads position, duration and metadata from a single GetPositionInfo request. The play
+     * state is not part of that response and is left unknown.
+     */
+    @Override
+    public void getMediaStatus(final MediaStatusListener listener) {
+        getPositionInfo(new PositionInfoListener() {
+
+            @Override
+            public void onGetPositionInfoSuccess(final String positionInfoXml) {
+                Util.runInBackground(() -> {
+                    DLNAResponseExtractor positionInfo = new DLNAResponseExtractor(
+                            DLNAResponseExtractor.REL_TIME, DLNAResponseExtractor.TRACK_DURATION,
+                            DLNAResponseExtractor.TRACK_META_DATA).extract(positionInfoXml);
+                    long position = DLNAResponseExtractor.parseTime(positionInfo.get(DLNAResponseExtractor.REL_TIME));
+                    long duration = DLNAResponseExtractor.parseTime(positionInfo.get(DLNAResponseExtractor.TRACK_DURATION));
+                    MediaInfo info = getStatusMediaInfo(positionInfo.get(DLNAResponseExtractor.TRACK_META_DATA));
+
+                    Util.postSuccess(listener, new MediaStatus(null, position, duration, info));
+                });
+            }
+
+            @Override
+            public void onGetPositionInfoFailed(ServiceCommandError error) {
+                Util.postError(listener, error);
+            }
+        });
+    }
+
+    private MediaInfo getStatusMediaInfo(String trackMetaData) {
+        if (trackMetaData.isEmpty() || trackMetaData.equals("NOT_IMPLEMENTED")) {
+            return null;
+        }
+        synchronized (this) {
+            if (trackMetaData.equals(statusTrackMetaData)) {
+                return statusMediaInfo;
+            }
+        }
+
+        String baseUrl = "http://" + getServiceDescription().getIpAddress() + ":" + getServiceDescription().getPort();
+        MediaInfo info = DLNAMediaInfoParser.getMediaInfo(trackMetaData, baseUrl);
+        synchronized (this) {
+            statusTrackMetaData = trackMetaData;
+            statusMediaInfo = info;
+        }
+        return info;
+    }
+
     protected void seek(String unit, String target, ResponseListener<Object> listener) {
         String method = "Seek";
         String instanceId = "0";
@@ -619,43 +657,13 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
         String payload = getMessageXml(AV_TRANSPORT_URN, method, instanceId, parameters);
 
         ServiceCommand request = new ServiceCommand(this, method, payload, listener);
+        request.setCoalesceKey(method);
         request.send();
     }
 
     protected String getMessageXml(String serviceURN, String method, String instanceId, Map<String, String> params) {
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document doc = db.newDocument();
-            doc.setXmlStandalone(true);
-            doc.setXmlVersion("1.0");
-
-            Element root = doc.createElement("s:Envelope");
-            Element bodyElement = doc.createElement("s:Body");
-            Element methodElement = doc.createElementNS(serviceURN, "u:" + method);
-            Element instanceElement = doc.createElement("InstanceID");
-
-            root.setAttribute("s:encodingStyle", "http://schemas.xmlsoap.org/soap/encoding/");
-            root.setAttribute("xmlns:s", "http://schemas.xmlsoap.org/soap/envelope/");
-
-            doc.appendChild(root);
-            root.appendChild(bodyElement);
-            bodyElement.appendChild(methodElement);
-            if (instanceId != null) {
-                instanceElement.setTextContent(instanceId);
-                methodElement.appendChild(instanceElement);
-            }
-
-            if (params != null) {
-                for (Map.Entry<String, String> entry : params.entrySet()) {
-                    String key = entry.getKey();
-                    String value = entry.getValue();
-                    Element element = doc.createElement(key);
-                    element.setTextContent(value);
-                    methodElement.appendChild(element);
-                }
-            }
-            return xmlToString(doc, true);
+            return DLNAMessageWriter.soapMessage(serviceURN, method, instanceId, params);
         } catch (Exception e) {
             return null;
         }
@@ -672,45 +680,12 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
                 objectClass = "object.item.audioItem";
             }
 
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document doc = db.newDocument();
-
-            Element didlRoot = doc.createElement("DIDL-Lite");
-            Element itemElement = doc.createElement("item");
-            Element titleElement = doc.createElement("dc:title");
-            Element descriptionElement = doc.createElement("dc:description");
-            Element resElement = doc.createElement("res");
-            Element albumArtElement = doc.createElement("upnp:albumArtURI");
-            Element clazzElement = doc.createElement("upnp:class");
-
-            didlRoot.appendChild(itemElement);
-            itemElement.appendChild(titleElement);
-            itemElement.appendChild(descriptionElement);
-            itemElement.appendChild(resElement);
-            itemElement.appendChild(albumArtElement);
-            itemElement.appendChild(clazzElement);
-
-            didlRoot.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns", "urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/");
-            didlRoot.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:upnp", "urn:schemas-upnp-org:metadata-1-0/upnp/");
-            didlRoot.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:dc", "http://purl.org/dc/elements/1.1/");
-            didlRoot.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:sec", "http://www.sec.co.kr/");
-
-            titleElement.setTextContent(title);
-            descriptionElement.setTextContent(description);
-            resElement.setTextContent(encodeURL(mediaURL));
-            albumArtElement.setTextContent(encodeURL(iconUrl));
-            clazzElement.setTextContent(objectClass);
-
-            itemElement.setAttribute("id", "1000");
-            itemElement.setAttribute("parentID", "0");
-            itemElement.setAttribute("restricted", "0");
-
-            resElement.setAttribute("protocolInfo", "http-get:*:" + mime + ":DLNA.ORG_OP=01");
-
+            String subtitleURL = null;
+            String mimeType = null;
+            String type = null;
             if (subtitle != null) {
-                String mimeType = (subtitle.getMimeType() == null) ? DEFAULT_SUBTITLE_TYPE : subtitle.getMimeType();
-                String type;
+                subtitleURL = subtitle.getUrl();
+                mimeType = (subtitle.getMimeType() == null) ? DEFAULT_SUBTITLE_TYPE : subtitle.getMimeType();
                 String[] typeParts =  mimeType.split("/");
                 if (typeParts.length == 2) {
                     type = typeParts[1];
@@ -718,35 +693,10 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
                     mimeType = DEFAULT_SUBTITLE_MIMETYPE;
                     type = DEFAULT_SUBTITLE_TYPE;
                 }
-
-
-                resElement.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:pv", "http://www.pv.com/pvns/");
-                resElement.setAttribute("pv:subtitleFileUri", subtitle.getUrl());
-                resElement.setAttribute("pv:subtitleFileType", type);
-
-                Element smiResElement = doc.createElement("res");
-                smiResElement.setAttribute("protocolInfo", "http-get:*:smi/caption");
-                smiResElement.setTextContent(subtitle.getUrl());
-                itemElement.appendChild(smiResElement);
-
-                Element srtResElement = doc.createElement("res");
-                srtResElement.setAttribute("protocolInfo", "http-get:*:"+mimeType+":");
-                srtResElement.setTextContent(subtitle.getUrl());
-                itemElement.appendChild(srtResElement);
-
-                Element captionInfoExElement = doc.createElement("sec:CaptionInfoEx");
-                captionInfoExElement.setAttribute("sec:type", type);
-                captionInfoExElement.setTextContent(subtitle.getUrl());
-                itemElement.appendChild(captionInfoExElement);
-
-                Element captionInfoElement = doc.createElement("sec:CaptionInfo");
-                captionInfoElement.setAttribute("sec:type", type);
-                captionInfoElement.setTextContent(subtitle.getUrl());
-                itemElement.appendChild(captionInfoElement);
             }
 
-            doc.appendChild(didlRoot);
-            return xmlToString(doc, false);
+            return DLNAMessageWriter.didlMetadata(encodeURL(mediaURL), mime, title, description,
+                    encodeURL(iconUrl), objectClass, subtitleURL, mimeType, type);
         } catch (Exception e) {
             return null;
         }
@@ -766,77 +716,73 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
         return mediaURL;
     }
 
-    String xmlToString(Node source, boolean xmlDeclaration) throws TransformerException {
-        DOMSource domSource = new DOMSource(source);
-        StringWriter writer = new StringWriter();
-        StreamResult result = new StreamResult(writer);
-        TransformerFactory tf = TransformerFactory.newInstance();
-        Transformer transformer = tf.newTransformer();
-        if (!xmlDeclaration) {
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-        }
-        transformer.transform(domSource, result);
-        return writer.toString();
+    @Override
+    public void sendCommand(final ServiceCommand mCommand) {
+        getCommandScheduler().submit(mCommand);
     }
 
-
     @Override
-    public void sendCommand(final ServiceCommand mCommand) {
-        Util.runInBackground(() -> {
+    protected void executeCommand(final ServiceCommand mCommand) {
+        String method = mCommand.getTarget();
+        String payload = (String) mCommand.getPayload();
 
-            String method = mCommand.getTarget();
-            String payload = (String) mCommand.getPayload();
+        String targetURL = null;
+        String serviceURN = null;
 
-            String targetURL = null;
-            String serviceURN = null;
+        if (payload == null) {
+            Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, "Cannot process the command, \"payload\" is missed", null));
+            return;
+        }
 
-            if (payload == null) {
-                Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, "Cannot process the command, \"payload\" is missed", null));
-                return;
-            }
+        if (payload.contains(AV_TRANSPORT_URN)) {
+            targetURL = avTransportURL;
+            serviceURN = AV_TRANSPORT_URN;
+        } else if (payload.contains(RENDERING_CONTROL_URN)) {
+            targetURL = renderingControlURL;
+            serviceURN = RENDERING_CONTROL_URN;
+        } else if (payload.contains(CONNECTION_MANAGER_URN)) {
+            targetURL = connectionControlURL;
+            serviceURN = CONNECTION_MANAGER_URN;
+        }
 
-            if (payload.contains(AV_TRANSPORT_URN)) {
-                targetURL = avTransportURL;
-                serviceURN = AV_TRANSPORT_URN;
-            } else if (payload.contains(RENDERING_CONTROL_URN)) {
-                targetURL = renderingControlURL;
-                serviceURN = RENDERING_CONTROL_URN;
-            } else if (payload.contains(CONNECTION_MANAGER_URN)) {
-                targetURL = connectionControlURL;
-                serviceURN = CONNECTION_MANAGER_URN;
-            }
+        if (serviceURN == null) {
+            Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, "Cannot process the command, \"serviceURN\" is missed", null));
+            return;
+        }
 
-            if (serviceURN == null) {
-                Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, "Cannot process the command, \"serviceURN\" is missed", null));
-                return;
-            }
+        if (targetURL == null) {
+            Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, "Cannot process the command, \"targetURL\" is missed", null));
+            return;
+        }
 
-            if (targetURL == null) {
-                Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, "Cannot process the command, \"targetURL\" is missed", null));
-                return;
-            }
+        try {
+            HttpConnection connection = createHttpConnection(targetURL);
+            connection.setHeader("Content-Type", "text/xml; charset=utf-8");
+            connection.setHeader("SOAPAction", String.format("\"%s#%s\"", serviceURN, method));
+            connection.setMethod(HttpConnection.Method.POST);
+            connection.setPayload(payload);
+            connection.executeAsync(new HttpConnection.ResponseCallback() {
+                @Override
+                public void onComplete(int code, String response, HttpConnection connection) {
+                    if (code == 200) {
+                        Util.postSuccess(mCommand.getResponseListener(), response);
+                    } else {
+                        Util.postError(mCommand.getResponseListener(), ServiceCommandError.getError(code));
+                    }
+                }
 
-            try {
-                HttpConnection connection = createHttpConnection(targetURL);
-                connection.setHeader("Content-Type", "text/xml; charset=utf-8");
-                connection.setHeader("SOAPAction", String.format("\"%s#%s\"", serviceURN, method));
-                connection.setMethod(HttpConnection.Method.POST);
-                connection.setPayload(payload);
-                connection.execute();
-                int code = connection.getResponseCode();
-                if (code == 200) {
-                    Util.postSuccess(mCommand.getResponseListener(), connection.getResponseString());
-                } else {
-                    Util.postError(mCommand.getResponseListener(), ServiceCommandError.getError(code));
+                @Override
+                public void onFailure(IOException e) {
+                    Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, e.getMessage(), null));
                 }
-            } catch (IOException e) {
-                Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, e.getMessage(), null));
-            }
-        });
+            });
+        } catch (IOException e) {
+            Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, e.getMessage(), null));
+        }
     }
 
     HttpConnection createHttpConnection(String targetURL) throws IOException {
-        return HttpConnection.newInstance(URI.create(targetURL));
+        return HttpConnection.newAsyncInstance(URI.create(targetURL));
     }
 
     @Override
@@ -896,54 +842,21 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
         return null;
     }
 
-    private boolean isXmlEncoded(final String xml) {
-        if (xml == null || xml.length() < 4) {
-            return false;
-        }
-        return xml.trim().startsWith("&lt;");
-    }
-
     String parseData(String response, String key) {
-        if (isXmlEncoded(response)) {
-            response = Html.fromHtml(response,Html.FROM_HTML_MODE_LEGACY).toString();
-        }
-        XmlPullParser parser = Xml.newPullParser();
-        try {
-            parser.setInput(new StringReader(response));
-            int event;
-            boolean isFound = false;
-            do {
-                event = parser.next();
-                if (event == XmlPullParser.START_TAG) {
-                    String tag = parser.getName();
-                    if (key.equals(tag)) {
-                        isFound = true;
-                    }
-                } else if (event == XmlPullParser.TEXT && isFound) {
-                    return parser.getText();
-                }
-            } while (event != XmlPullParser.END_DOCUMENT);
-        } catch (Exception e) {
-            Log.e(Util.T,e.getMessage(),e);
-        }
-        return "";
+        return new DLNAResponseExtractor(key).extract(response).get(key);
     }
 
     long convertStrTimeFormatToLong(String strTime) {
-        long time = 0;
-        SimpleDateFormat df = new SimpleDateFormat("HH:mm:ss",Locale.getDefault());
-        try {
-            Date d = df.parse(strTime);
-            Date d2 = df.parse("00:00:00");
-            if (d!=null && d2!=null){
-                time = d.getTime() - d2.getTime();
-            }
-        } catch (ParseException e) {
-            Log.d(Util.T, "Invalid Time Format: " + strTime);
-        } catch (NullPointerException e) {
+        if (strTime == null) {
             Log.d(Util.T, "Null time argument");
+            return 0;
         }
 
+        long time = DLNAResponseExtractor.parseTime(strTime);
+        if (time < 0) {
+            Log.d(Util.T, "Invalid Time Format: " + strTime);
+            return 0;
+        }
         return time;
     }
 
@@ -958,7 +871,7 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
 
             @Override
             public void onSuccess(Object any) {
-                String transportState = parseData((String) any, "CurrentTransportState");
+                String transportState = parseData((String) any, DLNAResponseExtractor.CURRENT_TRANSPORT_STATE);
                 PlayStateStatus status = PlayStateStatus.convertTransportStateToPlayStateStatus(transportState);
 
                 Util.postSuccess(listener, status);
@@ -1114,7 +1027,7 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
                     }
 
                     try {
-                        HttpConnection connection = HttpConnection.newSubscriptionInstance(
+                        HttpConnection connection = HttpConnection.newAsyncInstance(
                                 new URI("http", "", serviceDescription.getIpAddress(), serviceDescription.getPort(), eventSubURL, "", ""));
                         connection.setMethod(HttpConnection.Method.SUBSCRIBE);
                         connection.setHeader("CALLBACK", "<http://" + myIpAddress + ":" + httpServer.getPort() + eventSubURL + ">");
@@ -1125,7 +1038,9 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
                         connection.setHeader("USER-AGENT", "Android UPnp/1.1 ConnectSDK");
                         connection.execute();
                         if (connection.getResponseCode() == 200) {
-                            SIDList.put(serviceList.get(i).serviceType, connection.getResponseHeader("SID"));
+                            String sid = connection.getResponseHeader("SID");
+                            SIDList.put(serviceList.get(i).serviceType, sid);
+                            httpServer.addSubscriptionId(sid);
                         }
                     } catch (Exception e) {
                         Log.e(Util.T,e.getMessage(),e);
@@ -1156,7 +1071,7 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
 
                             String SID = SIDList.get(serviceList.get(i).serviceType);
                             try {
-                                HttpConnection connection = HttpConnection.newSubscriptionInstance(
+                                HttpConnection connection = HttpConnection.newAsyncInstance(
                                         new URI("http", "", serviceDescription.getIpAddress(), serviceDescription.getPort(), eventSubURL, "", ""));
                                 connection.setMethod(HttpConnection.Method.SUBSCRIBE);
                                 connection.setHeader("TIMEOUT", "Second-" + TIMEOUT);
@@ -1189,13 +1104,14 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
 
                     String sid = SIDList.get(serviceList.get(i).serviceType);
                     try {
-                        HttpConnection connection = HttpConnection.newSubscriptionInstance(
+                        HttpConnection connection = HttpConnection.newAsyncInstance(
                                 new URI("http", "", serviceDescription.getIpAddress(), serviceDescription.getPort(), eventSubURL, "", ""));
                         connection.setMethod(HttpConnection.Method.UNSUBSCRIBE);
                         connection.setHeader("SID", sid);
                         connection.execute();
                         if (connection.getResponseCode() == 200) {
                             SIDList.remove(serviceList.get(i).serviceType);
+                            httpServer.removeSubscriptionId(sid);
                         }
                     } catch (Exception e) {
                         Log.e(Util.T,e.getMessage(),e);
@@ -1286,6 +1202,7 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
         String payload = getMessageXml(RENDERING_CONTROL_URN, method, instanceId, params);
 
         ServiceCommand request = new ServiceCommand(this, method, payload, listener);
+        request.setCoalesceKey(method);
         request.send();
     }
 
@@ -1304,7 +1221,7 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
 
             @Override
             public void onSuccess(Object any) {
-                String currentVolume = parseData((String) any, "CurrentVolume");
+                String currentVolume = parseData((String) any, DLNAResponseExtractor.CURRENT_VOLUME);
                 int iVolume = 0;
                 try {
                     Integer.parseInt(currentVolume);
@@ -1358,7 +1275,7 @@ public class DLNAService extends DeviceService implements PlaylistControl, Media
 
             @Override
             public void onSuccess(Object any) {
-                String currentMute = parseData((String) any, "CurrentMute");
+                String currentMute = parseData((String) any, DLNAResponseExtractor.CURRENT_MUTE);
                 boolean isMute = Boolean.parseBoolean(currentMute);
 
                 Util.postSuccess(listener, isMute);
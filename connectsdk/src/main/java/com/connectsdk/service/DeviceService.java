@@ -37,6 +37,7 @@ import com.connectsdk.service.capability.listeners.ResponseListener;
 import com.connectsdk.service.command.ServiceCommand;
 import com.connectsdk.service.command.ServiceCommand.ServiceCommandProcessor;
 import com.connectsdk.service.command.ServiceCommandError;
+import com.connectsdk.service.command.ServiceCommandScheduler;
 import com.connectsdk.service.command.ServiceSubscription;
 import com.connectsdk.service.command.URLServiceSubscription;
 import com.connectsdk.service.config.ServiceConfig;
@@ -126,6 +127,8 @@ public class DeviceService implements DeviceServiceReachabilityListener, Service
 
     private ServiceCommandProcessor commandProcessor;
 
+    private ServiceCommandScheduler commandScheduler;
+
     /**
      * An array of capabilities supported by the DeviceService.
      * This array may change based off a number of factors.
@@ -326,6 +329,25 @@ public class DeviceService implements DeviceServiceReachabilityListener, Service
 
     }
 
+    /**
+     * Sends a command to the device right away, bypassing the command scheduler. Services that
+     * route sendCommand through getCommandScheduler() implement their transport here.
+     */
+    protected void executeCommand(ServiceCommand command) {
+
+    }
+
+    /**
+     * Returns the scheduler that orders, coalesces and throttles the commands of this service.
+     * Its in-flight window and queue depth can be tuned for slow devices.
+     */
+    public synchronized ServiceCommandScheduler getCommandScheduler() {
+        if (commandScheduler == null) {
+            commandScheduler = new ServiceCommandScheduler(this::executeCommand);
+        }
+        return commandScheduler;
+    }
+
     public List<String> getCapabilities() {
         return mCapabilities;
     }
@@ -138,8 +138,6 @@ public class NetcastTVService extends DeviceService implements Launcher, MediaCo
 
     State state;
 
-    PointF mMouseDistance;
-    Boolean mMouseIsMoving;
 
     public NetcastTVService(ServiceDescription serviceDescription, ServiceConfig serviceConfig) {
         super(serviceDescription, serviceConfig);
@@ -1670,6 +1668,16 @@ public class NetcastTVService extends DeviceService implements Launcher, MediaCo
         }
     }
 
+    @Override
+    public void getMediaStatus(MediaStatusListener listener) {
+        if (getDLNAService() != null) {
+            getDLNAService().getMediaStatus(listener);
+        } else {
+            if (listener != null)
+                Util.postError(listener, ServiceCommandError.notSupported());
+        }
+    }
+
     @Override
     public void getPlayState(PlayStateListener listener) {
         if (getDLNAService() != null) {
@@ -1726,9 +1734,6 @@ public class NetcastTVService extends DeviceService implements Launcher, MediaCo
             @Override
             public void onSuccess(Object any) {
                 Log.d(Util.T, "Netcast TV's mouse has been connected");
-
-                mMouseDistance = new PointF(0, 0);
-                mMouseIsMoving = false;
             }
 
             @Override
@@ -1772,58 +1777,53 @@ public class NetcastTVService extends DeviceService implements Launcher, MediaCo
 
     @Override
     public void move(double dx, double dy) {
-        mMouseDistance.x += (float) dx;
-        mMouseDistance.y += (float) dy;
-
-        if (!mMouseIsMoving)
-        {
-            mMouseIsMoving = true;
-            this.moveMouse();
-        }
+        new MouseMoveCommand(dx, dy).send();
     }
 
-    private void moveMouse() {
-        String requestURL = getUDAPRequestURL(UDAP_PATH_COMMAND);
-
-        int x = (int)mMouseDistance.x;
-        int y = (int)mMouseDistance.y;
+    private final ResponseListener<Object> mouseMoveListener = new ResponseListener<Object>() {
 
-        Map <String,String> params = new HashMap<>();
-        params.put("name", "HandleTouchMove");
-        params.put("x", String.valueOf(x));
-        params.put("y", String.valueOf(y));
+        @Override
+        public void onSuccess(Object any) {
+        }
 
-        mMouseDistance.x = mMouseDistance.y = 0;
+        @Override
+        public void onError(ServiceCommandError error) {
+            Log.d(Util.T, "Netcast TV's mouse move has failed");
+        }
+    };
 
-        ResponseListener<Object> responseListener = getResponseListener();
+    /**
+     * Mouse move request whose deltas are summed with a queued, not yet sent move, so the TV
+     * receives one HandleTouchMove per round trip instead of one per touch event.
+     */
+    private class MouseMoveCommand extends ServiceCommand {
+        static final String COALESCE_KEY = "HandleTouchMove";
 
-        String httpMessage = getUDAPMessageBody(UDAP_API_COMMAND, params);
+        final double dx;
+        final double dy;
 
-        ServiceCommand request = new ServiceCommand(this, requestURL, httpMessage, responseListener);
-        request.send();
-    }
+        MouseMoveCommand(double dx, double dy) {
+            super(NetcastTVService.this, getUDAPRequestURL(UDAP_PATH_COMMAND), null, mouseMoveListener);
+            this.dx = dx;
+            this.dy = dy;
 
-    @NonNull
-    private ResponseListener<Object> getResponseListener() {
-        final NetcastTVService mouseService = this;
+            Map <String,String> params = new HashMap<>();
+            params.put("name", "HandleTouchMove");
+            params.put("x", String.valueOf((int) dx));
+            params.put("y", String.valueOf((int) dy));
 
-        return new ResponseListener<Object>() {
-
-            @Override
-            public void onSuccess(Object any) {
-                if (mMouseDistance.x > 0 || mMouseDistance.y > 0)
-                    mouseService.moveMouse();
-                else
-                    mMouseIsMoving = false;
-            }
-
-            @Override
-            public void onError(ServiceCommandError error) {
-                Log.d(Util.T, "Netcast TV's mouse move has failed");
+            setPayload(getUDAPMessageBody(UDAP_API_COMMAND, params));
+            setCoalesceKey(COALESCE_KEY);
+        }
 
-                mMouseIsMoving = false;
+        @Override
+        public ServiceCommand coalesce(ServiceCommand pending) {
+            if (pending instanceof MouseMoveCommand) {
+                MouseMoveCommand move = (MouseMoveCommand) pending;
+                return new MouseMoveCommand(move.dx + dx, move.dy + dy);
             }
-        };
+            return this;
+        }
     }
 
     @Override
@@ -2272,26 +2272,33 @@ public class NetcastTVService extends DeviceService implements Launcher, MediaCo
 
     @Override
     public void sendCommand(final ServiceCommand mCommand) {
-        Util.runInBackground(() -> {
-            Object payload = mCommand.getPayload();
+        getCommandScheduler().submit(mCommand);
+    }
 
-            try {
-                HttpConnection connection = HttpConnection.newInstance(URI.create(mCommand.getTarget()));
-                connection.setHeader(HttpMessage.USER_AGENT, HttpMessage.UDAP_USER_AGENT);
-                connection.setHeader(HttpMessage.CONTENT_TYPE_HEADER, HttpMessage.CONTENT_TYPE_TEXT_XML);
-                if (payload != null && mCommand.getHttpMethod().equalsIgnoreCase(ServiceCommand.TYPE_POST)) {
-                    connection.setMethod(HttpConnection.Method.POST);
-                    connection.setPayload(payload.toString());
-                }
-                connection.execute();
-                int code = connection.getResponseCode();
+    @Override
+    protected void executeCommand(final ServiceCommand mCommand) {
+        Object payload = mCommand.getPayload();
+
+        HttpConnection connection = HttpConnection.newAsyncInstance(URI.create(mCommand.getTarget()));
+        connection.setHeader(HttpMessage.USER_AGENT, HttpMessage.UDAP_USER_AGENT);
+        connection.setHeader(HttpMessage.CONTENT_TYPE_HEADER, HttpMessage.CONTENT_TYPE_TEXT_XML);
+        if (payload != null && mCommand.getHttpMethod().equalsIgnoreCase(ServiceCommand.TYPE_POST)) {
+            connection.setMethod(HttpConnection.Method.POST);
+            connection.setPayload(payload.toString());
+        }
+        connection.executeAsync(new HttpConnection.ResponseCallback() {
+            @Override
+            public void onComplete(int code, String response, HttpConnection connection) {
                 Log.d(TAG, "RESP " + code);
                 if (code == 200) {
-                    Util.postSuccess(mCommand.getResponseListener(), connection.getResponseString());
+                    Util.postSuccess(mCommand.getResponseListener(), response);
                 } else {
                     Util.postError(mCommand.getResponseListener(), ServiceCommandError.getError(code));
                 }
-            } catch (IOException e) {
+            }
+
+            @Override
+            public void onFailure(IOException e) {
                 Log.e(Util.T, "error",e);
                 Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, e.getMessage(), null));
             }
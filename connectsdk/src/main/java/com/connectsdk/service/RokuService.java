@@ -872,31 +872,37 @@ public class RokuService extends DeviceService implements Launcher, MediaPlayer,
 
     @Override
     public void sendCommand(final ServiceCommand mCommand) {
-        Util.runInBackground(() -> {
-            Object payload = mCommand.getPayload();
-
-            try {
-                Log.d(TAG, "RESP " + mCommand.getTarget());
-                HttpConnection connection = HttpConnection.newInstance(URI.create(mCommand.getTarget()));
-                if (mCommand.getHttpMethod().equalsIgnoreCase(ServiceCommand.TYPE_POST)) {
-                    connection.setMethod(HttpConnection.Method.POST);
-                    if (payload != null) {
-                        connection.setPayload(payload.toString());
-                    }
-                }
-                connection.execute();
-                int code = connection.getResponseCode();
+        getCommandScheduler().submit(mCommand);
+    }
+
+    @Override
+    protected void executeCommand(final ServiceCommand mCommand) {
+        Object payload = mCommand.getPayload();
+
+        Log.d(TAG, "RESP " + mCommand.getTarget());
+        HttpConnection connection = HttpConnection.newAsyncInstance(URI.create(mCommand.getTarget()));
+        if (mCommand.getHttpMethod().equalsIgnoreCase(ServiceCommand.TYPE_POST)) {
+            connection.setMethod(HttpConnection.Method.POST);
+            if (payload != null) {
+                connection.setPayload(payload.toString());
+            }
+        }
+        connection.executeAsync(new HttpConnection.ResponseCallback() {
+            @Override
+            public void onComplete(int code, String response, HttpConnection connection) {
                 Log.d(TAG, "RESP " + code);
                 if (code == 200 || code == 201) {
-                    Util.postSuccess(mCommand.getResponseListener(), connection.getResponseString());
+                    Util.postSuccess(mCommand.getResponseListener(), response);
                 } else {
                     Util.postError(mCommand.getResponseListener(), ServiceCommandError.getError(code));
                 }
-            } catch (IOException e) {
+            }
+
+            @Override
+            public void onFailure(IOException e) {
                 Log.e(Util.T,e.getMessage(),e);
                 Util.postError(mCommand.getResponseListener(), new ServiceCommandError(0, e.getMessage(), null));
             }
-
         });
     }
 
@@ -20,7 +20,9 @@
 
 package com.connectsdk.service.capability;
 
+import com.connectsdk.core.MediaStatus;
 import com.connectsdk.service.capability.listeners.ResponseListener;
+import com.connectsdk.service.command.MediaStatusSubscription;
 import com.connectsdk.service.command.ServiceSubscription;
 
 /**
@@ -239,6 +241,37 @@ public interface MediaControl extends CapabilityMethods {
      */
     ServiceSubscription<PlayStateListener> subscribePlayState(PlayStateListener listener);
 
+    /**
+     * Get the play state, position, duration and metadata of the current media in as few
+     * requests as the service allows. Fields the service cannot report are left unknown.
+     * <p>
+     * The default implementation combines getPosition, getDuration and, when the play state
+     * cannot be subscribed to, getPlayState.
+     */
+    default void getMediaStatus(MediaStatusListener listener) {
+        MediaStatusSubscription.fetch(this, listener);
+    }
+
+    /**
+     * Subscribe for periodic media status updates. The status is polled with a single
+     * getMediaStatus request per interval, shared by every listener of this media control,
+     * more often while the media is playing than while it is paused or stopped.
+     *
+     * @param listener receives the status after every poll
+     * @return ServiceSubscription<MediaStatusListener>
+     */
+    default ServiceSubscription<MediaStatusListener> subscribeMediaStatus(MediaStatusListener listener) {
+        return MediaStatusSubscription.subscribe(this, listener);
+    }
+
+    /**
+     * Success block that is called upon successfully getting the media status.
+     * <p>
+     * Passes a MediaStatus with the fields reported by the service
+     */
+    interface MediaStatusListener extends ResponseListener<MediaStatus> {
+    }
+
     /**
      * Success block that is called upon any change in a media file's play state.
      * <p>
@@ -0,0 +1,583 @@
+/*
+ * MediaStatusSubscription
+ * Connect SDK
+ *
+ * Copyright (c) 2015 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.connectsdk.service.command;
+
+import android.util.Log;
+
+import com.connectsdk.core.MediaStatus;
+import com.connectsdk.core.Util;
+import com.connectsdk.service.DeviceService;
+import com.connectsdk.service.capability.MediaControl;
+import com.connectsdk.service.capability.MediaControl.MediaStatusListener;
+import com.connectsdk.service.capability.MediaControl.PlayStateListener;
+import com.connectsdk.service.capability.MediaControl.PlayStateStatus;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the status of a media control and hands every result to all of its listeners.
+ * <p>
+ * There is one subscription per media control: subscribing again adds the listener to the
+ * running one, so the device gets a single {@link MediaControl#getMediaStatus} request per
+ * interval however many listeners there are. The interval follows the play state, short while
+ * the media is playing or buffering and long otherwise. When the service does not report the
+ * play state, the media is taken as playing while its position moves, and until there are two
+ * positions to compare. If the service can push play state changes, they are merged into the
+ * status and trigger an immediate poll.
+ * <p>
+ * Each {@link #subscribe} returns a handle of its own, whose {@code unsubscribe()} only removes
+ * the listeners added through it. Polling starts with the first listener and stops when the last
+ * one is removed, when {@link #unsubscribe()} is called on the shared subscription itself, or
+ * when the media control is garbage collected. Listeners are notified on the main thread.
+ */
+public class MediaStatusSubscription implements ServiceSubscription<MediaStatusListener> {
+    public static final long DEFAULT_PLAYING_INTERVAL = 1000;
+    public static final long DEFAULT_IDLE_INTERVAL = 5000;
+
+    private static final Map<MediaControl, MediaStatusSubscription> subscriptions = new WeakHashMap<>();
+
+    private static ScheduledThreadPoolExecutor executor;
+
+    /* weak, so that the registry entry goes away with the media control */
+    private final WeakReference<MediaControl> mediaControl;
+    private final List<MediaStatusListener> listeners = new CopyOnWriteArrayList<>();
+
+    private long playingInterval = DEFAULT_PLAYING_INTERVAL;
+    private long idleInterval = DEFAULT_IDLE_INTERVAL;
+
+    private boolean running;
+    private boolean polling;
+    private ScheduledFuture<?> nextPoll;
+    private ServiceSubscription<PlayStateListener> playStateSubscription;
+    private PlayStateStatus pushedPlayState;
+    private MediaStatus lastStatus;
+
+    private MediaStatusSubscription(MediaControl mediaControl) {
+        this.mediaControl = new WeakReference<>(mediaControl);
+    }
+
+    /**
+     * Adds a listener to the status subscription of a media control, starting it if needed.
+     *
+     * @return a handle for this subscriber; unsubscribing it leaves the other subscribers polling
+     */
+    public static ServiceSubscription<MediaStatusListener> subscribe(MediaControl mediaControl,
+                                                                     MediaStatusListener listener) {
+        MediaStatusSubscription subscription;
+        synchronized (subscriptions) {
+            subscription = subscriptions.get(mediaControl);
+            if (subscription == null) {
+                subscription = new MediaStatusSubscription(mediaControl);
+                subscriptions.put(mediaControl, subscription);
+            }
+        }
+        Handle handle = new Handle(subscription);
+        handle.addListener(listener);
+        return handle;
+    }
+
+    /**
+     * Gets the status with the separate getPosition, getDuration and getPlayState requests of
+     * the media control. Requests for capabilities a service lacks are skipped, and so is the
+     * play state if it can be subscribed to. While the control has a running subscription, the
+     * duration of its last status is reused as long as the position does not go back, and its
+     * play state as long as the media keeps playing, so that a poll usually costs one request.
+     * Fields whose request fails are left unknown; the listener gets an error only if all of
+     * the requests fail.
+     */
+    public static void fetch(MediaControl mediaControl, MediaStatusListener listener) {
+        MediaStatusSubscription subscription;
+        synchronized (subscriptions) {
+            subscription = subscriptions.get(mediaControl);
+        }
+        MediaStatus previous = subscription != null ? subscription.getLastStatus() : null;
+        new StatusFetch(mediaControl, previous, listener).start();
+    }
+
+    /**
+     * @return the media control, or null once it has been garbage collected
+     */
+    public MediaControl getMediaControl() {
+        return mediaControl.get();
+    }
+
+    /**
+     * @return the last status delivered to the listeners, or null before the first one
+     */
+    public synchronized MediaStatus getLastStatus() {
+        return lastStatus;
+    }
+
+    /**
+     * Sets the polling intervals, in milliseconds, used while the media is playing and while
+     * it is paused, stopped or in an unknown state.
+     */
+    public synchronized void setIntervals(long playingInterval, long idleInterval) {
+        if (playingInterval <= 0 || idleInterval <= 0) {
+            throw new IllegalArgumentException("Intervals must be positive");
+        }
+        this.playingInterval = playingInterval;
+        this.idleInterval = idleInterval;
+    }
+
+    @Override
+    public MediaStatusListener addListener(MediaStatusListener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+        start();
+        return listener;
+    }
+
+    @Override
+    public void removeListener(MediaStatusListener listener) {
+        listeners.remove(listener);
+        stop();
+    }
+
+    @Override
+    public List<MediaStatusListener> getListeners() {
+        return new ArrayList<>(listeners);
+    }
+
+    /**
+     * Removes every listener, including those of the other subscribers, and stops polling.
+     * A subscriber that only wants to leave unsubscribes the handle returned by
+     * {@link #subscribe}.
+     */
+    @Override
+    public void unsubscribe() {
+        listeners.clear();
+        stop();
+    }
+
+    /* Listeners added through a handle are counted once per handle */
+    void attach(MediaStatusListener listener) {
+        listeners.add(listener);
+        start();
+    }
+
+    void detach(MediaStatusListener listener) {
+        listeners.remove(listener);
+        stop();
+    }
+
+    /**
+     * Stops polling and leaves the registry, unless a listener was added in the meantime.
+     */
+    private void stop() {
+        ServiceSubscription<PlayStateListener> playStateSubscription;
+        synchronized (subscriptions) {
+            synchronized (this) {
+                if (!listeners.isEmpty()) {
+                    return;
+                }
+                MediaControl mediaControl = this.mediaControl.get();
+                if (mediaControl != null && subscriptions.get(mediaControl) == this) {
+                    subscriptions.remove(mediaControl);
+                }
+                if (!running) {
+                    return;
+                }
+                running = false;
+                if (nextPoll != null) {
+                    nextPoll.cancel(false);
+                    nextPoll = null;
+                }
+                playStateSubscription = this.playStateSubscription;
+                this.playStateSubscription = null;
+                pushedPlayState = null;
+                lastStatus = null;
+            }
+        }
+
+        if (playStateSubscription != null) {
+            playStateSubscription.unsubscribe();
+        }
+    }
+
+    private void start() {
+        MediaControl mediaControl = this.mediaControl.get();
+        if (mediaControl == null) {
+            return;
+        }
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        synchronized (subscriptions) {
+            if (!subscriptions.containsKey(mediaControl)) {
+                subscriptions.put(mediaControl, this);
+            }
+        }
+
+        if (mediaControl instanceof DeviceService
+                && ((DeviceService) mediaControl).hasCapability(MediaControl.PlayState_Subscribe)) {
+            ServiceSubscription<PlayStateListener> subscription = mediaControl.subscribePlayState(playStateListener);
+            boolean stopped;
+            synchronized (this) {
+                stopped = !running;
+                if (!stopped) {
+                    playStateSubscription = subscription;
+                }
+            }
+            if (stopped && subscription != null) {
+                subscription.unsubscribe();
+            }
+        }
+
+        schedulePoll(0);
+    }
+
+    private synchronized void schedulePoll(long delay) {
+        if (!running) {
+            return;
+        }
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+        }
+        nextPoll = getExecutor().schedule(pollTask, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable pollTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (MediaStatusSubscription.this) {
+                // a poll triggered while another one is waiting for its response is folded into it
+                if (!running || polling) {
+                    return;
+                }
+                polling = true;
+                nextPoll = null;
+            }
+
+            MediaControl mediaControl = MediaStatusSubscription.this.mediaControl.get();
+            if (mediaControl == null) {
+                unsubscribe();
+                return;
+            }
+            try {
+                mediaControl.getMediaStatus(statusListener);
+            } catch (RuntimeException e) {
+                Log.w(Util.T, "Media status request failed", e);
+                statusListener.onError(new ServiceCommandError(0, e.getMessage(), null));
+            }
+        }
+    };
+
+    private final MediaStatusListener statusListener = new MediaStatusListener() {
+        @Override
+        public void onSuccess(MediaStatus status) {
+            MediaStatus previous;
+            synchronized (MediaStatusSubscription.this) {
+                polling = false;
+                if (!running) {
+                    return;
+                }
+                if (status.getPlayState() == null && pushedPlayState != null) {
+                    status = status.withPlayState(pushedPlayState);
+                }
+                previous = lastStatus;
+                lastStatus = status;
+            }
+
+            for (MediaStatusListener listener : listeners) {
+                listener.onSuccess(status);
+            }
+            schedulePoll(isPlaying(status, previous) ? getPlayingInterval() : getIdleInterval());
+        }
+
+        @Override
+        public void onError(ServiceCommandError error) {
+            synchronized (MediaStatusSubscription.this) {
+                polling = false;
+                if (!running) {
+                    return;
+                }
+            }
+
+            for (MediaStatusListener listener : listeners) {
+                listener.onError(error);
+            }
+            schedulePoll(getIdleInterval());
+        }
+    };
+
+    private final PlayStateListener playStateListener = new PlayStateListener() {
+        @Override
+        public void onSuccess(PlayStateStatus playState) {
+            boolean changed;
+            synchronized (MediaStatusSubscription.this) {
+                changed = playState != pushedPlayState;
+                pushedPlayState = playState;
+            }
+            if (changed) {
+                schedulePoll(0);
+            }
+        }
+
+        @Override
+        public void onError(ServiceCommandError error) {
+            Log.d(Util.T, "Play state subscription error: " + error);
+        }
+    };
+
+    private synchronized long getPlayingInterval() {
+        return playingInterval;
+    }
+
+    private synchronized long getIdleInterval() {
+        return idleInterval;
+    }
+
+    private static boolean isPlaying(MediaStatus status, MediaStatus previous) {
+        PlayStateStatus playState = status.getPlayState();
+        if (playState != null && playState != PlayStateStatus.Unknown) {
+            return playState == PlayStateStatus.Playing || playState == PlayStateStatus.Buffering;
+        }
+        if (status.getPosition() < 0) {
+            return false;
+        }
+        // nothing to compare the position with yet, so poll again soon rather than waiting
+        // the idle interval to find out that the media is playing
+        return previous == null || previous.getPosition() < 0
+                || status.getPosition() != previous.getPosition();
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread th = new Thread(r);
+                th.setName("2nd Screen Status");
+                th.setDaemon(true);
+                return th;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+        }
+        return executor;
+    }
+
+    /**
+     * The share of the subscription held by one subscriber.
+     */
+    private static class Handle implements ServiceSubscription<MediaStatusListener> {
+        private final MediaStatusSubscription subscription;
+        private final CopyOnWriteArrayList<MediaStatusListener> listeners = new CopyOnWriteArrayList<>();
+
+        Handle(MediaStatusSubscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public MediaStatusListener addListener(MediaStatusListener listener) {
+            if (listener != null && listeners.addIfAbsent(listener)) {
+                subscription.attach(listener);
+            }
+            return listener;
+        }
+
+        @Override
+        public void removeListener(MediaStatusListener listener) {
+            if (listeners.remove(listener)) {
+                subscription.detach(listener);
+            }
+        }
+
+        @Override
+        public List<MediaStatusListener> getListeners() {
+            return new ArrayList<>(listeners);
+        }
+
+        @Override
+        public void unsubscribe() {
+            for (MediaStatusListener listener : listeners) {
+                removeListener(listener);
+            }
+        }
+    }
+
+    /**
+     * The requests of a single {@link #fetch}: the position first, then whatever cannot be
+     * reused from the previous status.
+     */
+    private static class StatusFetch {
+        private final MediaControl mediaControl;
+        private final MediaStatus previous;
+        private final MediaStatusListener listener;
+
+        private boolean hasPosition = true;
+        private boolean hasDuration = true;
+        private boolean hasPlayState = true;
+
+        private PlayStateStatus playState;
+        private long position = MediaStatus.UNKNOWN_TIME;
+        private long duration = MediaStatus.UNKNOWN_TIME;
+        private ServiceCommandError error;
+        private int requests;
+        private int errors;
+        private int pending;
+
+        StatusFetch(MediaControl mediaControl, MediaStatus previous, MediaStatusListener listener) {
+            this.mediaControl = mediaControl;
+            this.previous = previous;
+            this.listener = listener;
+        }
+
+        void start() {
+            if (mediaControl instanceof DeviceService) {
+                DeviceService service = (DeviceService) mediaControl;
+                hasPosition = service.hasCapability(MediaControl.Position);
+                hasDuration = service.hasCapability(MediaControl.Duration);
+                hasPlayState = service.hasCapability(MediaControl.PlayState)
+                        && !service.hasCapability(MediaControl.PlayState_Subscribe);
+            }
+            if (!hasPosition && !hasDuration && !hasPlayState) {
+                Util.postError(listener, ServiceCommandError.notSupported());
+                return;
+            }
+            if (!hasPosition) {
+                requestOthers();
+                return;
+            }
+
+            synchronized (this) {
+                requests++;
+            }
+            mediaControl.getPosition(new MediaControl.PositionListener() {
+                @Override
+                public void onSuccess(Long position) {
+                    synchronized (StatusFetch.this) {
+                        if (position != null) {
+                            StatusFetch.this.position = position;
+                        }
+                    }
+                    requestOthers();
+                }
+
+                @Override
+                public void onError(ServiceCommandError error) {
+                    failed(error);
+                    requestOthers();
+                }
+            });
+        }
+
+        private void requestOthers() {
+            boolean requestDuration;
+            boolean requestPlayState;
+            synchronized (this) {
+                requestDuration = hasDuration;
+                requestPlayState = hasPlayState;
+                if (previous != null && position >= 0) {
+                    if (previous.getDuration() > 0 && position >= previous.getPosition()) {
+                        duration = previous.getDuration();
+                        requestDuration = false;
+                    }
+                    if (previous.getPlayState() == PlayStateStatus.Playing && position > previous.getPosition()) {
+                        playState = PlayStateStatus.Playing;
+                        requestPlayState = false;
+                    }
+                }
+                pending = (requestDuration ? 1 : 0) + (requestPlayState ? 1 : 0);
+                requests += pending;
+            }
+
+            if (!requestDuration && !requestPlayState) {
+                finish();
+                return;
+            }
+            if (requestDuration) {
+                mediaControl.getDuration(new MediaControl.DurationListener() {
+                    @Override
+                    public void onSuccess(Long duration) {
+                        synchronized (StatusFetch.this) {
+                            if (duration != null) {
+                                StatusFetch.this.duration = duration;
+                            }
+                        }
+                        answered();
+                    }
+
+                    @Override
+                    public void onError(ServiceCommandError error) {
+                        failed(error);
+                        answered();
+                    }
+                });
+            }
+            if (requestPlayState) {
+                mediaControl.getPlayState(new PlayStateListener() {
+                    @Override
+                    public void onSuccess(PlayStateStatus playState) {
+                        synchronized (StatusFetch.this) {
+                            StatusFetch.this.playState = playState;
+                        }
+                        answered();
+                    }
+
+                    @Override
+                    public void onError(ServiceCommandError error) {
+                        failed(error);
+                        answered();
+                    }
+                });
+            }
+        }
+
+        private synchronized void failed(ServiceCommandError error) {
+            this.error = error;
+            errors++;
+        }
+
+        private void answered() {
+            synchronized (this) {
+                if (--pending > 0) {
+                    return;
+                }
+            }
+            finish();
+        }
+
+        private void finish() {
+            MediaStatus status;
+            ServiceCommandError error;
+            synchronized (this) {
+                error = errors == requests ? this.error : null;
+                status = new MediaStatus(playState, position, duration, null);
+            }
+
+            if (error != null) {
+                Util.postError(listener, error);
+            } else {
+                Util.postSuccess(listener, status);
+            }
+        }
+    }
+}
@@ -40,6 +40,7 @@ public class ServiceCommand {
     protected Object payload;
     private final boolean isWebOS;
     protected String target;
+    protected String coalesceKey;
 
     int requestId;
 
@@ -119,6 +120,30 @@ public class ServiceCommand {
         return isWebOS;
     }
 
+    public String getCoalesceKey() {
+        return coalesceKey;
+    }
+
+    /**
+     * Marks the command as mergeable with other queued commands that have the same key.
+     * Used by ServiceCommandScheduler to drop superseded commands (volume, seek, etc).
+     */
+    public void setCoalesceKey(String coalesceKey) {
+        this.coalesceKey = coalesceKey;
+    }
+
+    /**
+     * Merges this command with a pending command that has the same coalesce key and has not
+     * been sent yet. The returned command is sent in place of both. By default the newer command
+     * simply supersedes the pending one; subclasses may combine payloads instead.
+     *
+     * @param pending queued command with the same coalesce key
+     * @return command to send
+     */
+    public ServiceCommand coalesce(ServiceCommand pending) {
+        return this;
+    }
+
     public interface ServiceCommandProcessor {
         void unsubscribe(URLServiceSubscription<?> subscription);
 
@@ -0,0 +1,250 @@
+/*
+ * ServiceCommandScheduler
+ * Connect SDK
+ *
+ * Copyright (c) 2015 LG Electronics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.connectsdk.service.command;
+
+import com.connectsdk.core.Util;
+import com.connectsdk.service.capability.listeners.ResponseListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-service queue that sends ServiceCommands in submission order.
+ * <p>
+ * Commands that carry a coalesce key are limited to a fixed number in flight per key, and a
+ * new one replaces the most recently queued command if that has the same key (see
+ * {@link ServiceCommand#coalesce(ServiceCommand)}). A burst of volume or seek changes thus
+ * results in one request per round trip for the latest value. Every listener of a merged
+ * command is notified with the result of the request that was actually sent. Commands without
+ * a key are not limited; they are sent as soon as the commands queued before them are.
+ */
+public class ServiceCommandScheduler {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1;
+    public static final int DEFAULT_MAX_QUEUE_DEPTH = 64;
+
+    /**
+     * Sends a command to the device without any scheduling. The command's response listener
+     * must eventually be notified, otherwise the in-flight slot is never released.
+     */
+    public interface Dispatcher {
+        void dispatch(ServiceCommand command);
+    }
+
+    private final Dispatcher dispatcher;
+    private final LinkedList<Entry> queue = new LinkedList<>();
+
+    private int inFlight;
+    private final Map<String, Integer> inFlightByKey = new HashMap<>();
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int maxQueueDepth = DEFAULT_MAX_QUEUE_DEPTH;
+
+    public ServiceCommandScheduler(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Queues a command for sending. If the queue already holds maxQueueDepth commands and the
+     * command cannot be merged into one of them, it is rejected with an error.
+     */
+    public void submit(ServiceCommand command) {
+        boolean rejected = false;
+
+        synchronized (this) {
+            // merging into an older entry would move the command ahead of the ones queued after it
+            String key = command.getCoalesceKey();
+            Entry last = queue.peekLast();
+            if (key != null && last != null && key.equals(last.command.getCoalesceKey())) {
+                ServiceCommand merged = command.coalesce(last.command);
+                last.addListener(command.getResponseListener());
+                last.addListener(merged.getResponseListener());
+                last.command = merged;
+                return;
+            }
+
+            if (queue.size() >= maxQueueDepth) {
+                rejected = true;
+            } else {
+                queue.add(new Entry(command));
+            }
+        }
+
+        if (rejected) {
+            Util.postError(command.getResponseListener(), new ServiceCommandError(0, "Command queue is full", null));
+            return;
+        }
+
+        drain();
+    }
+
+    /**
+     * @return number of commands waiting to be sent
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of commands sent and still waiting for a response
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    public synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets how many commands with the same coalesce key may wait for a response at the same
+     * time. With 1 (the default) the next one is held back, and merged with newer ones, until the
+     * device has answered the previous one. Commands without a key are not limited.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        synchronized (this) {
+            this.maxInFlight = maxInFlight;
+        }
+        drain();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public synchronized void setMaxQueueDepth(int maxQueueDepth) {
+        if (maxQueueDepth < 1) {
+            throw new IllegalArgumentException("maxQueueDepth must be positive");
+        }
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    private void drain() {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                entry = queue.peek();
+                if (entry == null) {
+                    return;
+                }
+
+                String key = entry.command.getCoalesceKey();
+                Integer count = key != null ? inFlightByKey.get(key) : null;
+                if (count != null && count >= maxInFlight) {
+                    // the commands queued after it wait too, so that they keep their order
+                    return;
+                }
+
+                queue.poll();
+                inFlight++;
+                if (key != null) {
+                    inFlightByKey.put(key, count != null ? count + 1 : 1);
+                }
+                entry.key = key;
+            }
+
+            entry.dispatch();
+        }
+    }
+
+    private void release(String key) {
+        synchronized (this) {
+            inFlight--;
+            if (key != null) {
+                Integer count = inFlightByKey.remove(key);
+                if (count != null && count > 1) {
+                    inFlightByKey.put(key, count - 1);
+                }
+            }
+        }
+        drain();
+    }
+
+    private class Entry implements ResponseListener<Object> {
+        ServiceCommand command;
+        /* Coalesce key the command was counted under when it was sent */
+        String key;
+        ResponseListener<Object> previousListener;
+        final List<ResponseListener<Object>> listeners = new ArrayList<>(1);
+        boolean completed;
+
+        Entry(ServiceCommand command) {
+            this.command = command;
+            addListener(command.getResponseListener());
+        }
+
+        void addListener(ResponseListener<Object> listener) {
+            if (listener == null || listener == this) {
+                return;
+            }
+            for (ResponseListener<Object> l : listeners) {
+                if (l == listener) {
+                    return;
+                }
+            }
+            listeners.add(listener);
+        }
+
+        void dispatch() {
+            previousListener = command.responseListener;
+            command.responseListener = this;
+
+            try {
+                dispatcher.dispatch(command);
+            } catch (RuntimeException e) {
+                onError(new ServiceCommandError(0, e.getMessage(), null));
+            }
+        }
+
+        private boolean complete() {
+            synchronized (this) {
+                if (completed) {
+                    return false;
+                }
+                completed = true;
+            }
+            command.responseListener = previousListener;
+            release(key);
+            return true;
+        }
+
+        @Override
+        public void onSuccess(Object any) {
+            if (complete()) {
+                for (ResponseListener<Object> listener : listeners) {
+                    listener.onSuccess(any);
+                }
+            }
+        }
+
+        @Override
+        public void onError(ServiceCommandError error) {
+            if (complete()) {
+                for (ResponseListener<Object> listener : listeners) {
+                    listener.onError(error);
+                }
+            }
+        }
+    }
+}
@@ -20,21 +20,12 @@
 
 package com.connectsdk.service.netcast;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Locale;
-import java.util.TimeZone;
+import java.util.Queue;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -49,16 +40,31 @@ import android.util.Log;
 import com.connectsdk.core.ChannelInfo;
 import com.connectsdk.core.TextInputStatusInfo;
 import com.connectsdk.core.Util;
+import com.connectsdk.etc.helper.AsyncHttpServer;
 import com.connectsdk.service.NetcastTVService;
 import com.connectsdk.service.capability.listeners.ResponseListener;
 import com.connectsdk.service.command.URLServiceSubscription;
 
+/**
+ * Receives the UDAP event notifications of a Netcast TV. Requests are read by an
+ * {@link AsyncHttpServer} and answered as soon as they are complete; the events are parsed and
+ * dispatched in order on a background thread, so a burst of events does not hold up the TV.
+ */
 public class NetcastHttpServer {
     /** @noinspection unused*/
     static final String UDAP_PATH_EVENT = "/udap/api/event";
 
+    /* Older TVs send the event without Content-Length and leave the connection open */
+    private static final String UNFRAMED_BODY_END = "</envelope>";
+
+    private static final String SERVER = "Android/" + android.os.Build.VERSION.RELEASE + " UDAP/2.0 ConnectSDK/1.2.1";
+
+    /* Parsers are reused by the dispatching threads instead of being created per event */
+    private static final SAXParserFactory SAX_PARSER_FACTORY = SAXParserFactory.newInstance();
+    private static final ThreadLocal<SAXParser> SAX_PARSERS = new ThreadLocal<>();
+
     NetcastTVService service;
-    ServerSocket welcomeSocket;
+    AsyncHttpServer server;
     ResponseListener<String> textChangedListener;
 
     int port;
@@ -67,219 +73,190 @@ public class NetcastHttpServer {
 
     boolean running = false;
 
+    private final Queue<String> events = new ArrayDeque<>();
+    private boolean dispatching;
+
     public NetcastHttpServer(NetcastTVService service, int port, ResponseListener<String> textChangedListener) {
         this.service = service;
         this.port = port;
         this.textChangedListener = textChangedListener;
     }
 
-    public void start() {
-        //TODO: this method is too complex and should be refactored
+    public synchronized void start() {
         if (running)
             return;
 
         running = true;
 
+        server = new AsyncHttpServer(port, this::handleRequest);
+        server.setUnframedBodyEnd(UNFRAMED_BODY_END);
         try {
-            welcomeSocket = new ServerSocket(this.port);
+            server.start();
         } catch (IOException ex) {
-            ex.printStackTrace();
+            Log.e(Util.T, "Cannot receive Netcast events on port " + port, ex);
+            server = null;
+            running = false;
         }
+    }
 
-        while (running) {
-            if (welcomeSocket == null || welcomeSocket.isClosed()) {
-                stop();
-                break;
-            }
+    public synchronized void stop() {
+        if (!running)
+            return;
 
-            Socket connectionSocket;
-            BufferedReader inFromClient = null;
-            DataOutputStream outToClient = null;
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
 
-            try {
-                connectionSocket = welcomeSocket.accept();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                // this socket may have been closed, so we'll stop
-                stop();
-                return;
-            }
+        running = false;
+    }
 
-            String str;
-            int c;
-            StringBuilder sb = new StringBuilder();
+    public void setSubscriptions(List<URLServiceSubscription<?>> subscriptions) {
+        this.subscriptions = subscriptions;
+    }
 
-            try {
-                inFromClient = new BufferedReader(new InputStreamReader(connectionSocket.getInputStream()));
+    /* Called on the I/O thread of the server */
+    private AsyncHttpServer.Response handleRequest(AsyncHttpServer.Request request) {
+        String body = new String(request.getBody(), StandardCharsets.UTF_8);
 
-                while ((str = inFromClient.readLine()) != null) {
-                    if (str.isEmpty()) {
-                        break;
-                    }
-                }
+        Log.d(Util.T, "got message body: " + body);
 
-                while ((c = inFromClient.read()) != -1) {
-                    sb.append((char)c);
-                    String temp = sb.toString();
+        synchronized (events) {
+            events.add(body);
+            if (!dispatching) {
+                dispatching = true;
+                Util.runInBackground(this::dispatchEvents, true);
+            }
+        }
+
+        return new AsyncHttpServer.Response(200, "OK")
+                .setHeader("Server", SERVER)
+                .setHeader("Cache-Control", "no-store, no-cache, must-revalidate")
+                .setHeader("Date", AsyncHttpServer.httpDate(System.currentTimeMillis()));
+    }
 
-                    if (temp.endsWith("</envelope>"))
-                        break;
+    private void dispatchEvents() {
+        while (true) {
+            String body;
+            boolean superseded;
+            synchronized (events) {
+                body = events.poll();
+                if (body == null) {
+                    dispatching = false;
+                    return;
                 }
-            } catch (IOException ex) {
-                ex.printStackTrace();
+                String next = events.peek();
+                // every TextEdited event carries the whole text, only the last of a run matters
+                superseded = next != null && isTextEdited(body) && isTextEdited(next);
+            }
+            if (!superseded) {
+                handleEvent(body);
             }
+        }
+    }
+
+    private static boolean isTextEdited(String body) {
+        return body.contains("TextEdited") && !body.contains("ChannelChanged") && !body.contains("KeyboardVisible");
+    }
 
-            String body = sb.toString();
+    private void handleEvent(String body) {
+        NetcastPOSTRequestParser handler = new NetcastPOSTRequestParser();
 
-            Log.d(Util.T, "got message body: " + body);
+        try {
+            parse(body, handler);
+        } catch (IOException | ParserConfigurationException | SAXException ex) {
+            Log.e(Util.T, ex.getMessage(), ex);
+        }
 
-            Calendar calendar = Calendar.getInstance();
-            SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
-            dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-            String date = dateFormat.format(calendar.getTime());
-            String androidOSVersion = android.os.Build.VERSION.RELEASE;
+        if (body.contains("ChannelChanged")) {
+            ChannelInfo channel = NetcastChannelParser.parseRawChannelData(handler.getJSONObject());
 
-            PrintWriter out = null;
+            Log.d(Util.T, "Channel Changed: " + channel.getNumber());
 
-            try {
-                outToClient = new DataOutputStream(connectionSocket.getOutputStream());
-                out = new PrintWriter(outToClient);
-                out.println("HTTP/1.1 200 OK");
-                out.println("Server: Android/" + androidOSVersion + " UDAP/2.0 ConnectSDK/1.2.1");
-                out.println("Cache-Control: no-store, no-cache, must-revalidate");
-                out.println("Date: " + date);
-                out.println("Connection: Close");
-                out.println("Content-Length: 0");
-                out.println();
-                out.flush();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            } finally {
-                try {
-                    if (inFromClient != null) {
-                        inFromClient.close();
+            for (URLServiceSubscription<?> sub: subscriptions) {
+                if (sub.getTarget().equalsIgnoreCase("ChannelChanged")) {
+                    for (int i = 0; i < sub.getListeners().size(); i++) {
+                        @SuppressWarnings("unchecked")
+                        ResponseListener<Object> listener = (ResponseListener<Object>) sub.getListeners().get(i);
+                        Util.postSuccess(listener, channel);
                     }
-                    if (out != null) {
-                        out.close();
-                    }
-                    if (outToClient != null) {
-                        outToClient.close();
-                    }
-                    connectionSocket.close();
-                } catch (IOException ex) {
-                    ex.printStackTrace();
                 }
             }
+        }
+        else if (body.contains("KeyboardVisible")) {
+            boolean focused = false;
 
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-
-            InputStream stream = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
-
-            NetcastPOSTRequestParser handler = new NetcastPOSTRequestParser();
+            TextInputStatusInfo keyboard = new TextInputStatusInfo();
+            keyboard.setRawData(handler.getJSONObject());
 
-            SAXParser saxParser;
             try {
-                saxParser = saxParserFactory.newSAXParser();
-                saxParser.parse(stream, handler);
-            } catch (IOException | ParserConfigurationException | SAXException ex) {
-                ex.printStackTrace();
+                JSONObject currentWidget = (JSONObject) handler.getJSONObject().get("currentWidget");
+                focused = (Boolean) currentWidget.get("focus");
+                keyboard.setFocused(focused);
+            } catch (JSONException e) {
+                Log.e(Util.T,e.getMessage(),e);
             }
 
-            if (body.contains("ChannelChanged")) {
-                ChannelInfo channel = NetcastChannelParser.parseRawChannelData(handler.getJSONObject());
-
-                Log.d(Util.T, "Channel Changed: " + channel.getNumber());
+            Log.d(Util.T, "KeyboardFocused?: " + focused);
 
-                for (URLServiceSubscription<?> sub: subscriptions) {
-                    if (sub.getTarget().equalsIgnoreCase("ChannelChanged")) {
-                        for (int i = 0; i < sub.getListeners().size(); i++) {
-                            @SuppressWarnings("unchecked")
-                            ResponseListener<Object> listener = (ResponseListener<Object>) sub.getListeners().get(i);
-                            Util.postSuccess(listener, channel);
-                        }
+            for (URLServiceSubscription<?> sub: subscriptions) {
+                if (sub.getTarget().equalsIgnoreCase("KeyboardVisible")) {
+                    for (int i = 0; i < sub.getListeners().size(); i++) {
+                        @SuppressWarnings("unchecked")
+                        ResponseListener<Object> listener = (ResponseListener<Object>) sub.getListeners().get(i);
+                        Util.postSuccess(listener, keyboard);
                     }
                 }
             }
-            else if (body.contains("KeyboardVisible")) {
-                boolean focused = false;
-
-                TextInputStatusInfo keyboard = new TextInputStatusInfo();
-                keyboard.setRawData(handler.getJSONObject());
-
-                try {
-                    JSONObject currentWidget = (JSONObject) handler.getJSONObject().get("currentWidget");
-                    focused = (Boolean) currentWidget.get("focus");
-                    keyboard.setFocused(focused);
-                } catch (JSONException e) {
-                    Log.e(Util.T,e.getMessage(),e);
-                }
+        }
+        else if (body.contains("TextEdited")) {
+            System.out.println("TextEdited");
 
-                Log.d(Util.T, "KeyboardFocused?: " + focused);
+            String newValue = "";
 
-                for (URLServiceSubscription<?> sub: subscriptions) {
-                    if (sub.getTarget().equalsIgnoreCase("KeyboardVisible")) {
-                        for (int i = 0; i < sub.getListeners().size(); i++) {
-                            @SuppressWarnings("unchecked")
-                            ResponseListener<Object> listener = (ResponseListener<Object>) sub.getListeners().get(i);
-                            Util.postSuccess(listener, keyboard);
-                        }
-                    }
-                }
+            try {
+                newValue = handler.getJSONObject().getString("value");
+            } catch (JSONException ex) {
+                ex.printStackTrace();
             }
-            else if (body.contains("TextEdited")) {
-                System.out.println("TextEdited");
 
-                String newValue = "";
+            Util.postSuccess(textChangedListener, newValue);
+        }
+        else if (body.contains("3DMode")) {
+            try {
+                String enabled = (String) handler.getJSONObject().get("value");
+                boolean bEnabled;
 
-                try {
-                    newValue = handler.getJSONObject().getString("value");
-                } catch (JSONException ex) {
-                    ex.printStackTrace();
-                }
+                bEnabled = enabled.equalsIgnoreCase("true");
 
-                Util.postSuccess(textChangedListener, newValue);
-            }
-            else if (body.contains("3DMode")) {
-                try {
-                    String enabled = (String) handler.getJSONObject().get("value");
-                    boolean bEnabled;
-
-                    bEnabled = enabled.equalsIgnoreCase("true");
-
-                    for (URLServiceSubscription<?> sub: subscriptions) {
-                        if (sub.getTarget().equalsIgnoreCase("3DMode")) {
-                            for (int i = 0; i < sub.getListeners().size(); i++) {
-                                @SuppressWarnings("unchecked")
-                                ResponseListener<Object> listener = (ResponseListener<Object>) sub.getListeners().get(i);
-                                Util.postSuccess(listener, bEnabled);
-                            }
+                for (URLServiceSubscription<?> sub: subscriptions) {
+                    if (sub.getTarget().equalsIgnoreCase("3DMode")) {
+                        for (int i = 0; i < sub.getListeners().size(); i++) {
+                            @SuppressWarnings("unchecked")
+                            ResponseListener<Object> listener = (ResponseListener<Object>) sub.getListeners().get(i);
+                            Util.postSuccess(listener, bEnabled);
                         }
                     }
-                } catch (JSONException e) {
-                    Log.e(Util.T,e.getMessage(),e);
                 }
+            } catch (JSONException e) {
+                Log.e(Util.T,e.getMessage(),e);
             }
         }
     }
 
-    public void stop() {
-        if (!running)
-            return;
-
-        if (welcomeSocket != null && !welcomeSocket.isClosed()) {
-            try {
-                welcomeSocket.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
+    private static void parse(String body, NetcastPOSTRequestParser handler) throws ParserConfigurationException, SAXException, IOException {
+        SAXParser saxParser = SAX_PARSERS.get();
+        if (saxParser == null) {
+            synchronized (SAX_PARSER_FACTORY) {
+                saxParser = SAX_PARSER_FACTORY.newSAXParser();
             }
+            SAX_PARSERS.set(saxParser);
         }
 
-        welcomeSocket = null;
-        running = false;
-    }
-
-    public void setSubscriptions(List<URLServiceSubscription<?>> subscriptions) {
-        this.subscriptions = subscriptions;
+        try {
+            saxParser.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), handler);
+        } finally {
+            saxParser.reset();
+        }
     }
-
-}
\ No newline at end of file
+}
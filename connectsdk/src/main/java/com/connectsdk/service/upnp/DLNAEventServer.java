@@ -0,0 +1,224 @@
+package com.connectsdk.service.upnp;
+
+import android.util.Log;
+
+import com.connectsdk.core.Util;
+import com.connectsdk.etc.helper.AsyncHttpServer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Receives the GENA NOTIFY requests of every renderer we subscribed to on one port and hands
+ * each event to the receiver that owns its subscription id (SID).
+ * <p>
+ * There is one instance per port, shared by all DLNAHttpServers. Requests that are not
+ * well-formed event notifications are rejected as required by UPnP Device Architecture 1.1,
+ * section 4.2.2. Events are delivered once and in order: the event key (SEQ) of a SID must
+ * grow, a new initial event (SEQ 0) starts over, and duplicates or late events are answered
+ * but dropped. Renderers may send the initial event before we have read the SUBSCRIBE
+ * response, so events for an unknown SID are held for a few seconds in case it gets
+ * registered.
+ */
+class DLNAEventServer implements AsyncHttpServer.Handler {
+    interface Receiver {
+        /**
+         * Called with the lock of the event server held; must not block.
+         */
+        void onEvent(String sid, long seq, byte[] body);
+    }
+
+    static final long PENDING_EVENT_LIFETIME = 5000;
+    static final int MAX_PENDING_EVENTS = 32;
+
+    private static final long MAX_SEQ = 0xFFFFFFFFL;
+
+    private static final Map<Integer, DLNAEventServer> servers = new HashMap<>();
+
+    private static final class Subscriber {
+        final Receiver receiver;
+        long lastSeq = -1;
+
+        Subscriber(Receiver receiver) {
+            this.receiver = receiver;
+        }
+    }
+
+    private static final class PendingEvent {
+        final String sid;
+        final long seq;
+        final byte[] body;
+        final long expiry;
+
+        PendingEvent(String sid, long seq, byte[] body, long expiry) {
+            this.sid = sid;
+            this.seq = seq;
+            this.body = body;
+            this.expiry = expiry;
+        }
+    }
+
+    private final AsyncHttpServer server;
+    private final Map<String, Subscriber> subscribers = new HashMap<>();
+    private final LinkedList<PendingEvent> pendingEvents = new LinkedList<>();
+    private int users;
+
+    private DLNAEventServer(int port) {
+        server = new AsyncHttpServer(port, this);
+    }
+
+    /**
+     * Returns the server of a port, starting it for its first user.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    static DLNAEventServer acquire(int port) throws IOException {
+        synchronized (servers) {
+            DLNAEventServer eventServer = servers.get(port);
+            if (eventServer == null) {
+                eventServer = new DLNAEventServer(port);
+                eventServer.server.start();
+                servers.put(port, eventServer);
+            }
+            eventServer.users++;
+            return eventServer;
+        }
+    }
+
+    /**
+     * Stops the server once its last user released it.
+     */
+    void release() {
+        synchronized (servers) {
+            if (--users > 0) {
+                return;
+            }
+            servers.remove(server.getPort());
+            server.stop();
+        }
+    }
+
+    /**
+     * Routes the events of a SID to a receiver, including those that arrived shortly before.
+     */
+    synchronized void register(String sid, Receiver receiver) {
+        Subscriber subscriber = new Subscriber(receiver);
+        subscribers.put(sid, subscriber);
+
+        for (Iterator<PendingEvent> i = pendingEvents.iterator(); i.hasNext();) {
+            PendingEvent event = i.next();
+            if (event.sid.equals(sid)) {
+                i.remove();
+                deliver(sid, subscriber, event.seq, event.body);
+            }
+        }
+    }
+
+    synchronized void unregister(String sid, Receiver receiver) {
+        Subscriber subscriber = subscribers.get(sid);
+        if (subscriber != null && subscriber.receiver == receiver) {
+            subscribers.remove(sid);
+        }
+    }
+
+    @Override
+    public AsyncHttpServer.Response handle(AsyncHttpServer.Request request) {
+        if (!"NOTIFY".equalsIgnoreCase(request.getMethod())) {
+            return new AsyncHttpServer.Response(405, "Method Not Allowed").setHeader("Allow", "NOTIFY");
+        }
+
+        String nt = request.getHeader("NT");
+        String nts = request.getHeader("NTS");
+        if (nt == null || nts == null) {
+            return new AsyncHttpServer.Response(400, "Bad Request");
+        }
+        String sid = request.getHeader("SID");
+        if (!"upnp:event".equals(nt) || !"upnp:propchange".equals(nts) || sid == null || sid.isEmpty()) {
+            return new AsyncHttpServer.Response(412, "Precondition Failed");
+        }
+        long seq = parseSeq(request.getHeader("SEQ"));
+        if (seq < 0) {
+            return new AsyncHttpServer.Response(400, "Bad Request");
+        }
+
+        synchronized (this) {
+            Subscriber subscriber = subscribers.get(sid);
+            if (subscriber != null) {
+                deliver(sid, subscriber, seq, request.getBody());
+            } else if (!holdEvent(sid, seq, request.getBody())) {
+                return new AsyncHttpServer.Response(412, "Precondition Failed");
+            }
+        }
+        return new AsyncHttpServer.Response(200, "OK");
+    }
+
+    /* Called with the lock held, so that the receiver gets the events in order */
+    private void deliver(String sid, Subscriber subscriber, long seq, byte[] body) {
+        long lastSeq = subscriber.lastSeq;
+        if (!isNewer(seq, lastSeq)) {
+            Log.d(Util.T, "Dropping event " + seq + " of " + sid + ", already got " + lastSeq);
+            return;
+        }
+        if (lastSeq >= 0 && seq != 0 && seq != next(lastSeq)) {
+            Log.w(Util.T, "Missed events of " + sid + " between " + lastSeq + " and " + seq);
+        }
+        subscriber.lastSeq = seq;
+        subscriber.receiver.onEvent(sid, seq, body);
+    }
+
+    /* Called with the lock held */
+    private boolean holdEvent(String sid, long seq, byte[] body) {
+        long now = System.currentTimeMillis();
+        while (!pendingEvents.isEmpty() && pendingEvents.getFirst().expiry <= now) {
+            pendingEvents.removeFirst();
+        }
+        if (pendingEvents.size() >= MAX_PENDING_EVENTS) {
+            return false;
+        }
+        pendingEvents.add(new PendingEvent(sid, seq, body, now + PENDING_EVENT_LIFETIME));
+        return true;
+    }
+
+    /**
+     * @return the event key, or -1 if it is missing or not a 32 bit unsigned number
+     */
+    static long parseSeq(String seq) {
+        if (seq == null || seq.isEmpty() || seq.length() > 10) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < seq.length(); i++) {
+            char c = seq.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value <= MAX_SEQ ? value : -1;
+    }
+
+    /**
+     * Event keys go from 0 (initial event) up to 2^32 - 1, then wrap to 1.
+     */
+    static long next(long seq) {
+        return seq == MAX_SEQ ? 1 : seq + 1;
+    }
+
+    /**
+     * @return true if the event comes after the last one delivered: it is the first or an
+     * initial event, its key is greater, or the keys wrapped around since
+     */
+    static boolean isNewer(long seq, long lastSeq) {
+        if (lastSeq < 0 || seq == 0) {
+            return true;
+        }
+        if (seq > lastSeq) {
+            return true;
+        }
+        // wrapped around: the last key was near the top and the new one near the bottom
+        return lastSeq - seq > MAX_SEQ / 2;
+    }
+}
@@ -13,29 +13,34 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.xmlpull.v1.XmlPullParserException;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-/** @noinspection CharsetObjectCanBeUsed*/
-public class DLNAHttpServer {
+/**
+ * Event callback endpoint of a DLNAService. The NOTIFY requests are received by the
+ * {@link DLNAEventServer} of the port, shared with the other renderers, which hands over the
+ * events of the subscription ids registered here. Events are parsed and dispatched in order
+ * on a background thread.
+ */
+public class DLNAHttpServer implements DLNAEventServer.Receiver {
     final int port = 49291;
 
-    volatile ServerSocket welcomeSocket;
-
     volatile boolean running = false;
 
     CopyOnWriteArrayList<URLServiceSubscription<?>> subscriptions;
 
+    private DLNAEventServer eventServer;
+    private final Set<String> subscriptionIds = new HashSet<>();
+
+    private final Queue<byte[]> events = new ArrayDeque<>();
+    private boolean dispatching;
+
     public DLNAHttpServer() {
         subscriptions = new CopyOnWriteArrayList<>();
     }
@@ -48,13 +53,15 @@ public class DLNAHttpServer {
         running = true;
 
         try {
-            welcomeSocket = new ServerSocket(this.port);
+            eventServer = DLNAEventServer.acquire(this.port);
         } catch (IOException ex) {
-            ex.printStackTrace();
+            Log.e(Util.T, "Cannot receive DLNA events on port " + port, ex);
             return;
         }
 
-        Util.runInBackground(this::processRequests, true);
+        for (String sid : subscriptionIds) {
+            eventServer.register(sid, this);
+        }
     }
 
     public synchronized void stop() {
@@ -67,121 +74,83 @@ public class DLNAHttpServer {
         }
         subscriptions.clear();
 
-        if (welcomeSocket != null && !welcomeSocket.isClosed()) {
-            try {
-                welcomeSocket.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
+        if (eventServer != null) {
+            for (String sid : subscriptionIds) {
+                eventServer.unregister(sid, this);
             }
+            eventServer.release();
+            eventServer = null;
         }
+        // the subscriptions are gone, the renderers will not send events for these anymore
+        subscriptionIds.clear();
 
-        welcomeSocket = null;
         running = false;
     }
 
-    private void processRequests() {
-        while (running) {
-            if (welcomeSocket == null || welcomeSocket.isClosed()) {
-                break;
-            }
-
-            Socket connectionSocket;
-            BufferedReader inFromClient = null;
-            DataOutputStream outToClient = null;
-
-            try {
-                connectionSocket = welcomeSocket.accept();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                // this socket may have been closed, so we'll stop
-                break;
-            }
-
-            int c;
-
-            String body = null;
-
-            try {
-                inFromClient = new BufferedReader(new InputStreamReader(connectionSocket.getInputStream()));
-
-                StringBuilder sb = new StringBuilder();
-
-                while ((c = inFromClient.read()) != -1) {
-                    sb.append((char)c);
-
-                    if (sb.toString().endsWith("\r\n\r\n"))
-                        break;
-                }
-                sb = new StringBuilder();
+    /**
+     * Accepts the events sent for a subscription id returned by a SUBSCRIBE request.
+     */
+    public synchronized void addSubscriptionId(String sid) {
+        if (sid == null || !subscriptionIds.add(sid)) {
+            return;
+        }
+        if (eventServer != null) {
+            eventServer.register(sid, this);
+        }
+    }
 
-                while ((c = inFromClient.read()) != -1) {
-                    sb.append((char)c);
-                    body = sb.toString();
+    public synchronized void removeSubscriptionId(String sid) {
+        if (sid == null || !subscriptionIds.remove(sid)) {
+            return;
+        }
+        if (eventServer != null) {
+            eventServer.unregister(sid, this);
+        }
+    }
 
-                    if (body.endsWith("</e:propertyset>"))
-                        break;
-                }
-            } catch (IOException ex) {
-                ex.printStackTrace();
+    @Override
+    public void onEvent(String sid, long seq, byte[] body) {
+        synchronized (events) {
+            events.add(body);
+            if (dispatching) {
+                return;
             }
+            dispatching = true;
+        }
+        Util.runInBackground(this::dispatchEvents, true);
+    }
 
-            PrintWriter out = null;
-
-            try {
-                outToClient = new DataOutputStream(connectionSocket.getOutputStream());
-                out = new PrintWriter(outToClient);
-                out.println("HTTP/1.1 200 OK");
-                out.println("Connection: Close");
-                out.println("Content-Length: 0");
-                out.println();
-                out.flush();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            } finally {
-                try {
-                    if (inFromClient != null) {
-                        inFromClient.close();
-                    }
-                    if (out != null) {
-                        out.close();
-                    }
-                    if (outToClient != null) {
-                        outToClient.close();
-                    }
-                    connectionSocket.close();
-                } catch (IOException | NullPointerException ex) {
-                    ex.printStackTrace();
+    private void dispatchEvents() {
+        while (true) {
+            byte[] body;
+            synchronized (events) {
+                body = events.poll();
+                if (body == null) {
+                    dispatching = false;
+                    return;
                 }
             }
+            handleEvent(body);
+        }
+    }
 
-            if (body == null)
-                continue;
-
-            InputStream stream = null;
-
-            try {
-                stream = new ByteArrayInputStream(body.getBytes("UTF-8"));
-            } catch (UnsupportedEncodingException ex) {
-                ex.printStackTrace();
-            }
-
-            JSONArray propertySet;
-            DLNANotifyParser parser = new DLNANotifyParser();
+    private void handleEvent(byte[] body) {
+        JSONArray propertySet;
+        DLNANotifyParser parser = new DLNANotifyParser();
 
-            try {
-                propertySet = parser.parse(stream);
+        try {
+            propertySet = parser.parse(new ByteArrayInputStream(body));
 
-                for (int i = 0; i < propertySet.length(); i++) {
-                    JSONObject property = propertySet.getJSONObject(i);
+            for (int i = 0; i < propertySet.length(); i++) {
+                JSONObject property = propertySet.getJSONObject(i);
 
-                    if (property.has("LastChange")) {
-                        JSONObject lastChange = property.getJSONObject("LastChange");
-                        handleLastChange(lastChange);
-                    }
+                if (property.has("LastChange")) {
+                    JSONObject lastChange = property.getJSONObject("LastChange");
+                    handleLastChange(lastChange);
                 }
-            } catch (XmlPullParserException | IOException | JSONException e) {
-                Log.e(Util.T,e.getMessage(),e);
             }
+        } catch (XmlPullParserException | IOException | JSONException e) {
+            Log.e(Util.T,e.getMessage(),e);
         }
     }
 
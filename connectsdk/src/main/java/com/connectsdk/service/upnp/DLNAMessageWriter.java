@@ -0,0 +1,263 @@
+package com.connectsdk.service.upnp;
+
+import java.util.Map;
+
+/**
+ * Writes the SOAP requests and DIDL-Lite metadata sent by DLNAService without building a DOM.
+ * <p>
+ * The markup is made of constant fragments; only parameter values are escaped, straight into
+ * a per-thread buffer. The output is the same as serializing the equivalent DOM with the
+ * platform Transformer: namespace declarations come before the other attributes, which are
+ * sorted by name, elements without text are written as empty-element tags, and characters
+ * are escaped the way the serializer does. Element names are not checked and must be valid.
+ */
+public class DLNAMessageWriter {
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final String ENVELOPE_START = "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+            + "s:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\"><s:Body>";
+    private static final String ENVELOPE_END = "</s:Body></s:Envelope>";
+
+    private static final String DIDL_START = "<DIDL-Lite xmlns=\"urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/\" "
+            + "xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:sec=\"http://www.sec.co.kr/\" "
+            + "xmlns:upnp=\"urn:schemas-upnp-org:metadata-1-0/upnp/\">"
+            + "<item id=\"1000\" parentID=\"0\" restricted=\"0\">";
+    private static final String DIDL_END = "</item></DIDL-Lite>";
+
+    /* Buffers larger than this are not kept for the next message */
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final ThreadLocal<DLNAMessageWriter> WRITER = new ThreadLocal<DLNAMessageWriter>() {
+        @Override
+        protected DLNAMessageWriter initialValue() {
+            return new DLNAMessageWriter();
+        }
+    };
+
+    private final StringBuilder sb = new StringBuilder(1024);
+
+    /* High surrogate that ended the previous value, see appendSpecial() */
+    private char pendingHighSurrogate;
+
+    private DLNAMessageWriter() {
+    }
+
+    /**
+     * Writes a SOAP request invoking a UPnP action.
+     *
+     * @param instanceId value of the InstanceID argument, or null to omit it
+     * @param params     further arguments in order, null values giving empty elements
+     */
+    public static String soapMessage(String serviceURN, String method, String instanceId,
+                                     Map<String, String> params) {
+        DLNAMessageWriter writer = start();
+        StringBuilder sb = writer.sb;
+        sb.append(XML_DECLARATION).append(ENVELOPE_START);
+
+        sb.append("<u:").append(method).append(" xmlns:u=\"");
+        writer.appendAttributeValue(serviceURN);
+        sb.append('"');
+
+        boolean empty = instanceId == null && (params == null || params.isEmpty());
+        if (empty) {
+            sb.append("/>");
+        } else {
+            sb.append('>');
+            if (instanceId != null) {
+                writer.appendElement("InstanceID", instanceId);
+            }
+            if (params != null) {
+                for (Map.Entry<String, String> entry : params.entrySet()) {
+                    writer.appendElement(entry.getKey(), entry.getValue());
+                }
+            }
+            sb.append("</u:").append(method).append('>');
+        }
+
+        sb.append(ENVELOPE_END);
+        return writer.finish();
+    }
+
+    /**
+     * Writes the DIDL-Lite description of a single media item.
+     *
+     * @param mediaURL     already encoded media URL
+     * @param iconURL      already encoded album art URL
+     * @param objectClass  UPnP class of the item, e.g. object.item.videoItem
+     * @param subtitleURL  subtitle URL, ignored if subtitleType is null
+     * @param subtitleMimeType mime type announced for the subtitle resource
+     * @param subtitleType subtitle format such as srt, or null if there is no subtitle
+     */
+    public static String didlMetadata(String mediaURL, String mime, String title, String description,
+                                      String iconURL, String objectClass, String subtitleURL,
+                                      String subtitleMimeType, String subtitleType) {
+        DLNAMessageWriter writer = start();
+        StringBuilder sb = writer.sb;
+        sb.append(DIDL_START);
+
+        writer.appendElement("dc:title", title);
+        writer.appendElement("dc:description", description);
+
+        sb.append("<res");
+        if (subtitleType != null) {
+            sb.append(" xmlns:pv=\"http://www.pv.com/pvns/\"");
+        }
+        sb.append(" protocolInfo=\"http-get:*:");
+        writer.appendAttributeValue(mime);
+        sb.append(":DLNA.ORG_OP=01\"");
+        if (subtitleType != null) {
+            sb.append(" pv:subtitleFileType=\"");
+            writer.appendAttributeValue(subtitleType);
+            sb.append("\" pv:subtitleFileUri=\"");
+            writer.appendAttributeValue(subtitleURL);
+            sb.append('"');
+        }
+        writer.appendContent("res", mediaURL);
+
+        writer.appendElement("upnp:albumArtURI", iconURL);
+        writer.appendElement("upnp:class", objectClass);
+
+        if (subtitleType != null) {
+            sb.append("<res protocolInfo=\"http-get:*:smi/caption\"");
+            writer.appendContent("res", subtitleURL);
+
+            sb.append("<res protocolInfo=\"http-get:*:");
+            writer.appendAttributeValue(subtitleMimeType);
+            sb.append(":\"");
+            writer.appendContent("res", subtitleURL);
+
+            sb.append("<sec:CaptionInfoEx sec:type=\"");
+            writer.appendAttributeValue(subtitleType);
+            sb.append('"');
+            writer.appendContent("sec:CaptionInfoEx", subtitleURL);
+
+            sb.append("<sec:CaptionInfo sec:type=\"");
+            writer.appendAttributeValue(subtitleType);
+            sb.append('"');
+            writer.appendContent("sec:CaptionInfo", subtitleURL);
+        }
+
+        sb.append(DIDL_END);
+        return writer.finish();
+    }
+
+    private static DLNAMessageWriter start() {
+        DLNAMessageWriter writer = WRITER.get();
+        writer.sb.setLength(0);
+        writer.pendingHighSurrogate = 0;
+        return writer;
+    }
+
+    private String finish() {
+        String result = sb.toString();
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            WRITER.remove();
+        }
+        return result;
+    }
+
+    private void appendElement(String name, String text) {
+        sb.append('<').append(name);
+        appendContent(name, text);
+    }
+
+    /* Closes the start tag of the element, then writes its text and end tag */
+    private void appendContent(String name, String text) {
+        if (text == null || text.isEmpty()) {
+            sb.append("/>");
+            return;
+        }
+        sb.append('>');
+        appendText(text);
+        sb.append("</").append(name).append('>');
+    }
+
+    private void appendText(String text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '\t':
+                case '\n':
+                    sb.append(c);
+                    break;
+                default:
+                    if (c < 0x20 || (c >= 0x7f && c <= 0x9f) || Character.isSurrogate(c)) {
+                        i = appendSpecial(text, i);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+    }
+
+    private void appendAttributeValue(String value) {
+        if (value == null) {
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    if (c < 0x20 || Character.isSurrogate(c)) {
+                        i = appendSpecial(value, i);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Writes a character the serializer emits as a character reference, a surrogate pair giving
+     * one reference. The serializer quirks are kept: a high surrogate ending a value is held
+     * back and combined with a low surrogate starting the next special character, and any other
+     * unpaired high surrogate is rejected.
+     *
+     * @return index of the last char consumed
+     */
+    private int appendSpecial(String s, int i) {
+        char c = s.charAt(i);
+        if (pendingHighSurrogate != 0) {
+            if (!Character.isLowSurrogate(c)) {
+                throw new IllegalArgumentException("Invalid UTF-16 surrogate pair");
+            }
+            appendCharRef(Character.toCodePoint(pendingHighSurrogate, c));
+            pendingHighSurrogate = 0;
+        } else if (!Character.isHighSurrogate(c)) {
+            appendCharRef(c);
+        } else if (i + 1 == s.length()) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(s.charAt(i + 1))) {
+            appendCharRef(Character.toCodePoint(c, s.charAt(++i)));
+        } else {
+            throw new IllegalArgumentException("Invalid UTF-16 surrogate at index " + i);
+        }
+        return i;
+    }
+
+    private void appendCharRef(int codePoint) {
+        sb.append("&#").append(codePoint).append(';');
+    }
+}
@@ -0,0 +1,387 @@
+package com.connectsdk.service.upnp;
+
+/**
+ * Pulls the text of a few elements out of a SOAP response in a single pass.
+ * <p>
+ * The extractor is created once for a set of element names, matched by local name, and can be
+ * reused for every response carrying them. The value of an element is its decoded text,
+ * CDATA included; elements that are empty or missing give an empty string. Responses sent
+ * entity-encoded as a whole (starting with "&amp;lt;") are decoded on the fly while scanning.
+ * Scanning stops as soon as every element has been seen.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class DLNAResponseExtractor {
+    public static final String TRACK_DURATION = "TrackDuration";
+    public static final String TRACK_META_DATA = "TrackMetaData";
+    public static final String REL_TIME = "RelTime";
+    public static final String CURRENT_TRANSPORT_STATE = "CurrentTransportState";
+    public static final String CURRENT_VOLUME = "CurrentVolume";
+    public static final String CURRENT_MUTE = "CurrentMute";
+
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    private final String[] keys;
+    private final String[] values;
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder entity = new StringBuilder();
+
+    private String source;
+    private int pos;
+    private boolean encoded;
+    private int found;
+
+    public DLNAResponseExtractor(String... keys) {
+        this.keys = keys.clone();
+        this.values = new String[keys.length];
+    }
+
+    /**
+     * Extracts the elements from the response, forgetting the values of the previous one.
+     *
+     * @return this extractor, for chaining with {@link #get(String)}
+     */
+    public DLNAResponseExtractor extract(String response) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        found = 0;
+        source = response;
+        pos = 0;
+        encoded = isEncoded(response);
+
+        if (response != null) {
+            int c;
+            while (found < keys.length && (c = read()) != -1) {
+                if (c == '<') {
+                    readMarkup();
+                }
+            }
+        }
+
+        source = null;
+        text.setLength(0);
+        return this;
+    }
+
+    /**
+     * @return the text of the element in the last response, or an empty string if it had none
+     */
+    public String get(String key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return values[i] != null ? values[i] : "";
+            }
+        }
+        throw new IllegalArgumentException("Not extracted: " + key);
+    }
+
+    /**
+     * @return true if the element was present in the last response
+     */
+    public boolean has(String key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return values[i] != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a UPnP duration such as "1:02:03" or "01:02:03.500". Fractions of a second are
+     * ignored and minutes or seconds above 59 are carried over.
+     *
+     * @return the duration in milliseconds or -1 if the string is not a H+:M+:S+ duration
+     */
+    public static long parseTime(String time) {
+        if (time == null) {
+            return -1;
+        }
+
+        long millis = 0;
+        int length = time.length();
+        int pos = 0;
+        for (int field = 0; field < 3; field++) {
+            if (field > 0) {
+                if (pos >= length || time.charAt(pos) != ':') {
+                    return -1;
+                }
+                pos++;
+            }
+
+            int start = pos;
+            long value = 0;
+            while (pos < length && pos - start < 9) {
+                char c = time.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                pos++;
+            }
+            if (pos == start) {
+                return -1;
+            }
+            millis = millis * 60 + value;
+        }
+        return millis * 1000;
+    }
+
+    private static boolean isEncoded(String response) {
+        if (response == null || response.length() < 4) {
+            return false;
+        }
+        int i = 0;
+        while (i < response.length() && response.charAt(i) <= ' ') {
+            i++;
+        }
+        return response.startsWith("&lt;", i);
+    }
+
+    /* Called after '<' */
+    private void readMarkup() {
+        int c = read();
+        if (c == '/' || c == '?') {
+            skipTo('>');
+        } else if (c == '!') {
+            skipDeclaration();
+        } else if (c != -1) {
+            readStartTag(c);
+        }
+    }
+
+    private void readStartTag(int c) {
+        text.setLength(0);
+        int localStart = 0;
+        while (c != -1 && c != '>' && c != '/' && c > ' ') {
+            if (c == ':') {
+                localStart = text.length() + 1;
+            }
+            text.append((char) c);
+            c = read();
+        }
+        int key = indexOfKey(localStart);
+
+        // attributes
+        int quote = 0;
+        int previous = 0;
+        while (c != -1 && (c != '>' || quote != 0)) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            }
+            previous = c;
+            c = read();
+        }
+
+        if (key == -1) {
+            return;
+        }
+        found++;
+        if (previous == '/' || c == -1) {
+            values[key] = "";
+        } else {
+            values[key] = readText();
+        }
+    }
+
+    private int indexOfKey(int localStart) {
+        int length = text.length() - localStart;
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            if (values[i] == null && key.length() == length) {
+                boolean match = true;
+                for (int j = 0; j < length && match; j++) {
+                    match = key.charAt(j) == text.charAt(localStart + j);
+                }
+                if (match) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /* Reads the text up to the next tag, then handles that tag */
+    private String readText() {
+        text.setLength(0);
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '&') {
+                readReference();
+            } else if (c != '<') {
+                text.append((char) c);
+            } else if (!readCDataOrComment()) {
+                String value = text.toString();
+                readMarkup();
+                return value;
+            }
+        }
+        return text.toString();
+    }
+
+    /* Called after '<' inside text; returns false if the markup is a tag */
+    private boolean readCDataOrComment() {
+        int mark = pos;
+        if (read() != '!') {
+            pos = mark;
+            return false;
+        }
+        int c = read();
+        if (c == '-') {
+            skipComment();
+            return true;
+        }
+        if (c == '[' && read() == 'C' && read() == 'D' && read() == 'A' && read() == 'T' && read() == 'A' && read() == '[') {
+            int end = 0;
+            while ((c = read()) != -1) {
+                text.append((char) c);
+                if (c == ']') {
+                    end = Math.min(end + 1, 2);
+                } else if (c == '>' && end == 2) {
+                    text.setLength(text.length() - 3);
+                    break;
+                } else {
+                    end = 0;
+                }
+            }
+            return true;
+        }
+        pos = mark;
+        return false;
+    }
+
+    /* Called after '&' inside text */
+    private void readReference() {
+        entity.setLength(0);
+        int mark = pos;
+        int c;
+        while ((c = read()) != -1 && c != ';' && entity.length() < MAX_ENTITY_LENGTH) {
+            entity.append((char) c);
+        }
+        int decoded = c == ';' ? decodeEntity(entity, 0, entity.length()) : -1;
+        if (decoded == -1) {
+            pos = mark;
+            text.append('&');
+        } else {
+            text.appendCodePoint(decoded);
+        }
+    }
+
+    /* Called after "<!" */
+    private void skipDeclaration() {
+        int mark = pos;
+        if (read() == '-' && read() == '-') {
+            skipComment();
+        } else {
+            pos = mark;
+            skipTo('>');
+        }
+    }
+
+    /* Called after "<!-" or "<!--" */
+    private void skipComment() {
+        int dashes = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '-') {
+                dashes++;
+            } else if (c == '>' && dashes >= 2) {
+                return;
+            } else {
+                dashes = 0;
+            }
+        }
+    }
+
+    private void skipTo(int end) {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c != end);
+    }
+
+    /**
+     * @return the next char of the document, decoding the entity-encoded variant on the fly,
+     * or -1 at the end
+     */
+    private int read() {
+        if (pos >= source.length()) {
+            return -1;
+        }
+        char c = source.charAt(pos++);
+        if (c != '&' || !encoded) {
+            return c;
+        }
+
+        int end = source.indexOf(';', pos);
+        if (end == -1 || end - pos > MAX_ENTITY_LENGTH) {
+            return c;
+        }
+        int decoded = decodeEntity(source, pos, end);
+        if (decoded == -1 || decoded > Character.MAX_VALUE) {
+            return c;
+        }
+        pos = end + 1;
+        return decoded;
+    }
+
+    /**
+     * Decodes the entity name or character reference found between start and end, i.e.
+     * without '&amp;' and ';'.
+     *
+     * @return the code point or -1 if it is not a predefined XML entity or a character reference
+     */
+    private static int decodeEntity(CharSequence s, int start, int end) {
+        int length = end - start;
+        if (length >= 2 && s.charAt(start) == '#') {
+            boolean hex = s.charAt(start + 1) == 'x' || s.charAt(start + 1) == 'X';
+            int radix = hex ? 16 : 10;
+            int first = hex ? start + 2 : start + 1;
+            if (first == end) {
+                return -1;
+            }
+            int value = 0;
+            for (int i = first; i < end; i++) {
+                int digit = Character.digit(s.charAt(i), radix);
+                if (digit < 0) {
+                    return -1;
+                }
+                value = value * radix + digit;
+                if (value > Character.MAX_CODE_POINT) {
+                    return -1;
+                }
+            }
+            return value;
+        }
+
+        if (regionEquals(s, start, end, "lt")) {
+            return '<';
+        } else if (regionEquals(s, start, end, "gt")) {
+            return '>';
+        } else if (regionEquals(s, start, end, "amp")) {
+            return '&';
+        } else if (regionEquals(s, start, end, "quot")) {
+            return '"';
+        } else if (regionEquals(s, start, end, "apos")) {
+            return '\'';
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(CharSequence s, int start, int end, String name) {
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (s.charAt(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -12,6 +12,8 @@ import android.view.WindowManager;
 
 import com.connectsdk.core.Util;
 import com.connectsdk.discovery.DiscoveryManager;
+import com.connectsdk.etc.helper.WebSocketConnection;
+import com.connectsdk.etc.helper.WebSocketConnection.WebSocketListener;
 import com.connectsdk.service.DeviceService.PairingType;
 import com.connectsdk.service.WebOSTVService;
 import com.connectsdk.service.capability.listeners.ResponseListener;
@@ -51,7 +53,7 @@ import java.util.HashMap;
 
 import javax.net.ssl.SSLContext;
 
-public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
+public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor, WebSocketListener {
 
     static final String WEBOS_PAIRING_PROMPT = "PROMPT";
     static final String WEBOS_PAIRING_PIN = "PIN";
@@ -70,6 +72,10 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
 
     WebOSTVTrustManager customTrustManager;  // 1.6.1 patch
 
+    URI uri;
+    SSLContext sslContext;
+    volatile WebSocketConnection webSocket;
+
     int nextRequestId = 1;
 
     State state;
@@ -101,6 +107,7 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
 
         this.mPairingType = pairingType;
         this.mConfig = config;
+        this.uri = uri;
         state = State.INITIAL;
         this.permissions = permissions;
         setDefaultManifest();
@@ -110,6 +117,7 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
         this.mPairingType = service.getPairingType();
         this.mConfig = service.getWebOSTVServiceConfig();
         this.permissions = service.getPermissions();
+        this.uri = uri;
         state = State.INITIAL;
         setDefaultManifest();
     }
@@ -178,7 +186,8 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
 
         setupSSL();
 
-//        super.connect();
+        webSocket = new WebSocketConnection(uri, sslContext, this);
+        webSocket.connect();
     }
 
     public void disconnect() {
@@ -186,7 +195,10 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
     }
 
     public void disconnectWithError(ServiceCommandError error) {
-//        this.close();
+        WebSocketConnection connection = webSocket;
+        webSocket = null;
+        if (connection != null)
+            connection.close();
 
         state = State.INITIAL;
 
@@ -760,7 +772,7 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
             this.sendMessage(headers, null);
         }
         else if (payloadType.equals("hello")) {
-//            this.send(payload.toString());
+            this.send(payload.toString());
         }
         else {
             try
@@ -779,16 +791,7 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
     }
 
     private void setSSLContext(SSLContext sslContext) {
-        //Web-Socket 1.3.7 patch
-        /*try {
-            setSocket(sslContext.getSocketFactory().createSocket());
-			setConnectionLostTimeout(0);
-        } catch (IOException e) {
-            Log.e(Util.T, "error:",e);
-        } catch (RuntimeException e) {
-            Log.e(Util.T, "error:",e);
-        }*/
-        //patch ends
+        this.sslContext = sslContext;
     }
 
     protected void setupSSL() {
@@ -808,7 +811,15 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
     }
 
     public boolean isConnected() {
-        return false;
+        WebSocketConnection connection = webSocket;
+        return connection != null && connection.isOpen();
+    }
+
+    private void send(String message) {
+        WebSocketConnection connection = webSocket;
+        if (connection == null || !connection.send(message)) {
+            handleConnectionLost(false, null);
+        }
     }
 
     public void sendMessage(JSONObject packet, JSONObject payload) {
@@ -831,7 +842,7 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
 
             Log.d(Util.T, "webOS Socket [OUT] : " + message);
 
-//            this.send(message);
+            this.send(message);
         }
         else {
             System.err.println("connection lost");
@@ -858,6 +869,51 @@ public class WebOSTVServiceSocketClient  implements ServiceCommandProcessor {
         clearRequests();
     }
 
+    @Override
+    public void onOpen(WebSocketConnection connection) {
+        if (connection != webSocket)
+            return;
+
+        handleConnected();
+    }
+
+    @Override
+    public void onMessage(WebSocketConnection connection, String message) {
+        if (connection != webSocket)
+            return;
+
+        Log.d(Util.T, "webOS Socket [IN] : " + message);
+
+        handleMessage(message);
+    }
+
+    @Override
+    public void onClose(WebSocketConnection connection, int code, String reason, boolean remote) {
+        if (connection != webSocket)
+            return;
+
+        Log.d(Util.T, "webOS Socket closed: " + code + " " + reason);
+
+        webSocket = null;
+        state = State.INITIAL;
+        handleConnectionLost(code == WebSocketConnection.CLOSE_NORMAL, null);
+    }
+
+    @Override
+    public void onError(WebSocketConnection connection, Exception ex) {
+        if (connection != webSocket)
+            return;
+
+        webSocket = null;
+        boolean connecting = state == State.CONNECTING;
+        state = State.INITIAL;
+
+        if (connecting)
+            handleConnectError(ex);
+        else
+            handleConnectionLost(false, ex);
+    }
+
     public void setServerCertificate(X509Certificate cert) {
         if (!(mConfig instanceof WebOSTVServiceConfig)) {
             mConfig = new WebOSTVServiceConfig(mConfig.getServiceUUID());
@@ -154,7 +154,8 @@ public abstract class JmDNS implements Closeable {
      * @param name
      *            name of the newly created JmDNS
      * @param threadSleepDurationMs
-     *            time in milliseconds that the JmDNS listener thread should sleep between multicast receives
+     *            longest time in milliseconds that the JmDNS listener thread sleeps between multicast receives while it is receiving more packets
+     *            of interest than it should handle
      * @return jmDNS instance
      * @exception IOException
      *                if an exception occurs during the socket creation
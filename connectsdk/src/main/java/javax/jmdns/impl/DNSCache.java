@@ -13,18 +13,21 @@
  */
 package javax.jmdns.impl;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jmdns.impl.constants.DNSRecordClass;
 import javax.jmdns.impl.constants.DNSRecordType;
-import javax.jmdns.impl.util.SimpleLockManager;
-import javax.jmdns.impl.util.SimpleLockManager.Locked;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,7 +35,9 @@ import org.slf4j.LoggerFactory;
 /**
  * A table of DNS entries. This is a map table which can handle multiple entries with the same name.
  * <p>
- * Storing multiple entries with the same name is implemented using a linked list. This is hidden from the user and can change in later implementation.
+ * The entries stored under a name are kept in an unmodifiable list that is replaced on every change, so readers never lock or copy. Writers are
+ * serialized per name by a fixed set of lock stripes. Besides the name, entries are indexed by record type, and every record is scheduled in an
+ * expiry queue at the time it next has to be refreshed or removed, so that the record reaper only looks at the records that are due.
  * </p>
  * <p>
  * Here's how to iterate over all entries:
@@ -59,9 +64,33 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
 
     private static final long   serialVersionUID    = 3024739453186759259L;
 
+    private static final int    LOCK_STRIPES        = 32;
+
     private final Logger        logger              = LoggerFactory.getLogger(DNSCache.class);
 
-    private final transient SimpleLockManager _lm = new SimpleLockManager();
+    private final transient Object[] _locks = new Object[LOCK_STRIPES];
+
+    /* Names that have at least one entry of the given type */
+    private final transient ConcurrentHashMap<DNSRecordType, Set<String>> _namesByType = new ConcurrentHashMap<>();
+
+    /* Expiry queue; an element is live only while its time matches the one recorded in _scheduled */
+    private final transient PriorityQueue<ScheduledRecord> _expiryQueue = new PriorityQueue<>();
+    private final transient Map<DNSRecord, Long> _scheduled = new IdentityHashMap<>();
+
+    private static final class ScheduledRecord implements Comparable<ScheduledRecord> {
+        final DNSRecord _record;
+        final long _time;
+
+        ScheduledRecord(DNSRecord record, long time) {
+            _record = record;
+            _time = time;
+        }
+
+        @Override
+        public int compareTo(ScheduledRecord other) {
+            return Long.compare(_time, other._time);
+        }
+    }
 
     /**
      *
@@ -76,7 +105,9 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public DNSCache(DNSCache map) {
         this(map != null ? map.size() : 1024);
         if (map != null) {
-            this.putAll(map);
+            for (DNSEntry entry : map.allValues()) {
+                this.addDNSEntry(entry);
+            }
         }
     }
 
@@ -87,6 +118,9 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
      */
     public DNSCache(int initialCapacity) {
         super(initialCapacity);
+        for (int i = 0; i < _locks.length; i++) {
+            _locks[i] = new Object();
+        }
     }
 
     // ====================================================================
@@ -100,27 +134,63 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         return new DNSCache(this);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        _namesByType.clear();
+        synchronized (_expiryQueue) {
+            _expiryQueue.clear();
+            _scheduled.clear();
+        }
+    }
+
     // ====================================================================
 
     /**
-     * Returns all entries in the cache
+     * Returns all entries in the cache. The collection is a weakly consistent view of the cache, not a copy.
      *
      * @return all entries in the cache
      */
     public Collection<DNSEntry> allValues() {
-        List<DNSEntry> allValues = new ArrayList<>();
-        Set<Entry<String, List<DNSEntry>>> entries = this.entrySet();
-        for (Entry<String, List<DNSEntry>> entry : entries) {
-            if (entry == null)
-                continue;
-            String key = entry.getKey();
-            try (Locked lock = _lm.lock(key)) {
-                List<DNSEntry> entryList = entry.getValue();
-                if (entryList != null)
-                    allValues.addAll(entryList);
+        return new EntryCollection(this.values(), null);
+    }
+
+    /**
+     * Returns all entries of the given record type. The collection is a weakly consistent view of the cache, not a copy.
+     *
+     * @param type
+     * @return entries of the given type
+     */
+    public Collection<DNSEntry> getDNSEntriesByType(DNSRecordType type) {
+        final Set<String> names = _namesByType.get(type);
+        if (names == null)
+            return Collections.emptyList();
+
+        return new EntryCollection(new AbstractCollection<List<DNSEntry>>() {
+            @Override
+            public Iterator<List<DNSEntry>> iterator() {
+                final Iterator<String> nameIterator = names.iterator();
+                return new Iterator<List<DNSEntry>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return nameIterator.hasNext();
+                    }
+
+                    @Override
+                    public List<DNSEntry> next() {
+                        return getEntryListOrEmpty(nameIterator.next());
+                    }
+                };
             }
-        }
-        return allValues;
+
+            @Override
+            public int size() {
+                return names.size();
+            }
+        }, type);
     }
 
     /**
@@ -132,13 +202,7 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public Collection<? extends DNSEntry> getDNSEntryList(String name) {
         if (name == null)
             return Collections.emptyList();
-        String key = name.toLowerCase();
-        try (Locked lock = _lm.lock(key)) {
-            List<DNSEntry> entryList = getEntryListOrEmpty(key);
-            if (entryList.isEmpty())
-                return Collections.emptyList();
-            return new ArrayList<>(entryList);
-        }
+        return getEntryListOrEmpty(name.toLowerCase());
     }
 
     /**
@@ -150,13 +214,9 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public DNSEntry getDNSEntry(DNSEntry dnsEntry) {
         if (dnsEntry == null)
             return  null;
-        String key = dnsEntry.getKey();
-        try (Locked lock = _lm.lock(key)) {
-            List<DNSEntry> entryList = getEntryListOrEmpty(key);
-            for (DNSEntry testDNSEntry : entryList) {
-                if (testDNSEntry.isSameEntry(dnsEntry))
-                    return testDNSEntry;
-            }
+        for (DNSEntry testDNSEntry : getEntryListOrEmpty(dnsEntry.getKey())) {
+            if (testDNSEntry.isSameEntry(dnsEntry))
+                return testDNSEntry;
         }
         return null;
     }
@@ -173,13 +233,9 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         if (name == null)
             return null;
         
-        String key = name.toLowerCase();
-        try (Locked lock = _lm.lock(key)) {
-            List<DNSEntry> entryList = getEntryListOrEmpty(key);
-            for (DNSEntry testDNSEntry : entryList) {
-                if (testDNSEntry.matchRecordType(type) && testDNSEntry.matchRecordClass(recordClass))
-                    return testDNSEntry;
-            }
+        for (DNSEntry testDNSEntry : getEntryListOrEmpty(name.toLowerCase())) {
+            if (testDNSEntry.matchRecordType(type) && testDNSEntry.matchRecordClass(recordClass))
+                return testDNSEntry;
         }
         return null;
     }
@@ -196,14 +252,22 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         if (name == null)
             return Collections.emptyList();
         
-        String key = name.toLowerCase();
-        ArrayList<DNSEntry> result;
-        try (Locked lock = _lm.lock(key)) {
-            List<DNSEntry> entryList = getEntryListOrEmpty(key);
-            result = new ArrayList<>(entryList);
+        List<DNSEntry> entryList = getEntryListOrEmpty(name.toLowerCase());
+        int matches = 0;
+        for (DNSEntry testDNSEntry : entryList) {
+            if (testDNSEntry.matchRecordType(type) && testDNSEntry.matchRecordClass(recordClass))
+                matches++;
+        }
+        if (matches == entryList.size())
+            return entryList;
+        if (matches == 0)
+            return Collections.emptyList();
+
+        List<DNSEntry> result = new ArrayList<>(matches);
+        for (DNSEntry testDNSEntry : entryList) {
+            if (testDNSEntry.matchRecordType(type) && testDNSEntry.matchRecordClass(recordClass))
+                result.add(testDNSEntry);
         }
-        // remove records that do not match
-        result.removeIf(testDNSEntry -> !testDNSEntry.matchRecordType(type) || (!testDNSEntry.matchRecordClass(recordClass)));
         return result;
     }
 
@@ -217,14 +281,14 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         if (dnsEntry == null)
             return false;
         String key = dnsEntry.getKey();
-        try (Locked lock = _lm.lock(key)) {
-            List<DNSEntry> entryList = this.get(key);
-            if (entryList == null) {
-                entryList = new ArrayList<>(3);
-            }
-            entryList.add(dnsEntry);
-            // re-add to the map to establish happens-before and aid visibility
-            this.put(key, entryList);
+        synchronized (lockFor(key)) {
+            List<DNSEntry> entryList = getEntryListOrEmpty(key);
+            List<DNSEntry> newList = new ArrayList<>(entryList.size() + 1);
+            newList.addAll(entryList);
+            newList.add(dnsEntry);
+            this.put(key, Collections.unmodifiableList(newList));
+            indexType(key, dnsEntry.getRecordType());
+            schedule(dnsEntry);
         }
         return true;
     }
@@ -239,19 +303,24 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         if (dnsEntry == null)
             return false;
         String key = dnsEntry.getKey();
-        try (Locked lock = _lm.lock(key)) {
+        synchronized (lockFor(key)) {
             List<DNSEntry> entryList = this.get(key);
             if (entryList == null)
                 return false;
-            boolean result = entryList.remove(dnsEntry);
+            int index = indexOf(entryList, dnsEntry);
+            if (index == -1)
+                return false;
+            List<DNSEntry> newList = new ArrayList<>(entryList);
+            DNSEntry removed = newList.remove(index);
             /* Remove from DNS cache when no records remain with this key */
-            if (entryList.isEmpty()) {
+            if (newList.isEmpty()) {
                 this.remove(key);
             } else {
-                // re-add to the map to establish happens-before and aid visibility
-                this.put(key, entryList);
+                this.put(key, Collections.unmodifiableList(newList));
             }
-            return result;
+            unindexType(key, removed.getRecordType(), newList);
+            unschedule(removed);
+            return true;
         }
     }
 
@@ -267,20 +336,76 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         if (newDNSEntry == null || existingDNSEntry == null || !newDNSEntry.getKey().equals(existingDNSEntry.getKey()))
             return false;
         String key = newDNSEntry.getKey();
-        try (Locked lock = _lm.lock(key)) {
-            List<DNSEntry> entryList = this.get(key);
-            if (entryList == null) {
-                entryList = new ArrayList<>(3);
-            } else {
-                entryList.remove(existingDNSEntry);
-            }
-            entryList.add(newDNSEntry);
-            // re-add to the map to establish happens-before and aid visibility
-            this.put(key, entryList);
+        synchronized (lockFor(key)) {
+            List<DNSEntry> newList = new ArrayList<>(getEntryListOrEmpty(key));
+            int index = indexOf(newList, existingDNSEntry);
+            if (index != -1)
+                unschedule(newList.remove(index));
+            newList.add(newDNSEntry);
+            this.put(key, Collections.unmodifiableList(newList));
+            unindexType(key, existingDNSEntry.getRecordType(), newList);
+            indexType(key, newDNSEntry.getRecordType());
+            schedule(newDNSEntry);
             return true;
         }
     }
-    
+
+    /**
+     * Moves a cached record in the expiry queue after its TTL or refresh percentage has been changed in place. A record whose next check
+     * only moved later does not need this, it is requeued when its old time comes up.
+     *
+     * @param dnsEntry
+     */
+    public void rescheduleDNSEntry(DNSEntry dnsEntry) {
+        if (dnsEntry == null)
+            return;
+        String key = dnsEntry.getKey();
+        synchronized (lockFor(key)) {
+            for (DNSEntry testDNSEntry : getEntryListOrEmpty(key)) {
+                if (testDNSEntry == dnsEntry) {
+                    schedule(dnsEntry);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the records that are due for refresh or removal out of the expiry queue. Each returned record has to be either removed or
+     * rescheduled with {@link #rescheduleDNSEntry(DNSEntry)} by the caller. Records whose TTL was extended since they were queued are requeued
+     * at their new time instead of being returned.
+     *
+     * @param now
+     *            current time
+     * @return records due at <code>now</code>
+     */
+    public List<DNSRecord> pollDueRecords(long now) {
+        List<DNSRecord> due = new ArrayList<>();
+        synchronized (_expiryQueue) {
+            ScheduledRecord head;
+            while ((head = _expiryQueue.peek()) != null && head._time <= now) {
+                _expiryQueue.poll();
+                Long time = _scheduled.get(head._record);
+                if (time == null || time != head._time)
+                    continue;
+
+                long next = head._record.getNextCheckTime();
+                if (next > now) {
+                    _scheduled.put(head._record, next);
+                    _expiryQueue.add(new ScheduledRecord(head._record, next));
+                } else {
+                    _scheduled.remove(head._record);
+                    due.add(head._record);
+                }
+            }
+        }
+        return due;
+    }
+
+    private Object lockFor(String key) {
+        return _locks[(key.hashCode() & 0x7fffffff) % _locks.length];
+    }
+
     private List<DNSEntry> getEntryListOrEmpty(String key) {
         List<DNSEntry> entryList = this.get(key);
         if (entryList == null)
@@ -288,6 +413,114 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         return entryList;
     }
 
+    /* Prefers the very same instance over an equal one, so the right record leaves the expiry queue */
+    private static int indexOf(List<DNSEntry> entryList, DNSEntry dnsEntry) {
+        for (int i = 0; i < entryList.size(); i++) {
+            if (entryList.get(i) == dnsEntry)
+                return i;
+        }
+        return entryList.indexOf(dnsEntry);
+    }
+
+    private void indexType(String key, DNSRecordType type) {
+        Set<String> names = _namesByType.get(type);
+        if (names == null) {
+            Set<String> newNames = ConcurrentHashMap.newKeySet();
+            names = _namesByType.putIfAbsent(type, newNames);
+            if (names == null)
+                names = newNames;
+        }
+        names.add(key);
+    }
+
+    private void unindexType(String key, DNSRecordType type, List<DNSEntry> remaining) {
+        for (DNSEntry entry : remaining) {
+            if (entry.getRecordType() == type)
+                return;
+        }
+        Set<String> names = _namesByType.get(type);
+        if (names != null)
+            names.remove(key);
+    }
+
+    private void schedule(DNSEntry dnsEntry) {
+        if (!(dnsEntry instanceof DNSRecord))
+            return;
+        DNSRecord record = (DNSRecord) dnsEntry;
+        long time = record.getNextCheckTime();
+        synchronized (_expiryQueue) {
+            Long current = _scheduled.get(record);
+            if (current != null && current <= time)
+                return;
+            _scheduled.put(record, time);
+            _expiryQueue.add(new ScheduledRecord(record, time));
+        }
+    }
+
+    private void unschedule(DNSEntry dnsEntry) {
+        synchronized (_expiryQueue) {
+            _scheduled.remove(dnsEntry);
+        }
+    }
+
+    /**
+     * Flattens a collection of entry lists, optionally keeping only the entries of one record type.
+     */
+    private static final class EntryCollection extends AbstractCollection<DNSEntry> {
+        private final Collection<List<DNSEntry>> _lists;
+        private final DNSRecordType _type;
+
+        EntryCollection(Collection<List<DNSEntry>> lists, DNSRecordType type) {
+            _lists = lists;
+            _type = type;
+        }
+
+        @Override
+        public Iterator<DNSEntry> iterator() {
+            final Iterator<List<DNSEntry>> listIterator = _lists.iterator();
+            return new Iterator<DNSEntry>() {
+                private List<DNSEntry> _list = Collections.emptyList();
+                private int _index;
+                private DNSEntry _next;
+
+                @Override
+                public boolean hasNext() {
+                    while (_next == null) {
+                        if (_index < _list.size()) {
+                            DNSEntry entry = _list.get(_index++);
+                            if (_type == null || entry.getRecordType() == _type)
+                                _next = entry;
+                        } else if (listIterator.hasNext()) {
+                            _list = listIterator.next();
+                            _index = 0;
+                        } else {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public DNSEntry next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    DNSEntry entry = _next;
+                    _next = null;
+                    return entry;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Iterator<DNSEntry> i = iterator(); i.hasNext(); i.next()) {
+                size++;
+            }
+            return size;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -300,14 +533,11 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
             List<DNSEntry> entryList = entry.getValue();
             if (entryList == null)
                 continue;
-            String key = entry.getKey();
-            try (Locked lock = _lm.lock(key)) {
-                if (entryList.isEmpty()) {
-                    sb.append(" : no entries");
-                } else {
-                    for (DNSEntry dnsEntry : entryList) {
-                        sb.append("\n\t\t\t").append(dnsEntry.toString());
-                    }
+            if (entryList.isEmpty()) {
+                sb.append(" : no entries");
+            } else {
+                for (DNSEntry dnsEntry : entryList) {
+                    sb.append("\n\t\t\t").append(dnsEntry.toString());
                 }
             }
         }
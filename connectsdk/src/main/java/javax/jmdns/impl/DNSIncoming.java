@@ -20,8 +20,7 @@ import javax.jmdns.impl.constants.*;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Parse an incoming DNS message into its components.
@@ -35,9 +34,54 @@ public final class DNSIncoming extends DNSMessage {
     // It is sending out target strings that don't follow the "domain name" format.
     public static boolean USE_DOMAIN_NAME_FORMAT_FOR_SRV_TARGET = true;
 
+    /**
+     * Decides from the owner name and type of a record whether it is worth decoding. Rejected records are skipped without reading their data.
+     */
+    public interface RecordFilter {
+        boolean accept(String name, DNSRecordType type);
+    }
+
+    /* Shared table of decoded domain names. It is lossy: a slot simply holds the last name that hashed to it. */
+    private static final String[] NAME_TABLE = new String[1024];
+
+    /**
+     * Returns a shared String for the given characters, so that a name seen in every announcement is only allocated once.
+     */
+    static String internName(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (NAME_TABLE.length - 1);
+
+        String name = NAME_TABLE[slot];
+        if (name != null && name.length() == length && name.hashCode() == hash) {
+            int i = 0;
+            while (i < length && name.charAt(i) == chars[start + i]) {
+                i++;
+            }
+            if (i == length) {
+                return name;
+            }
+        }
+
+        name = new String(chars, start, length);
+        NAME_TABLE[slot] = name;
+        return name;
+    }
+
     public static class MessageInputStream extends ByteArrayInputStream {
         private final Logger logger;
-        final Map<Integer, String> _names;
+
+        /* Every name decoded from this message, back to back */
+        private char[] _chars = new char[128];
+        private int _charCount;
+
+        /* Offsets of the labels read so far, in increasing order, with the range of _chars holding the name from that label on */
+        private int[] _labelOffsets = new int[8];
+        private int[] _suffixStarts = new int[8];
+        private int[] _suffixEnds = new int[8];
+        private int _labelCount;
 
         public MessageInputStream(byte[] buffer, int length, final Logger logger) {
             this(buffer, 0, length, logger);
@@ -51,7 +95,6 @@ public final class DNSIncoming extends DNSMessage {
         public MessageInputStream(byte[] buffer, int offset, int length, final Logger logger) {
             super(buffer, offset, length);
             this.logger = logger;
-            _names = new HashMap<>();
         }
 
         public int readByte() {
@@ -77,41 +120,11 @@ public final class DNSIncoming extends DNSMessage {
         }
 
         public String readUTF(int len) {
-            final StringBuilder sb = new StringBuilder(len);
-            for (int index = 0; index < len; index++) {
-                int ch = this.readUnsignedByte();
-                switch (ch >> 4) {
-                    case 0:
-                    case 1:
-                    case 2:
-                    case 3:
-                    case 4:
-                    case 5:
-                    case 6:
-                    case 7:
-                        // 0xxxxxxx
-                        break;
-                    case 12:
-                    case 13:
-                        // 110x xxxx 10xx xxxx
-                        ch = ((ch & 0x1F) << 6) | (this.readUnsignedByte() & 0x3F);
-                        index++;
-                        break;
-                    case 14:
-                        // 1110 xxxx 10xx xxxx 10xx xxxx
-                        ch = ((ch & 0x0f) << 12) | ((this.readUnsignedByte() & 0x3F) << 6) | (this.readUnsignedByte() & 0x3F);
-                        index++;
-                        index++;
-                        break;
-                    default:
-                        // 10xx xxxx, 1111 xxxx
-                        ch = ((ch & 0x3F) << 4) | (this.readUnsignedByte() & 0x0f);
-                        index++;
-                        break;
-                }
-                sb.append((char) ch);
-            }
-            return sb.toString();
+            int start = _charCount;
+            pos = appendUTF(pos, len);
+            String text = new String(_chars, start, _charCount - start);
+            _charCount = start;
+            return text;
         }
 
         protected synchronized int peek() {
@@ -119,8 +132,9 @@ public final class DNSIncoming extends DNSMessage {
         }
 
         public String readName() {
-            Map<Integer, Integer> names = new HashMap<>();
-            final StringBuilder sb = new StringBuilder();
+            final int nameStart = _charCount;
+            final int nameOffset = pos;
+            final int firstLabel = _labelCount;
             boolean finished = false;
             while (!finished) {
                 int len = this.readUnsignedByte();
@@ -130,23 +144,18 @@ public final class DNSIncoming extends DNSMessage {
                 }
                 switch (DNSLabel.labelForByte(len)) {
                     case Standard:
-                        int startAt = sb.length();
-                        int offset = pos - 1;
-                        String label = this.readUTF(len);
-                        sb.append(label).append(".");
-                        names.put(offset, startAt);
+                        addLabel(pos - 1, _charCount);
+                        pos = appendUTF(pos, len);
+                        appendChar('.');
                         break;
                     case Compressed:
                         int index = (DNSLabel.labelValue(len) << 8) | this.readUnsignedByte();
-                        String compressedLabel = _names.get(index);
-                        if (compressedLabel == null) {
+                        if (!appendName(index, nameOffset, firstLabel)) {
                             logger.warn("Bad domain name: possible circular name detected. Bad offset: 0x{} at 0x{}",
                                     Integer.toHexString(index),
                                     Integer.toHexString(pos - 2)
                                     );
-                            compressedLabel = "";
                         }
-                        sb.append(compressedLabel);
                         finished = true;
                         break;
                     case Extended:
@@ -158,9 +167,10 @@ public final class DNSIncoming extends DNSMessage {
                         logger.warn("Unsupported DNS label type: '{}'", Integer.toHexString(len & 0xC0) );
                 }
             }
-            String name = sb.toString();
-            names.forEach((index, startAt) -> _names.put(index, name.substring(startAt)));
-            return name;
+            for (int i = firstLabel; i < _labelCount; i++) {
+                _suffixEnds[i] = _charCount;
+            }
+            return internName(_chars, nameStart, _charCount - nameStart);
         }
 
         public String readNonNameString() {
@@ -168,6 +178,128 @@ public final class DNSIncoming extends DNSMessage {
             return this.readUTF(len);
         }
 
+        /**
+         * Appends the name found at a compression pointer. Labels of names read earlier are copied from the offset table; anything else, such as
+         * a name inside record data that was skipped, is decoded from the buffer. Every pointer followed must point before the one that led to
+         * it, which rules out loops.
+         *
+         * @return false if the pointer does not lead to a name
+         */
+        private boolean appendName(int offset, int limit, int labelCount) {
+            while (true) {
+                if (offset >= limit) {
+                    return false;
+                }
+                int index = Arrays.binarySearch(_labelOffsets, 0, labelCount, offset);
+                if (index >= 0) {
+                    appendChars(_suffixStarts[index], _suffixEnds[index]);
+                    return true;
+                }
+
+                limit = offset;
+                int p = offset;
+                int next = -1;
+                while (next == -1) {
+                    if (p >= count) {
+                        return false;
+                    }
+                    int len = buf[p++] & 0xFF;
+                    if (len == 0) {
+                        return true;
+                    }
+                    switch (DNSLabel.labelForByte(len)) {
+                        case Standard:
+                            p = appendUTF(p, len);
+                            appendChar('.');
+                            break;
+                        case Compressed:
+                            if (p >= count) {
+                                return false;
+                            }
+                            next = (DNSLabel.labelValue(len) << 8) | (buf[p] & 0xFF);
+                            break;
+                        default:
+                            return false;
+                    }
+                }
+                offset = next;
+            }
+        }
+
+        private void addLabel(int offset, int suffixStart) {
+            if (_labelCount == _labelOffsets.length) {
+                int size = _labelCount * 2;
+                _labelOffsets = Arrays.copyOf(_labelOffsets, size);
+                _suffixStarts = Arrays.copyOf(_suffixStarts, size);
+                _suffixEnds = Arrays.copyOf(_suffixEnds, size);
+            }
+            _labelOffsets[_labelCount] = offset;
+            _suffixStarts[_labelCount] = suffixStart;
+            _labelCount++;
+        }
+
+        private void ensureChars(int extra) {
+            if (_charCount + extra > _chars.length) {
+                _chars = Arrays.copyOf(_chars, Math.max(_chars.length * 2, _charCount + extra));
+            }
+        }
+
+        private void appendChar(char ch) {
+            ensureChars(1);
+            _chars[_charCount++] = ch;
+        }
+
+        private void appendChars(int start, int end) {
+            ensureChars(end - start);
+            System.arraycopy(_chars, start, _chars, _charCount, end - start);
+            _charCount += end - start;
+        }
+
+        /**
+         * Decodes len bytes at the given position of the buffer into _chars.
+         *
+         * @return the position after the decoded bytes
+         */
+        private int appendUTF(int from, int len) {
+            int end = Math.min(from + len, count);
+            int p = from;
+            ensureChars(end - p);
+            while (p < end) {
+                int ch = buf[p++] & 0xFF;
+                switch (ch >> 4) {
+                    case 0:
+                    case 1:
+                    case 2:
+                    case 3:
+                    case 4:
+                    case 5:
+                    case 6:
+                    case 7:
+                        // 0xxxxxxx
+                        break;
+                    case 12:
+                    case 13:
+                        // 110x xxxx 10xx xxxx
+                        ch = ((ch & 0x1F) << 6) | (byteAt(p++, end) & 0x3F);
+                        break;
+                    case 14:
+                        // 1110 xxxx 10xx xxxx 10xx xxxx
+                        ch = ((ch & 0x0f) << 12) | ((byteAt(p++, end) & 0x3F) << 6) | (byteAt(p++, end) & 0x3F);
+                        break;
+                    default:
+                        // 10xx xxxx, 1111 xxxx
+                        ch = ((ch & 0x3F) << 4) | (byteAt(p++, end) & 0x0f);
+                        break;
+                }
+                _chars[_charCount++] = (char) ch;
+            }
+            return end;
+        }
+
+        private int byteAt(int p, int end) {
+            return p < end ? buf[p] & 0xFF : 0xFF;
+        }
+
     }
 
     private final DatagramPacket     _packet;
@@ -178,6 +310,8 @@ public final class DNSIncoming extends DNSMessage {
 
     private int                      _senderUDPPayload;
 
+    private final RecordFilter       _recordFilter;
+
     /**
      * Parse a message from a datagram packet.
      *
@@ -185,8 +319,21 @@ public final class DNSIncoming extends DNSMessage {
      * @exception IOException
      */
     public DNSIncoming(DatagramPacket packet) throws IOException {
+        this(packet, null);
+    }
+
+    /**
+     * Parse a message from a datagram packet, skipping the answers the filter rejects.
+     *
+     * @param packet
+     * @param recordFilter
+     *            filter for answers, authorities and additionals, or <code>null</code> to keep all of them
+     * @exception IOException
+     */
+    public DNSIncoming(DatagramPacket packet, RecordFilter recordFilter) throws IOException {
         super(0, 0, packet.getPort() == DNSConstants.MDNS_PORT);
         this._packet = packet;
+        this._recordFilter = recordFilter;
         this._messageInputStream = new MessageInputStream(packet.getData(), packet.getLength(), this.logger);
         this._receivedTime = System.currentTimeMillis();
         this._senderUDPPayload = DNSConstants.MAX_MSG_TYPICAL;
@@ -280,6 +427,7 @@ public final class DNSIncoming extends DNSMessage {
         this._packet = packet;
         this._messageInputStream = new MessageInputStream(packet.getData(), packet.getLength(), logger);
         this._receivedTime = receivedTime;
+        this._recordFilter = null;
     }
 
     /*
@@ -337,6 +485,12 @@ public final class DNSIncoming extends DNSMessage {
         int len = _messageInputStream.readUnsignedShort();
         DNSRecord rec = null;
 
+        if (_recordFilter != null && recordType != DNSRecordType.TYPE_OPT && !_recordFilter.accept(domain, recordType)) {
+            // names inside the skipped data are still found if a later name points into it
+            _messageInputStream.skip(len);
+            return null;
+        }
+
         switch (recordType) {
             case TYPE_A: // IPv4
                 /*
@@ -0,0 +1,312 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package javax.jmdns.impl;
+
+import java.net.DatagramPacket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jmdns.impl.constants.DNSLabel;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+/**
+ * Relevance check run on every received datagram before it is parsed into a {@link DNSIncoming}.
+ * <p>
+ * The names of the questions and records are read straight from the receive buffer, and the packet is accepted as soon as one of them belongs
+ * to a service type that is browsed or registered, to the local host, or to a question sent in the last few seconds. Host announcements,
+ * i.e. responses made of address records only, are accepted as well since they complete the services of interest. Once a packet is accepted,
+ * the same rules decide which of its records are decoded, address records always being kept. Packets the filter cannot make sense of are accepted, so that {@link DNSIncoming} reports them as
+ * before.
+ * </p>
+ */
+final class DNSPacketFilter implements DNSIncoming.RecordFilter {
+
+    /* How long responses to a question we sent are accepted */
+    static final long QUESTION_LIFETIME = 5000;
+
+    /* The interests are also rebuilt periodically, e.g. to pick up a renamed local host */
+    static final long REBUILD_INTERVAL = 10000;
+
+    /* id, flags and the four section counts */
+    private static final int HEADER_LENGTH = 12;
+
+    private static final String[] ALWAYS_ACCEPTED_SUFFIXES = { "in-addr.arpa.", "ip6.arpa." };
+
+    private static final class Interests {
+        final boolean _acceptAll;
+        final String[] _suffixes;
+        final String[] _names;
+        final byte[][] _suffixBytes;
+        final byte[][] _nameBytes;
+        final long _validUntil;
+
+        Interests(boolean acceptAll, Set<String> suffixes, Set<String> names, long validUntil) {
+            _acceptAll = acceptAll;
+            _suffixes = suffixes.toArray(new String[0]);
+            _names = names.toArray(new String[0]);
+            _suffixBytes = toBytes(_suffixes);
+            _nameBytes = toBytes(_names);
+            _validUntil = validUntil;
+        }
+
+        private static byte[][] toBytes(String[] strings) {
+            byte[][] bytes = new byte[strings.length][];
+            for (int i = 0; i < strings.length; i++) {
+                bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+                for (int j = 0; j < bytes[i].length; j++) {
+                    bytes[i][j] = (byte) toLower(bytes[i][j]);
+                }
+            }
+            return bytes;
+        }
+
+        boolean matches(byte[] name, int length) {
+            for (byte[] suffix : _suffixBytes) {
+                if (length >= suffix.length && regionEquals(name, length - suffix.length, suffix)) {
+                    return true;
+                }
+            }
+            for (byte[] exact : _nameBytes) {
+                if (length == exact.length && regionEquals(name, 0, exact)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean matches(String name) {
+            for (String suffix : _suffixes) {
+                if (name.regionMatches(true, name.length() - suffix.length(), suffix, 0, suffix.length())) {
+                    return true;
+                }
+            }
+            for (String exact : _names) {
+                if (name.equalsIgnoreCase(exact)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean regionEquals(byte[] name, int from, byte[] part) {
+            for (int i = 0; i < part.length; i++) {
+                if (name[from + i] != part[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final JmDNSImpl _jmDNSImpl;
+
+    private final Map<String, Long> _questions = new ConcurrentHashMap<>();
+
+    private volatile Interests _interests;
+
+    private volatile boolean _stale = true;
+
+    /* Lower-cased name being matched, only used by the socket listener thread */
+    private byte[] _name = new byte[256];
+    private int _nameLength;
+
+    DNSPacketFilter(JmDNSImpl jmDNSImpl) {
+        _jmDNSImpl = jmDNSImpl;
+    }
+
+    /**
+     * Makes the filter recollect the interests of the JmDNS instance before the next packet.
+     */
+    void invalidate() {
+        _stale = true;
+    }
+
+    /**
+     * Accepts responses to the questions of an outgoing message for the next {@link #QUESTION_LIFETIME} milliseconds.
+     */
+    void addQuestions(DNSOutgoing out) {
+        if (out.getQuestions().isEmpty()) {
+            return;
+        }
+        long expiry = System.currentTimeMillis() + QUESTION_LIFETIME;
+        for (DNSQuestion question : out.getQuestions()) {
+            _questions.put(question.getName().toLowerCase(), expiry);
+        }
+        _stale = true;
+    }
+
+    /**
+     * @return false if no question or record name in the packet is of interest and it is not a host announcement
+     */
+    boolean accept(DatagramPacket packet) {
+        Interests interests = this.getInterests();
+        if (interests._acceptAll) {
+            return true;
+        }
+
+        byte[] buf = packet.getData();
+        int start = packet.getOffset();
+        int end = start + packet.getLength();
+        if (packet.getLength() < HEADER_LENGTH) {
+            return true;
+        }
+
+        int numQuestions = readUnsignedShort(buf, start + 4);
+        int numRecords = readUnsignedShort(buf, start + 6) + readUnsignedShort(buf, start + 8) + readUnsignedShort(buf, start + 10);
+        int pos = start + HEADER_LENGTH;
+        boolean hostRecordsOnly = numQuestions == 0 && numRecords > 0;
+
+        for (int i = 0; i < numQuestions + numRecords; i++) {
+            pos = this.readName(buf, start, pos, end);
+            if (pos < 0 || interests.matches(_name, _nameLength)) {
+                return true;
+            }
+            if (i < numQuestions) {
+                // type and class
+                pos += 4;
+            } else {
+                // type, class, ttl and data length, then the data
+                if (pos + 10 > end) {
+                    return true;
+                }
+                int type = readUnsignedShort(buf, pos);
+                if (type != DNSRecordType.TYPE_A.indexValue() && type != DNSRecordType.TYPE_AAAA.indexValue()
+                        && type != DNSRecordType.TYPE_NSEC.indexValue()) {
+                    hostRecordsOnly = false;
+                }
+                pos += 10 + readUnsignedShort(buf, pos + 8);
+            }
+            if (pos > end) {
+                return true;
+            }
+        }
+        return hostRecordsOnly;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean accept(String name, DNSRecordType type) {
+        if (type == DNSRecordType.TYPE_A || type == DNSRecordType.TYPE_AAAA) {
+            return true;
+        }
+        Interests interests = this.getInterests();
+        return interests._acceptAll || interests.matches(name);
+    }
+
+    private Interests getInterests() {
+        Interests interests = _interests;
+        long now = System.currentTimeMillis();
+        if (interests == null || _stale || now >= interests._validUntil) {
+            _stale = false;
+            interests = this.collectInterests(now);
+            _interests = interests;
+        }
+        return interests;
+    }
+
+    private Interests collectInterests(long now) {
+        Set<String> suffixes = new HashSet<>();
+        Set<String> names = new HashSet<>();
+        boolean acceptAll = !_jmDNSImpl.collectPacketInterests(suffixes, names);
+        for (String suffix : ALWAYS_ACCEPTED_SUFFIXES) {
+            suffixes.add(suffix);
+        }
+
+        long validUntil = now + REBUILD_INTERVAL;
+        for (Iterator<Map.Entry<String, Long>> i = _questions.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, Long> question = i.next();
+            long expiry = question.getValue();
+            if (expiry <= now) {
+                i.remove();
+            } else {
+                names.add(question.getKey());
+                validUntil = Math.min(validUntil, expiry);
+            }
+        }
+        return new Interests(acceptAll, suffixes, names, validUntil);
+    }
+
+    /**
+     * Reads the name at pos into _name, lower-cased and with a dot after every label, following compression pointers. Every pointer followed
+     * must point before the previous one, which rules out loops.
+     *
+     * @return the position after the name, or -1 if the name is malformed
+     */
+    private int readName(byte[] buf, int start, int pos, int end) {
+        _nameLength = 0;
+        int next = -1;
+        int limit = pos;
+        int p = pos;
+        while (true) {
+            if (p >= end) {
+                return -1;
+            }
+            int len = buf[p++] & 0xFF;
+            if (len == 0) {
+                return next != -1 ? next : p;
+            }
+            switch (DNSLabel.labelForByte(len)) {
+                case Standard:
+                    if (p + len > end) {
+                        return -1;
+                    }
+                    this.appendLabel(buf, p, len);
+                    p += len;
+                    break;
+                case Compressed:
+                    if (p >= end) {
+                        return -1;
+                    }
+                    int target = start + ((DNSLabel.labelValue(len) << 8) | (buf[p] & 0xFF));
+                    if (next == -1) {
+                        next = p + 1;
+                    }
+                    if (target >= limit) {
+                        return -1;
+                    }
+                    limit = target;
+                    p = target;
+                    break;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    private void appendLabel(byte[] buf, int from, int len) {
+        if (_nameLength + len + 1 > _name.length) {
+            byte[] name = new byte[Math.max(_name.length * 2, _nameLength + len + 1)];
+            System.arraycopy(_name, 0, name, 0, _nameLength);
+            _name = name;
+        }
+        for (int i = 0; i < len; i++) {
+            _name[_nameLength++] = (byte) toLower(buf[from + i]);
+        }
+        _name[_nameLength++] = '.';
+    }
+
+    private static int toLower(int b) {
+        return (b >= 'A' && b <= 'Z') ? b + 32 : b;
+    }
+
+    private static int readUnsignedShort(byte[] buf, int pos) {
+        return ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+    }
+}
@@ -178,6 +178,14 @@ public abstract class DNSRecord extends DNSEntry {
         return getExpirationTime(_isStaleAndShouldBeRefreshedPercentage) <= now;
     }
 
+    /**
+     * Get the time at which the record reaper has to look at this record again, i.e. when it should be refreshed or, once the refresh
+     * percentage has reached 100, when it expires.
+     */
+    long getNextCheckTime() {
+        return getExpirationTime(_isStaleAndShouldBeRefreshedPercentage);
+    }
+
     /*
     * Increment the percentage that determines whether a record needs to be refreshed.
      */
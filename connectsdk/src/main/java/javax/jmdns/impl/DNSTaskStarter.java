@@ -15,21 +15,34 @@ package javax.jmdns.impl;
 
 import java.net.InetAddress;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.jmdns.impl.tasks.DNSTask;
 import javax.jmdns.impl.tasks.RecordReaper;
 import javax.jmdns.impl.tasks.Responder;
-import javax.jmdns.impl.tasks.resolver.ServiceInfoResolver;
+import javax.jmdns.impl.tasks.resolver.ServiceInfoBatchResolver;
 import javax.jmdns.impl.tasks.resolver.ServiceResolver;
 import javax.jmdns.impl.tasks.resolver.TypeResolver;
 import javax.jmdns.impl.tasks.state.Announcer;
 import javax.jmdns.impl.tasks.state.Canceler;
 import javax.jmdns.impl.tasks.state.Prober;
 import javax.jmdns.impl.tasks.state.Renewer;
+import javax.jmdns.impl.util.NamedThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This class is used by JmDNS to start the various task required to run the DNS discovery. This interface is only there in order to support MANET modifications.
@@ -170,6 +183,11 @@ public interface DNSTaskStarter {
          */
         private final Timer     _stateTimer;
 
+        /**
+         * The service info resolver currently collecting service infos, if any.
+         */
+        private ServiceInfoBatchResolver _serviceInfoResolver;
+
         public static class StarterTimer extends Timer {
 
             // This is needed because in some case we cancel the timers before all the task have finished running and in some case they will try to reschedule
@@ -375,7 +393,13 @@ public interface DNSTaskStarter {
          */
         @Override
         public void startServiceInfoResolver(ServiceInfoImpl info) {
-            new ServiceInfoResolver(_jmDNSImpl, info).start(_timer);
+            synchronized (this) {
+                if (_serviceInfoResolver == null || !_serviceInfoResolver.add(info)) {
+                    _serviceInfoResolver = new ServiceInfoBatchResolver(_jmDNSImpl);
+                    _serviceInfoResolver.add(info);
+                    _serviceInfoResolver.start(_timer);
+                }
+            }
         }
 
         /*
@@ -406,6 +430,246 @@ public interface DNSTaskStarter {
         }
     }
 
+    /**
+     * DNSTaskStarter running the tasks of every JmDNS instance on one shared {@link ScheduledThreadPoolExecutor}, instead of two timer threads per
+     * instance. The pool threads time out when there is nothing to run. Reaper and resolver tasks are coalesced: such a task is not started while
+     * an identical one of the same JmDNS instance is still scheduled.
+     * <p>
+     * Select it with <code>DNSTaskStarter.Factory.setClassDelegate(DNSTaskStarter.ExecutorDNSTaskStarter::new)</code> before creating JmDNS.
+     * </p>
+     */
+    final class ExecutorDNSTaskStarter implements DNSTaskStarter {
+
+        private static final Logger logger = LoggerFactory.getLogger(ExecutorDNSTaskStarter.class);
+
+        private static final int POOL_SIZE = 2;
+
+        private static final long KEEP_ALIVE_SECONDS = 30;
+
+        private static ScheduledThreadPoolExecutor _sharedExecutor;
+
+        private static synchronized ScheduledThreadPoolExecutor sharedExecutor() {
+            if (_sharedExecutor == null) {
+                final ThreadFactory threadFactory = new NamedThreadFactory("JmDNS.Tasks");
+                ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(POOL_SIZE, runnable -> {
+                    Thread thread = threadFactory.newThread(runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.setRemoveOnCancelPolicy(true);
+                executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+                executor.allowCoreThreadTimeOut(true);
+                _sharedExecutor = executor;
+            }
+            return _sharedExecutor;
+        }
+
+        /**
+         * Tasks of one timer of {@link DNSTaskStarterImpl}; like {@link DNSTaskStarterImpl.StarterTimer} it ignores new tasks once cancelled.
+         */
+        private static final class TaskGroup implements DNSTask.Scheduler {
+
+            private final Set<Future<?>> _futures = ConcurrentHashMap.newKeySet();
+
+            private boolean _cancelled;
+
+            @Override
+            public synchronized void schedule(DNSTask task, long delay) {
+                if (_cancelled) return;
+                track(task, sharedExecutor().schedule(wrap(task), delay, TimeUnit.MILLISECONDS));
+            }
+
+            @Override
+            public synchronized void schedule(DNSTask task, long delay, long period) {
+                if (_cancelled) return;
+                track(task, sharedExecutor().scheduleWithFixedDelay(wrap(task), delay, period, TimeUnit.MILLISECONDS));
+            }
+
+            private void track(DNSTask task, ScheduledFuture<?> future) {
+                task.setFuture(future);
+                _futures.add(future);
+            }
+
+            /* A Timer thread dies with the first exception and takes every task with it; here only the failing run is lost */
+            private static Runnable wrap(final DNSTask task) {
+                return () -> {
+                    if (task.isCancelled()) return;
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.warn("{}.run() exception ", task.getName(), e);
+                    }
+                };
+            }
+
+            void purge() {
+                _futures.removeIf(Future::isDone);
+            }
+
+            synchronized void cancel() {
+                _cancelled = true;
+                for (Future<?> future : _futures) {
+                    future.cancel(false);
+                }
+                _futures.clear();
+            }
+        }
+
+        private final JmDNSImpl _jmDNSImpl;
+
+        private final TaskGroup _tasks = new TaskGroup();
+
+        private final TaskGroup _stateTasks = new TaskGroup();
+
+        private final Map<String, DNSTask> _coalescedTasks = new HashMap<>();
+
+        public ExecutorDNSTaskStarter(JmDNSImpl jmDNSImpl) {
+            super();
+            _jmDNSImpl = jmDNSImpl;
+        }
+
+        /* Starts the task unless one with the same key is still scheduled */
+        private void startCoalesced(String key, DNSTask task) {
+            synchronized (_coalescedTasks) {
+                DNSTask running = _coalescedTasks.get(key);
+                if (running != null && running.isActive()) {
+                    logger.trace("{} is already running", running.getName());
+                    return;
+                }
+                task.start(_tasks);
+                _coalescedTasks.put(key, task);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#purgeTimer()
+         */
+        @Override
+        public void purgeTimer() {
+            _tasks.purge();
+            synchronized (_coalescedTasks) {
+                _coalescedTasks.values().removeIf(task -> !task.isActive());
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#purgeStateTimer()
+         */
+        @Override
+        public void purgeStateTimer() {
+            _stateTasks.purge();
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#cancelTimer()
+         */
+        @Override
+        public void cancelTimer() {
+            _tasks.cancel();
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#cancelStateTimer()
+         */
+        @Override
+        public void cancelStateTimer() {
+            _stateTasks.cancel();
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startProber()
+         */
+        @Override
+        public void startProber() {
+            new Prober(_jmDNSImpl).start(_stateTasks);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startAnnouncer()
+         */
+        @Override
+        public void startAnnouncer() {
+            new Announcer(_jmDNSImpl).start(_stateTasks);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startRenewer()
+         */
+        @Override
+        public void startRenewer() {
+            new Renewer(_jmDNSImpl).start(_stateTasks);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startCanceler()
+         */
+        @Override
+        public void startCanceler() {
+            new Canceler(_jmDNSImpl).start(_stateTasks);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startReaper()
+         */
+        @Override
+        public void startReaper() {
+            startCoalesced("reaper", new RecordReaper(_jmDNSImpl));
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startServiceInfoResolver(javax.jmdns.impl.ServiceInfoImpl)
+         */
+        @Override
+        public void startServiceInfoResolver(ServiceInfoImpl info) {
+            synchronized (_coalescedTasks) {
+                ServiceInfoBatchResolver resolver = (ServiceInfoBatchResolver) _coalescedTasks.get("serviceInfo");
+                if (resolver == null || !resolver.add(info)) {
+                    resolver = new ServiceInfoBatchResolver(_jmDNSImpl);
+                    resolver.add(info);
+                    resolver.start(_tasks);
+                    _coalescedTasks.put("serviceInfo", resolver);
+                }
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startTypeResolver()
+         */
+        @Override
+        public void startTypeResolver() {
+            startCoalesced("types", new TypeResolver(_jmDNSImpl));
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startServiceResolver(java.lang.String)
+         */
+        @Override
+        public void startServiceResolver(String type) {
+            startCoalesced("type:" + type.toLowerCase(), new ServiceResolver(_jmDNSImpl, type));
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startResponder(javax.jmdns.impl.DNSIncoming, int)
+         */
+        @Override
+        public void startResponder(DNSIncoming in, InetAddress addr, int port) {
+            new Responder(_jmDNSImpl, in, addr, port).start(_tasks);
+        }
+    }
+
     /**
      * Purge the general task timer
      */
@@ -122,6 +122,8 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
 
     protected final long _threadSleepDurationMs;
 
+    private final DNSPacketFilter _packetFilter;
+
     /**
      * This is used to store type entries. The type is stored as a call variable and the map support the subtypes.
      * <p>
@@ -416,7 +418,8 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
      * @param name
      *            name of the newly created JmDNS
      * @param threadSleepDurationMs
-     *            time in milliseconds that the JmDNS listener thread should sleep between multicast receives
+     *            longest time in milliseconds that the JmDNS listener thread sleeps between multicast receives while it is receiving more packets
+     *            of interest than it should handle
      * @exception IOException
      */
     public JmDNSImpl(InetAddress address, String name, long threadSleepDurationMs) throws IOException {
@@ -436,6 +439,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         _localHost = HostInfo.newHostInfo(address, this, name);
         _name = (name != null ? name : _localHost.getName());
         _threadSleepDurationMs = threadSleepDurationMs;
+        _packetFilter = new DNSPacketFilter(this);
 
         // _cancelerTimer = new Timer("JmDNS.cancelerTimer");
 
@@ -938,6 +942,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
     public void addServiceTypeListener(ServiceTypeListener listener) {
         ServiceTypeListenerStatus status = new ServiceTypeListenerStatus(listener, ListenerStatus.ASYNCHRONOUS);
         _typeListeners.add(status);
+        _packetFilter.invalidate();
 
         // report cached service types
         for (String type : _serviceTypes.keySet()) {
@@ -954,6 +959,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
     public void removeServiceTypeListener(ServiceTypeListener listener) {
         ServiceTypeListenerStatus status = new ServiceTypeListenerStatus(listener, ListenerStatus.ASYNCHRONOUS);
         _typeListeners.remove(status);
+        _packetFilter.invalidate();
     }
 
     /**
@@ -974,6 +980,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                     // We have a problem here. The service collectors must be called synchronously so that their cache get cleaned up immediately, or we will report .
                     this.addServiceListener(loType, _serviceCollectors.get(loType), ListenerStatus.SYNCHRONOUS);
                 }
+                _packetFilter.invalidate();
             }
             list = _serviceListeners.get(loType);
         }
@@ -986,15 +993,12 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         }
         // report cached service types
         final List<ServiceEvent> serviceEvents = new ArrayList<>();
-        Collection<DNSEntry> dnsEntryLits = this.getCache().allValues();
-        for (DNSEntry entry : dnsEntryLits) {
+        for (DNSEntry entry : this.getCache().getDNSEntriesByType(DNSRecordType.TYPE_SRV)) {
             final DNSRecord record = (DNSRecord) entry;
-            if (record.getRecordType() == DNSRecordType.TYPE_SRV) {
-                if (record.getKey().endsWith(loType)) {
-                    // Do not use the record embedded method for generating event this will not work.
-                    // serviceEvents.add(record.getServiceEvent(this));
-                    serviceEvents.add(new ServiceEventImpl(this, record.getType(), toUnqualifiedName(record.getType(), record.getName()), record.getServiceInfo()));
-                }
+            if (record.getKey().endsWith(loType)) {
+                // Do not use the record embedded method for generating event this will not work.
+                // serviceEvents.add(record.getServiceEvent(this));
+                serviceEvents.add(new ServiceEventImpl(this, record.getType(), toUnqualifiedName(record.getType(), record.getName()), record.getServiceInfo()));
             }
         }
         // Actually call listener with all service events added above
@@ -1018,6 +1022,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                 list.remove(status);
                 if (list.isEmpty()) {
                     _serviceListeners.remove(loType, list);
+                    _packetFilter.invalidate();
                 }
             }
         }
@@ -1053,6 +1058,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         do {
             this.makeServiceNameUnique(info);
         } while (_services.putIfAbsent(info.getKey(), info) != null);
+        _packetFilter.invalidate();
 
         this.startProber();
 
@@ -1072,6 +1078,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
             info.waitForCanceled(DNSConstants.CLOSE_TIMEOUT);
 
             _services.remove(info.getKey(), info);
+            _packetFilter.invalidate();
             logger.debug("unregisterService() JmDNS {} unregistered service as {}", this.getName(), info);
         } else {
             logger.warn("{} removing unregistered service info: {}", this.getName(), infoAbstract.getKey());
@@ -1105,6 +1112,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                 _services.remove(name, info);
             }
         }
+        _packetFilter.invalidate();
 
     }
 
@@ -1420,6 +1428,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                         logger.trace("setWillExpireSoon() on: {}", entry);
                         // this set ttl to 1 second,
                         ((DNSRecord) entry).setWillExpireSoon(now);
+                        this.getCache().rescheduleDNSEntry(entry);
                     }
                 }
             }
@@ -1430,6 +1439,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                         cacheOperation = Operation.Noop;
                         logger.trace("Record is expired - setWillExpireSoon() on:\n\t{}", cachedRecord);
                         cachedRecord.setWillExpireSoon(now);
+                        this.getCache().rescheduleDNSEntry(cachedRecord);
                         // the actual record will be disposed of by the record reaper.
                     } else {
                         cacheOperation = Operation.Remove;
@@ -1456,6 +1466,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                         }
                     } else {
                         cachedRecord.resetTTL(newRecord);
+                        this.getCache().rescheduleDNSEntry(cachedRecord);
                         newRecord = cachedRecord;
                     }
                 }
@@ -1657,6 +1668,38 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         return newOut;
     }
 
+    DNSPacketFilter getPacketFilter() {
+        return _packetFilter;
+    }
+
+    /**
+     * Lists what a received packet has to be about to be worth parsing, see {@link DNSPacketFilter}.
+     *
+     * @param typeSuffixes
+     *            receives the browsed and registered service types; names ending with one of them are of interest
+     * @param names
+     *            receives other names of interest, i.e. the local host
+     * @return <code>false</code> if every packet is of interest because service types are being browsed
+     */
+    boolean collectPacketInterests(Set<String> typeSuffixes, Set<String> names) {
+        if (!_typeListeners.isEmpty()) {
+            return false;
+        }
+        typeSuffixes.addAll(_serviceListeners.keySet());
+        typeSuffixes.addAll(_serviceCollectors.keySet());
+        for (ServiceInfo info : _services.values()) {
+            typeSuffixes.add(info.getType().toLowerCase());
+        }
+        if (!_services.isEmpty()) {
+            // service type enumeration queries
+            typeSuffixes.add("_services._dns-sd._udp.local.");
+        }
+        if (_localHost.getName() != null) {
+            names.add(_localHost.getName().toLowerCase());
+        }
+        return true;
+    }
+
     /**
      * Send an outgoing multicast DNS message.
      *
@@ -1676,6 +1719,8 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                 port = DNSConstants.MDNS_PORT;
             }
 
+            _packetFilter.addQuestions(out);
+
             byte[] message = out.data();
             final DatagramPacket packet = new DatagramPacket(message, message.length, addr, port);
 
@@ -1906,6 +1951,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
     /**
      * Checks the cache of expired records and removes them.
      * If any records are about to expire it tries to get them refreshed.
+     * Only the records the cache reports as due are looked at.
      *
      * <p>
      * Implementation note:<br />
@@ -1919,15 +1965,15 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
 
         final long now = System.currentTimeMillis();
         final Set<String> staleServiceTypesForRefresh = new HashSet<>();
-        for (final DNSEntry entry : this.getCache().allValues()) {
+        for (final DNSRecord record : this.getCache().pollDueRecords(now)) {
             try {
-                final DNSRecord record = (DNSRecord) entry;
                 if (record.isExpired(now)) {
                     this.updateRecord(now, record, Operation.Remove);
-                    logger.trace("Removing DNSEntry from cache: {}", entry);
+                    logger.trace("Removing DNSEntry from cache: {}", record);
                     this.getCache().removeDNSEntry(record);
                 } else if (record.isStaleAndShouldBeRefreshed(now)) {
                     record.incrementRefreshPercentage();
+                    this.getCache().rescheduleDNSEntry(record);
                     String type = record.getServiceInfo().getType().toLowerCase();
                     // only query every service type once per refresh
                     if (staleServiceTypesForRefresh.add(type)) {
@@ -1936,8 +1982,10 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                     }
                 }
             } catch (Exception exception) {
-                logger.warn("{}.Error while reaping records: {}", this.getName(), entry, exception);
+                logger.warn("{}.Error while reaping records: {}", this.getName(), record, exception);
                 logger.warn(this.toString());
+                // try again on the next pass, as a full scan would
+                this.getCache().rescheduleDNSEntry(record);
             }
         }
     }
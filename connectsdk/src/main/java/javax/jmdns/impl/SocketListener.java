@@ -35,16 +35,42 @@ class SocketListener extends Thread {
         this._jmDNSImpl = jmDNSImpl;
     }
 
-    private void sleepThread() {
-        if (_jmDNSImpl._threadSleepDurationMs > 0) {
-            try {
-                // sleep a small amount of time in case the network is overloaded with mdns packets (some devices do this),
-                // in order to allow other threads to get some cpu time
-                Thread.sleep(_jmDNSImpl._threadSleepDurationMs);
-            } catch (InterruptedException e) {
-                logger.warn("{}.run() interrupted ", this.getName(), e);
-                Thread.currentThread().interrupt();
+    /* Packets of interest the listener parses per window before it starts backing off */
+    static final int PACKET_BUDGET = 100;
+    static final long PACKET_WINDOW = 1000;
+    /* Back-off cap when JmDNS was created without a thread sleep duration */
+    static final long DEFAULT_MAX_BACKOFF = 20;
+
+    private long _windowStart;
+    private int _packetsInWindow;
+    private long _backoff;
+
+    /**
+     * Rate limits the packets that get parsed. Within the budget nothing is delayed; beyond it the listener sleeps before each packet, doubling
+     * the delay up to the configured thread sleep duration, and halves it again for every window that stays within the budget.
+     */
+    private void throttle() {
+        long now = System.currentTimeMillis();
+        if (now - _windowStart >= PACKET_WINDOW) {
+            if (_packetsInWindow <= PACKET_BUDGET) {
+                _backoff /= 2;
             }
+            _windowStart = now;
+            _packetsInWindow = 0;
+        }
+        if (++_packetsInWindow <= PACKET_BUDGET) {
+            return;
+        }
+
+        long maxBackoff = _jmDNSImpl._threadSleepDurationMs > 0 ? _jmDNSImpl._threadSleepDurationMs : DEFAULT_MAX_BACKOFF;
+        _backoff = Math.min(Math.max(_backoff * 2, 1), maxBackoff);
+        try {
+            // the network is flooding us with relevant mdns packets (some devices do this),
+            // give other threads some cpu time
+            Thread.sleep(_backoff);
+        } catch (InterruptedException e) {
+            logger.warn("{}.run() interrupted ", this.getName(), e);
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -54,8 +80,9 @@ class SocketListener extends Thread {
             byte[] buf = new byte[DNSConstants.MAX_MSG_ABSOLUTE];
             DatagramPacket packet = new DatagramPacket(buf, buf.length);
 
+            DNSPacketFilter filter = this._jmDNSImpl.getPacketFilter();
+
             while (!this._jmDNSImpl.isCanceling() && !this._jmDNSImpl.isCanceled()) {
-                sleepThread();
                 packet.setLength(buf.length);
                 this._jmDNSImpl.getSocket().receive(packet);
                 if (this._jmDNSImpl.isCanceling() || this._jmDNSImpl.isCanceled() || this._jmDNSImpl.isClosing() || this._jmDNSImpl.isClosed()) {
@@ -65,8 +92,12 @@ class SocketListener extends Thread {
                     if (this._jmDNSImpl.getLocalHost().shouldIgnorePacket(packet)) {
                         continue;
                     }
+                    if (!filter.accept(packet)) {
+                        continue;
+                    }
+                    throttle();
 
-                    DNSIncoming msg = new DNSIncoming(packet);
+                    DNSIncoming msg = new DNSIncoming(packet, filter);
                     if (msg.isValidResponseCode()) {
                         if (logger.isTraceEnabled()) {
                             logger.trace("{}.run() JmDNS in:{}", this.getName(), msg.print(true));
@@ -16,6 +16,7 @@ package javax.jmdns.impl.tasks;
 import java.io.IOException;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Future;
 
 import javax.jmdns.impl.DNSIncoming;
 import javax.jmdns.impl.DNSOutgoing;
@@ -31,13 +32,48 @@ import javax.jmdns.impl.constants.DNSConstants;
  */
 public abstract class DNSTask extends TimerTask {
 
+    /**
+     * Runs tasks for a {@link javax.jmdns.impl.DNSTaskStarter}, on a {@link Timer} or on an executor. Periodic tasks run with a fixed delay until
+     * they cancel themselves.
+     */
+    public interface Scheduler {
+
+        void schedule(DNSTask task, long delay);
+
+        void schedule(DNSTask task, long delay, long period);
+    }
+
     private final JmDNSImpl jmDNS;
 
+    private volatile boolean _cancelled;
+
+    private volatile Future<?> _future;
+
     protected DNSTask(JmDNSImpl jmDNSImpl) {
         super();
         jmDNS = jmDNSImpl;
     }
 
+    /**
+     * Returns a scheduler running tasks on the given timer.
+     *
+     * @param timer task timer.
+     * @return scheduler
+     */
+    public static Scheduler schedulerFor(final Timer timer) {
+        return new Scheduler() {
+            @Override
+            public void schedule(DNSTask task, long delay) {
+                timer.schedule(task, delay);
+            }
+
+            @Override
+            public void schedule(DNSTask task, long delay, long period) {
+                timer.schedule(task, delay, period);
+            }
+        };
+    }
+
     /**
      * Return the DNS associated with this task.
      *
@@ -47,12 +83,64 @@ public abstract class DNSTask extends TimerTask {
         return jmDNS;
     }
 
+    /**
+     * Start this task.
+     *
+     * @param scheduler task scheduler.
+     */
+    public abstract void start(Scheduler scheduler);
+
     /**
      * Start this task.
      *
      * @param timer task timer.
      */
-    public abstract void start(Timer timer);
+    public void start(Timer timer) {
+        this.start(schedulerFor(timer));
+    }
+
+    /**
+     * Binds the task to the future of its executor, so that cancelling the task also stops its future executions. Called by executor based
+     * schedulers.
+     *
+     * @param future future of the scheduled task
+     */
+    public void setFuture(Future<?> future) {
+        _future = future;
+        if (_cancelled) {
+            future.cancel(false);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.TimerTask#cancel()
+     */
+    @Override
+    public boolean cancel() {
+        _cancelled = true;
+        boolean result = super.cancel();
+        Future<?> future = _future;
+        if (future != null) {
+            result |= future.cancel(false);
+        }
+        return result;
+    }
+
+    /**
+     * @return <code>true</code> once the task has been cancelled
+     */
+    public boolean isCancelled() {
+        return _cancelled;
+    }
+
+    /**
+     * @return <code>true</code> while the task is scheduled on an executor and has neither completed nor been cancelled
+     */
+    public boolean isActive() {
+        Future<?> future = _future;
+        return future != null && !future.isDone() && !_cancelled;
+    }
 
     /**
      * Return this task name.
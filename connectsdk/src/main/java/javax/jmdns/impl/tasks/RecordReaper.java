@@ -13,7 +13,6 @@
  */
 package javax.jmdns.impl.tasks;
 
-import java.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,12 +40,12 @@ public class RecordReaper extends DNSTask {
 
     /*
      * (non-Javadoc)
-     * @see javax.jmdns.impl.tasks.DNSTask#start(java.util.Timer)
+     * @see javax.jmdns.impl.tasks.DNSTask#start(javax.jmdns.impl.tasks.DNSTask.Scheduler)
      */
     @Override
-    public void start(Timer timer) {
+    public void start(Scheduler scheduler) {
         if (!this.getDns().isCanceling() && !this.getDns().isCanceled()) {
-            timer.schedule(this, DNSConstants.RECORD_REAPER_INTERVAL, DNSConstants.RECORD_REAPER_INTERVAL);
+            scheduler.schedule(this, DNSConstants.RECORD_REAPER_INTERVAL, DNSConstants.RECORD_REAPER_INTERVAL);
         }
     }
 
@@ -14,7 +14,6 @@
 package javax.jmdns.impl.tasks.resolver;
 
 import java.io.IOException;
-import java.util.Timer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,12 +54,12 @@ public abstract class DNSResolverTask extends DNSTask {
 
     /*
      * (non-Javadoc)
-     * @see javax.jmdns.impl.tasks.DNSTask#start(java.util.Timer)
+     * @see javax.jmdns.impl.tasks.DNSTask#start(javax.jmdns.impl.tasks.DNSTask.Scheduler)
      */
     @Override
-    public void start(Timer timer) {
+    public void start(Scheduler scheduler) {
         if (!this.getDns().isCanceling() && !this.getDns().isCanceled()) {
-            timer.schedule(this, DNSConstants.QUERY_WAIT_INTERVAL, DNSConstants.QUERY_WAIT_INTERVAL);
+            scheduler.schedule(this, DNSConstants.QUERY_WAIT_INTERVAL, DNSConstants.QUERY_WAIT_INTERVAL);
         }
     }
 
@@ -0,0 +1,247 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package javax.jmdns.impl.tasks.resolver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.jmdns.impl.DNSEntry;
+import javax.jmdns.impl.DNSOutgoing;
+import javax.jmdns.impl.DNSQuestion;
+import javax.jmdns.impl.DNSRecord;
+import javax.jmdns.impl.JmDNSImpl;
+import javax.jmdns.impl.ServiceInfoImpl;
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ServiceInfoBatchResolver does the work of one {@link ServiceInfoResolver} per service info, but sends the questions of all of them together.
+ * <p>
+ * Service infos added while the task is scheduled are queried from its next run on, up to three times each like with ServiceInfoResolver. Each run
+ * packs the SRV, TXT and address questions of every pending service info, without duplicates, into as few messages as the payload size allows.
+ * Cached records that are still more than half way from their expiration are listed as known answers (RFC 6762, 7.1), and the truncated flag marks
+ * messages whose known answers continue in the next one (RFC 6762, 7.2). The task cancels itself once no service info is left.
+ * </p>
+ */
+public class ServiceInfoBatchResolver extends DNSResolverTask {
+    private final Logger logger = LoggerFactory.getLogger(ServiceInfoBatchResolver.class);
+
+    private static final class Pending {
+        final ServiceInfoImpl _info;
+        int                   _count;
+
+        Pending(ServiceInfoImpl info) {
+            _info = info;
+        }
+    }
+
+    private final List<Pending> _pending  = new ArrayList<Pending>();
+
+    private boolean             _finished = false;
+
+    /**
+     * @param jmDNSImpl the JmDNS instance which belongs to this resolver task
+     */
+    public ServiceInfoBatchResolver(JmDNSImpl jmDNSImpl) {
+        super(jmDNSImpl);
+    }
+
+    /**
+     * Adds a service info to the next run of this task.
+     *
+     * @param info service info to resolve
+     * @return <code>false</code> if the task has already finished, in which case a new one has to be started
+     */
+    public boolean add(ServiceInfoImpl info) {
+        synchronized (_pending) {
+            if (_finished) {
+                return false;
+            }
+            for (Pending pending : _pending) {
+                if (pending._info == info) {
+                    pending._count = 0;
+                    return true;
+                }
+            }
+            info.setDns(this.getDns());
+            this.getDns().addListener(info, DNSQuestion.newQuestion(info.getQualifiedName(), DNSRecordType.TYPE_ANY, DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE));
+            _pending.add(new Pending(info));
+            return true;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.jmdns.impl.tasks.DNSTask#getName()
+     */
+    @Override
+    public String getName() {
+        return "ServiceInfoBatchResolver(" + (this.getDns() != null ? this.getDns().getName() : "") + ")";
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.jmdns.impl.tasks.resolver.DNSResolverTask#run()
+     */
+    @Override
+    public void run() {
+        try {
+            if (this.getDns().isCanceling() || this.getDns().isCanceled()) {
+                this.cancel();
+                return;
+            }
+            List<ServiceInfoImpl> infos = this.nextInfos();
+            if (infos == null) {
+                this.cancel();
+                return;
+            }
+            logger.debug("{}.run() JmDNS {}", this.getName(), this.description());
+
+            DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_QUERY);
+            Set<DNSQuestion> questions = new HashSet<DNSQuestion>();
+            boolean knownAnswers = this.getDns().isAnnounced();
+            long now = System.currentTimeMillis();
+            for (ServiceInfoImpl info : infos) {
+                out = this.addQuestion(out, questions, knownAnswers, now, info.getQualifiedName(), DNSRecordType.TYPE_SRV);
+                out = this.addQuestion(out, questions, knownAnswers, now, info.getQualifiedName(), DNSRecordType.TYPE_TXT);
+                if (!info.getServer().isEmpty()) {
+                    out = this.addQuestion(out, questions, knownAnswers, now, info.getServer(), DNSRecordType.TYPE_A);
+                    out = this.addQuestion(out, questions, knownAnswers, now, info.getServer(), DNSRecordType.TYPE_AAAA);
+                }
+            }
+            if (!out.isEmpty()) {
+                this.getDns().send(out);
+            }
+        } catch (Throwable e) {
+            logger.warn("{}.run() exception ", this.getName(), e);
+            this.getDns().recover();
+        }
+    }
+
+    /**
+     * Counts this run for every pending service info and drops those that have been queried three times.
+     *
+     * @return the service infos still missing data, or <code>null</code> once there is nothing left to resolve
+     */
+    private List<ServiceInfoImpl> nextInfos() {
+        List<ServiceInfoImpl> infos = new ArrayList<ServiceInfoImpl>();
+        List<ServiceInfoImpl> done = new ArrayList<ServiceInfoImpl>();
+        boolean finished;
+        synchronized (_pending) {
+            for (Iterator<Pending> i = _pending.iterator(); i.hasNext();) {
+                Pending pending = i.next();
+                if (pending._count++ < 3) {
+                    if (!pending._info.hasData()) {
+                        infos.add(pending._info);
+                    }
+                } else {
+                    // After three queries, we can quit.
+                    i.remove();
+                    done.add(pending._info);
+                }
+            }
+            finished = _pending.isEmpty();
+            _finished = finished;
+        }
+        for (ServiceInfoImpl info : done) {
+            this.removeListener(info);
+        }
+        return finished ? null : infos;
+    }
+
+    private void removeListener(ServiceInfoImpl info) {
+        if (!info.isPersistent()) {
+            this.getDns().removeListener(info);
+        }
+    }
+
+    /**
+     * Adds the question unless an earlier service info already asked it, followed by the cached records answering it.
+     */
+    private DNSOutgoing addQuestion(DNSOutgoing out, Set<DNSQuestion> questions, boolean knownAnswers, long now, String name, DNSRecordType type) throws IOException {
+        DNSQuestion question = DNSQuestion.newQuestion(name, type, DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE);
+        if (!questions.add(question)) {
+            return out;
+        }
+        DNSOutgoing newOut = this.addQuestion(out, question);
+        if (knownAnswers) {
+            for (DNSEntry entry : this.getDns().getCache().getDNSEntryList(name, type, DNSRecordClass.CLASS_IN)) {
+                if (!entry.isStale(now)) {
+                    newOut = this.addAnswer(newOut, (DNSRecord) entry, now);
+                }
+            }
+        }
+        return newOut;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.TimerTask#cancel()
+     */
+    @Override
+    public boolean cancel() {
+        // We should not forget to remove the listeners
+        boolean result = super.cancel();
+        List<Pending> pending;
+        synchronized (_pending) {
+            _finished = true;
+            pending = new ArrayList<Pending>(_pending);
+            _pending.clear();
+        }
+        for (Pending remaining : pending) {
+            this.removeListener(remaining._info);
+        }
+        return result;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.jmdns.impl.tasks.Resolver#addAnswers(javax.jmdns.impl.DNSOutgoing)
+     */
+    @Override
+    protected DNSOutgoing addAnswers(DNSOutgoing out) throws IOException {
+        // the known answers are added along with their question in run()
+        return out;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.jmdns.impl.tasks.Resolver#addQuestions(javax.jmdns.impl.DNSOutgoing)
+     */
+    @Override
+    protected DNSOutgoing addQuestions(DNSOutgoing out) throws IOException {
+        // the questions are added in run()
+        return out;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.jmdns.impl.tasks.Resolver#description()
+     */
+    @Override
+    protected String description() {
+        synchronized (_pending) {
+            return "querying service info of " + _pending.size() + " services";
+        }
+    }
+
+}
@@ -14,7 +14,6 @@
 package javax.jmdns.impl.tasks.state;
 
 import java.io.IOException;
-import java.util.Timer;
 
 import javax.jmdns.impl.DNSOutgoing;
 import javax.jmdns.impl.DNSRecord;
@@ -59,12 +58,12 @@ public class Announcer extends DNSStateTask {
 
     /*
      * (non-Javadoc)
-     * @see javax.jmdns.impl.tasks.DNSTask#start(java.util.Timer)
+     * @see javax.jmdns.impl.tasks.DNSTask#start(javax.jmdns.impl.tasks.DNSTask.Scheduler)
      */
     @Override
-    public void start(Timer timer) {
+    public void start(Scheduler scheduler) {
         if (!this.getDns().isCanceling() && !this.getDns().isCanceled()) {
-            timer.schedule(this, DNSConstants.ANNOUNCE_WAIT_INTERVAL, DNSConstants.ANNOUNCE_WAIT_INTERVAL);
+            scheduler.schedule(this, DNSConstants.ANNOUNCE_WAIT_INTERVAL, DNSConstants.ANNOUNCE_WAIT_INTERVAL);
         }
     }
 
@@ -14,7 +14,6 @@
 package javax.jmdns.impl.tasks.state;
 
 import java.io.IOException;
-import java.util.Timer;
 
 import javax.jmdns.impl.DNSOutgoing;
 import javax.jmdns.impl.DNSRecord;
@@ -56,11 +55,11 @@ public class Canceler extends DNSStateTask {
 
     /*
      * (non-Javadoc)
-     * @see javax.jmdns.impl.tasks.DNSTask#start(java.util.Timer)
+     * @see javax.jmdns.impl.tasks.DNSTask#start(javax.jmdns.impl.tasks.DNSTask.Scheduler)
      */
     @Override
-    public void start(Timer timer) {
-        timer.schedule(this, 0, DNSConstants.ANNOUNCE_WAIT_INTERVAL);
+    public void start(Scheduler scheduler) {
+        scheduler.schedule(this, 0, DNSConstants.ANNOUNCE_WAIT_INTERVAL);
     }
 
     /*
@@ -31,15 +31,15 @@ import android.widget.SeekBar.OnSeekBarChangeListener;
 import android.widget.TextView;
 
 import com.connectsdk.core.MediaInfo;
+import com.connectsdk.core.MediaStatus;
 import com.connectsdk.core.SubtitleInfo;
 import com.connectsdk.device.ConnectableDevice;
 import com.connectsdk.sampler.R;
 import com.connectsdk.sampler.util.TestResponseObject;
 import com.connectsdk.service.capability.MediaControl;
-import com.connectsdk.service.capability.MediaControl.DurationListener;
+import com.connectsdk.service.capability.MediaControl.MediaStatusListener;
 import com.connectsdk.service.capability.MediaControl.PlayStateListener;
 import com.connectsdk.service.capability.MediaControl.PlayStateStatus;
-import com.connectsdk.service.capability.MediaControl.PositionListener;
 import com.connectsdk.service.capability.MediaPlayer;
 import com.connectsdk.service.capability.MediaPlayer.MediaInfoListener;
 import com.connectsdk.service.capability.MediaPlayer.MediaLaunchObject;
@@ -48,13 +48,11 @@ import com.connectsdk.service.capability.VolumeControl;
 import com.connectsdk.service.capability.VolumeControl.VolumeListener;
 import com.connectsdk.service.capability.listeners.ResponseListener;
 import com.connectsdk.service.command.ServiceCommandError;
+import com.connectsdk.service.command.ServiceSubscription;
 import com.connectsdk.service.sessions.LaunchSession;
 
 import java.io.InputStream;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.TimeUnit;
 
 public class MediaPlayerFragment extends BaseFragment {
     public static final String URL_SUBTITLES_WEBVTT = "http://connectsdk.com/ConnectSDK.vtt";
@@ -94,7 +92,6 @@ public class MediaPlayerFragment extends BaseFragment {
 
     public boolean mSeeking;
     public Runnable mRefreshRunnable;
-    public final int REFRESH_INTERVAL_MS = (int) TimeUnit.SECONDS.toMillis(1);
     public Handler mHandler;
     public long totalTimeDuration;
     public boolean mIsGettingPlayPosition;
@@ -106,7 +103,7 @@ public class MediaPlayerFragment extends BaseFragment {
     private MediaControl mMediaControl = null;
     private PlaylistControl mPlaylistControl = null;
 
-    private Timer refreshTimer;
+    private ServiceSubscription<MediaStatusListener> statusSubscription;
     
     public TestResponseObject testResponse;
 
@@ -534,9 +531,6 @@ public class MediaPlayerFragment extends BaseFragment {
         if (getTv().hasCapability(MediaControl.PlayState_Subscribe) && !isPlaying) {
             mMediaControl.subscribePlayState(playStateListener);
         } else {
-            if (mMediaControl != null) {
-                mMediaControl.getDuration(durationListener);
-            }
             startUpdating();
         }
     }
@@ -742,10 +736,6 @@ public class MediaPlayerFragment extends BaseFragment {
             switch (playState) {
                 case Playing:
                     startUpdating();
-
-                    if (mMediaControl != null && getTv().hasCapability(MediaControl.Duration)) {
-                        mMediaControl.getDuration(durationListener);
-                    }
                     break;
                 case Finished:
                     positionTextView.setText("--:--");
@@ -760,59 +750,37 @@ public class MediaPlayerFragment extends BaseFragment {
     };
 
     private void startUpdating() {
-        if (refreshTimer != null) {
-            refreshTimer.cancel();
-            refreshTimer = null;
+        if (statusSubscription != null || mMediaControl == null || getTv() == null
+                || !getTv().hasCapability(MediaControl.Position)) {
+            return;
         }
-        refreshTimer = new Timer();
-        refreshTimer.schedule(new TimerTask() {
-
-            @Override
-            public void run() {
-                Log.d("LG", "Updating information");
-                if (mMediaControl != null && getTv() != null && getTv().hasCapability(MediaControl.Position)) {
-                    mMediaControl.getPosition(positionListener);
-                }
-
-                if (mMediaControl != null
-                        && getTv() != null
-                        && getTv().hasCapability(MediaControl.Duration)
-                        && !getTv().hasCapability(MediaControl.PlayState_Subscribe)
-                        && totalTimeDuration <= 0) {
-                    mMediaControl.getDuration(durationListener);
-                }
-            }
-        }, 0, REFRESH_INTERVAL_MS);
+        Log.d("LG", "Updating information");
+        statusSubscription = mMediaControl.subscribeMediaStatus(statusListener);
     }
 
     private void stopUpdating() {
-        if (refreshTimer == null)
+        if (statusSubscription == null)
             return;
 
-        refreshTimer.cancel();
-        refreshTimer = null;
+        statusSubscription.removeListener(statusListener);
+        statusSubscription = null;
     }
 
-    private PositionListener positionListener = new PositionListener() {
+    private MediaStatusListener statusListener = new MediaStatusListener() {
 
         @Override public void onError(ServiceCommandError error) { }
 
         @Override
-        public void onSuccess(Long position) {
-            positionTextView.setText(formatTime(position.intValue()));
-            mSeekBar.setProgress(position.intValue());
-        }
-    };
-
-    private DurationListener durationListener = new DurationListener() {
-
-        @Override public void onError(ServiceCommandError error) { }
-
-        @Override
-        public void onSuccess(Long duration) {
-            totalTimeDuration = duration;
-            mSeekBar.setMax(duration.intValue());
-            durationTextView.setText(formatTime(duration.intValue()));
+        public void onSuccess(MediaStatus status) {
+            if (status.getDuration() > 0 && status.getDuration() != totalTimeDuration) {
+                totalTimeDuration = status.getDuration();
+                mSeekBar.setMax((int) totalTimeDuration);
+                durationTextView.setText(formatTime(totalTimeDuration));
+            }
+            if (status.getPosition() >= 0) {
+                positionTextView.setText(formatTime(status.getPosition()));
+                mSeekBar.setProgress((int) status.getPosition());
+            }
         }
     };
 